@@ -65,6 +65,7 @@ public abstract class Body {
     north = new Vector3D(body.north);
     equator = new Vector3D(body.equator);
     texture = body.texture;
+    color = body.color;
   }
 
   /**
@@ -0,0 +1,376 @@
+package environment;
+
+import java.util.List;
+
+import environment.gravity.GravitySolver;
+import lib.JerkSystem;
+
+/**
+ * Structure-of-arrays copy of the dynamical state of every body in a solar
+ * system. Positions, velocities, accelerations, masses and radii are stored in
+ * contiguous primitive arrays so that the physics loops can run without
+ * allocating any Vector3D objects.
+ *
+ * The Body objects remain the reference used by the rest of the application,
+ * the store is synced from them with pull() and written back with push().
+ *
+ * The store is integrated by the ODE solvers, its accelerations being computed
+ * by the gravity solver set with setForces().
+ */
+public class BodyState implements JerkSystem {
+
+  private int count = 0; // Number of bodies currently stored
+
+  // Positions in m
+  private double[] x;
+  private double[] y;
+  private double[] z;
+  // Velocities in m/s
+  private double[] vx;
+  private double[] vy;
+  private double[] vz;
+  // Accelerations in m/s^2
+  private double[] ax;
+  private double[] ay;
+  private double[] az;
+  // Jerks (time derivatives of the accelerations) in m/s^3, only computed for the Hermite integrator
+  private double[] jx;
+  private double[] jy;
+  private double[] jz;
+
+  private double[] mass; // kg
+  private double[] radius; // m
+
+  private GravitySolver gravitySolver; // Backend computing the accelerations
+  private double gravity; // Gravitational constant in m^3 kg^-1 s^-2
+  private long forceTime = 0; // Wall time spent computing accelerations in nanoseconds
+  private long nbEvaluations = 0; // Number of acceleration computations
+
+  /**
+   * Constructor for an empty state store
+   * @param capacity initial number of bodies the store can hold
+   */
+  public BodyState(int capacity) {
+    allocate(Math.max(capacity, 1));
+  }
+
+  /**
+   * Allocates the arrays for a given capacity, dropping their content
+   * @param capacity number of bodies the arrays can hold
+   */
+  private void allocate(int capacity) {
+    x = new double[capacity];
+    y = new double[capacity];
+    z = new double[capacity];
+    vx = new double[capacity];
+    vy = new double[capacity];
+    vz = new double[capacity];
+    ax = new double[capacity];
+    ay = new double[capacity];
+    az = new double[capacity];
+    jx = new double[capacity];
+    jy = new double[capacity];
+    jz = new double[capacity];
+    mass = new double[capacity];
+    radius = new double[capacity];
+  }
+
+  /**
+   * Makes sure the store can hold a given number of bodies. Arrays only grow, so
+   * once the store is large enough no further allocation happens
+   * @param capacity number of bodies the store must be able to hold
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > x.length) {
+      allocate(Math.max(capacity, 2 * x.length));
+    }
+  }
+
+  /**
+   * Copies the position, velocity, mass and radius of every body into the arrays
+   * @param bodies list of all bodies in system
+   */
+  public void pull(List<Body> bodies) {
+    int n = bodies.size();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      Body body = bodies.get(i);
+      x[i] = body.getX();
+      y[i] = body.getY();
+      z[i] = body.getZ();
+      vx[i] = body.getVel().getX();
+      vy[i] = body.getVel().getY();
+      vz[i] = body.getVel().getZ();
+      mass[i] = body.getMass();
+      radius[i] = body.getRadius();
+    }
+    count = n;
+  }
+
+  /**
+   * Writes the positions and velocities back into the bodies. The existing
+   * Vector3D of each body is updated in place
+   * @param bodies list of bodies the store was pulled from
+   */
+  public void push(List<Body> bodies) {
+    for (int i = 0; i < count; i++) {
+      Body body = bodies.get(i);
+      body.getPos().setComponents(x[i], y[i], z[i]);
+      body.getVel().setComponents(vx[i], vy[i], vz[i]);
+    }
+  }
+
+  /**
+   * Writes the positions and velocities of some of the bodies back into them
+   * @param bodies list of bodies the store was pulled from
+   * @param indices indices of the bodies to write back
+   * @param nb number of indices used in the indices array
+   */
+  public void push(List<Body> bodies, int[] indices, int nb) {
+    for (int k = 0; k < nb; k++) {
+      int i = indices[k];
+      Body body = bodies.get(i);
+      body.getPos().setComponents(x[i], y[i], z[i]);
+      body.getVel().setComponents(vx[i], vy[i], vz[i]);
+    }
+  }
+
+  /**
+   * Sets how the accelerations of the bodies are computed
+   * @param gravitySolver backend computing the accelerations
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  public void setForces(GravitySolver gravitySolver, double gravity) {
+    this.gravitySolver = gravitySolver;
+    this.gravity = gravity;
+  }
+
+  /**
+   * Computes the acceleration of every body at the current positions with the
+   * gravity solver, and keeps track of the time spent doing so
+   */
+  @Override
+  public void computeAccelerations() {
+    long start = System.nanoTime();
+    gravitySolver.computeAccelerations(this, gravity);
+    forceTime += System.nanoTime() - start;
+    nbEvaluations++;
+  }
+
+  /**
+   * Computes the acceleration of some of the bodies at the current positions
+   * with the gravity solver, and keeps track of the time spent doing so
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  @Override
+  public void computeAccelerations(int[] active, int count) {
+    long start = System.nanoTime();
+    gravitySolver.computeAccelerations(this, gravity, active, count);
+    forceTime += System.nanoTime() - start;
+    nbEvaluations++;
+  }
+
+  /**
+   * Computes the acceleration and jerk of every body at the current positions
+   * and velocities with the gravity solver, and keeps track of the time spent
+   * doing so
+   */
+  @Override
+  public void computeAccelerationsAndJerks() {
+    long start = System.nanoTime();
+    gravitySolver.computeAccelerationsAndJerks(this, gravity);
+    forceTime += System.nanoTime() - start;
+    nbEvaluations++;
+  }
+
+  /**
+   * Getter for the gravitational constant set with setForces
+   * @return gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public double getGravity() {
+    return gravity;
+  }
+
+  /**
+   * Getter for the wall time spent computing accelerations since the last reset
+   * @return time spent in nanoseconds
+   */
+  public long getForceTime() {
+    return forceTime;
+  }
+
+  /**
+   * Getter for the number of acceleration computations since the last reset
+   * @return number of evaluations
+   */
+  public long getNbEvaluations() {
+    return nbEvaluations;
+  }
+
+  /**
+   * Resets the force time and evaluation counters
+   */
+  public void resetCounters() {
+    forceTime = 0;
+    nbEvaluations = 0;
+  }
+
+  /**
+   * Computes the total mechanical energy of the bodies, kinetic plus gravitational
+   * potential energy of every pair (O(n^2))
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @return energy in J
+   */
+  public double totalEnergy(double gravity) {
+    double kinetic = 0;
+    double potential = 0;
+    for (int i = 0; i < count; i++) {
+      kinetic += 0.5 * mass[i] * (vx[i] * vx[i] + vy[i] * vy[i] + vz[i] * vz[i]);
+      double sum = 0;
+      for (int j = i + 1; j < count; j++) {
+        double dx = x[j] - x[i];
+        double dy = y[j] - y[i];
+        double dz = z[j] - z[i];
+        sum += mass[j] / Math.sqrt(dx * dx + dy * dy + dz * dz);
+      }
+      potential -= gravity * mass[i] * sum;
+    }
+    return kinetic + potential;
+  }
+
+  /**
+   * Getter for the number of bodies in the store
+   * @return number of bodies
+   */
+  @Override
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Getter for the x positions
+   * @return array of x coordinates in m (only the first size() entries are valid)
+   */
+  @Override
+  public double[] getX() {
+    return x;
+  }
+
+  /**
+   * Getter for the y positions
+   * @return array of y coordinates in m (only the first size() entries are valid)
+   */
+  @Override
+  public double[] getY() {
+    return y;
+  }
+
+  /**
+   * Getter for the z positions
+   * @return array of z coordinates in m (only the first size() entries are valid)
+   */
+  @Override
+  public double[] getZ() {
+    return z;
+  }
+
+  /**
+   * Getter for the x velocities
+   * @return array of x velocities in m/s
+   */
+  @Override
+  public double[] getVx() {
+    return vx;
+  }
+
+  /**
+   * Getter for the y velocities
+   * @return array of y velocities in m/s
+   */
+  @Override
+  public double[] getVy() {
+    return vy;
+  }
+
+  /**
+   * Getter for the z velocities
+   * @return array of z velocities in m/s
+   */
+  @Override
+  public double[] getVz() {
+    return vz;
+  }
+
+  /**
+   * Getter for the x accelerations
+   * @return array of x accelerations in m/s^2
+   */
+  @Override
+  public double[] getAx() {
+    return ax;
+  }
+
+  /**
+   * Getter for the y accelerations
+   * @return array of y accelerations in m/s^2
+   */
+  @Override
+  public double[] getAy() {
+    return ay;
+  }
+
+  /**
+   * Getter for the z accelerations
+   * @return array of z accelerations in m/s^2
+   */
+  @Override
+  public double[] getAz() {
+    return az;
+  }
+
+  /**
+   * Getter for the x jerks
+   * @return array of x jerks in m/s^3
+   */
+  @Override
+  public double[] getJx() {
+    return jx;
+  }
+
+  /**
+   * Getter for the y jerks
+   * @return array of y jerks in m/s^3
+   */
+  @Override
+  public double[] getJy() {
+    return jy;
+  }
+
+  /**
+   * Getter for the z jerks
+   * @return array of z jerks in m/s^3
+   */
+  @Override
+  public double[] getJz() {
+    return jz;
+  }
+
+  /**
+   * Getter for the masses
+   * @return array of masses in kg
+   */
+  @Override
+  public double[] getMass() {
+    return mass;
+  }
+
+  /**
+   * Getter for the radii
+   * @return array of radii in m
+   */
+  public double[] getRadius() {
+    return radius;
+  }
+}
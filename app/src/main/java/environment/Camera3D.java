@@ -186,15 +186,28 @@ public class Camera3D implements Paintable {
   }
 
   /**
-   * Go over every Body in the solarSystem and paint them on the screen
+   * Go over every Body in the last snapshot of the solarSystem and paint them on
+   * the screen. The snapshot does not change while it is painted, even if the
+   * simulation keeps stepping
    *
    * @param g2d The graphics component
    */
   @Override
   public void paintThis(Graphics2D g2d) {
+    paintThis(g2d, solarSystem.getSnapshot());
+  }
+
+  /**
+   * Paints the bodies of a given snapshot of the solarSystem, for instance one
+   * interpolated between two steps
+   *
+   * @param g2d      The graphics component
+   * @param snapshot The bodies to paint
+   */
+  public void paintThis(Graphics2D g2d, SystemSnapshot snapshot) {
     // Setts up the necessary values before computing them
     AffineTransform originalTransform = g2d.getTransform();
-    ArrayList<Body> orderedBodies = new ArrayList<>(solarSystem.getBodies());
+    ArrayList<Body> orderedBodies = new ArrayList<>(snapshot.getBodies());
     // Sort the bodies by distance to camera
     orderedBodies.sort((a, b) -> {
       return Double.compare(
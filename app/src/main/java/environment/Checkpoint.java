@@ -0,0 +1,340 @@
+package environment;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import environment.habitablity.Atmosphere;
+import environment.habitablity.Gas;
+import lib.Vector3D;
+
+/**
+ * Binary checkpoint of a whole simulation, to resume a long run after a restart.
+ *
+ * The file holds a header (magic number, version, time, gravitational constant,
+ * preset and number of bodies) followed by one record per body: its type,
+ * texture, position, velocity, mass, radius, orientation, colour and name, and
+ * for rocky planets the state of the atmosphere and the habitability.
+ *
+ * Records are written and read through a single direct buffer that is flushed
+ * to (or refilled from) the channel when it runs low, so no object is created
+ * per field, only the bodies themselves when loading.
+ */
+public class Checkpoint {
+  private static final int MAGIC = 0x53534350; // "SSCP"
+  private static final int VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 20; // Bytes read or written to the channel at once
+  private static final int MAX_RECORD = 256; // Size of a record, without its name, is at most this
+
+  // Types of bodies
+  private static final byte STAR = 0;
+  private static final byte ROCKY = 1;
+  private static final byte GASSY = 2;
+  private static final byte CRASHED = 3;
+
+  /**
+   * Creates a buffer large enough to save or load any checkpoint
+   * @return new direct buffer
+   */
+  static ByteBuffer newBuffer() {
+    return ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  /**
+   * Saves a simulation to a file, replacing it if it exists
+   * @param solarSystem simulation to save
+   * @param path file to write
+   * @throws IOException if the file cannot be written
+   */
+  public static void save(SolarSystem solarSystem, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      save(solarSystem, channel);
+    }
+  }
+
+  /**
+   * Writes a simulation to a channel
+   * @param solarSystem simulation to save
+   * @param channel channel to write to, left open
+   * @throws IOException if the channel cannot be written
+   */
+  public static void save(SolarSystem solarSystem, WritableByteChannel channel) throws IOException {
+    save(solarSystem, channel, newBuffer());
+  }
+
+  /**
+   * Writes a simulation to a channel through a given buffer, so that frequent
+   * saves do not allocate a new one each time
+   * @param solarSystem simulation to save
+   * @param channel channel to write to, left open
+   * @param buffer buffer from newBuffer(), its content is discarded
+   * @throws IOException if the channel cannot be written
+   */
+  static void save(SolarSystem solarSystem, WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+    ArrayList<Body> bodies = solarSystem.getBodies();
+    buffer.clear();
+    buffer.putInt(MAGIC);
+    buffer.putInt(VERSION);
+    buffer.putDouble(solarSystem.getTime());
+    buffer.putDouble(solarSystem.getGravity());
+    buffer.putInt(solarSystem.system != null ? solarSystem.system.ordinal() : -1);
+    buffer.putInt(bodies.size());
+
+    for (Body body : bodies) {
+      byte[] name = body.getBodyName().getBytes(StandardCharsets.UTF_8);
+      if (name.length > BUFFER_SIZE - MAX_RECORD) {
+        throw new IOException("Name of body too long: " + body.getBodyName());
+      }
+      if (buffer.remaining() < MAX_RECORD + name.length) {
+        flush(buffer, channel);
+      }
+      byte type = body instanceof Star ? STAR : body instanceof RockyPlanet ? ROCKY
+          : body instanceof GassyPlanet ? GASSY : CRASHED;
+      buffer.put(type);
+      buffer.putInt(body.getTexture().ordinal());
+      putVector(buffer, body.getPos());
+      putVector(buffer, body.getVel());
+      buffer.putDouble(body.getMass());
+      buffer.putDouble(body.getRadius());
+      putVector(buffer, body.getNorth());
+      putVector(buffer, body.getEquator());
+      buffer.put((byte) (body.getColor() != null ? 1 : 0));
+      buffer.putInt(body.getColor() != null ? body.getColor().getRGB() : 0);
+      buffer.putInt(name.length);
+      buffer.put(name);
+      if (type == ROCKY) {
+        RockyPlanet planet = (RockyPlanet) body;
+        Atmosphere atmosphere = planet.getAtm();
+        buffer.putInt(atmosphere.getGas().ordinal());
+        buffer.putDouble(atmosphere.getTemperature());
+        buffer.putDouble(atmosphere.getPressure());
+        buffer.putDouble(planet.getInitTemp());
+        buffer.put((byte) (planet.getHab() ? 1 : 0));
+      }
+    }
+    flush(buffer, channel);
+  }
+
+  /**
+   * Replaces the content of a simulation with a checkpoint file. The bodies are
+   * replaced in the existing list, so that views holding it stay valid
+   * @param solarSystem simulation to restore into
+   * @param path file to read
+   * @throws IOException if the file cannot be read or is not a checkpoint
+   */
+  public static void load(SolarSystem solarSystem, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      load(solarSystem, channel);
+    }
+  }
+
+  /**
+   * Replaces the content of a simulation with a checkpoint read from a channel
+   * @param solarSystem simulation to restore into
+   * @param channel channel to read from, left open
+   * @throws IOException if the channel cannot be read or does not hold a checkpoint
+   */
+  public static void load(SolarSystem solarSystem, ReadableByteChannel channel) throws IOException {
+    load(solarSystem, channel, newBuffer());
+  }
+
+  /**
+   * Replaces the content of a simulation with a checkpoint read from a channel
+   * through a given buffer, so that frequent loads do not allocate a new one each time
+   * @param solarSystem simulation to restore into
+   * @param channel channel to read from, left open
+   * @param buffer buffer from newBuffer(), its content is discarded
+   * @throws IOException if the channel cannot be read or does not hold a checkpoint
+   */
+  static void load(SolarSystem solarSystem, ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.clear();
+    buffer.flip();
+    try {
+      read(solarSystem, buffer, channel);
+    } catch (BufferUnderflowException e) {
+      throw new EOFException("Truncated checkpoint");
+    }
+  }
+
+  /**
+   * Reads a checkpoint into a simulation
+   * @param solarSystem simulation to restore into
+   * @param buffer empty buffer in read mode
+   * @param channel channel to read from
+   * @throws IOException if the channel cannot be read or does not hold a checkpoint
+   */
+  private static void read(SolarSystem solarSystem, ByteBuffer buffer, ReadableByteChannel channel)
+      throws IOException {
+    fill(buffer, channel, 32);
+    if (buffer.getInt() != MAGIC) {
+      throw new IOException("Not a checkpoint");
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported checkpoint version " + version);
+    }
+    double time = buffer.getDouble();
+    double gravity = buffer.getDouble();
+    int system = buffer.getInt();
+    if (system < -1 || system >= Systems.values().length) {
+      throw new IOException("Corrupted checkpoint");
+    }
+    int n = buffer.getInt();
+    Texture[] textures = Texture.values();
+    Gas[] gases = Gas.values();
+
+    ArrayList<Body> loaded = new ArrayList<Body>(n);
+    byte[] name = new byte[64];
+    for (int i = 0; i < n; i++) {
+      fill(buffer, channel, MAX_RECORD);
+      byte type = buffer.get();
+      if (type < STAR || type > CRASHED) {
+        throw new IOException("Corrupted checkpoint");
+      }
+      Texture texture = textures[ordinal(buffer, textures.length)];
+      Vector3D pos = getVector(buffer);
+      Vector3D vel = getVector(buffer);
+      double mass = buffer.getDouble();
+      double radius = buffer.getDouble();
+      Vector3D north = getVector(buffer);
+      Vector3D equator = getVector(buffer);
+      boolean hasColor = buffer.get() != 0;
+      int rgb = buffer.getInt();
+      int nameLength = buffer.getInt();
+      if (nameLength < 0 || nameLength > BUFFER_SIZE - MAX_RECORD) {
+        throw new IOException("Corrupted checkpoint");
+      }
+      if (name.length < nameLength) {
+        name = new byte[Math.max(nameLength, 2 * name.length)];
+      }
+      fill(buffer, channel, nameLength + MAX_RECORD / 2);
+      buffer.get(name, 0, nameLength);
+      String bodyName = new String(name, 0, nameLength, StandardCharsets.UTF_8);
+
+      Body body;
+      switch (type) {
+        case STAR:
+          body = new Star(radius, mass, pos, vel, bodyName);
+          break;
+        case ROCKY:
+          Gas gas = gases[ordinal(buffer, gases.length)];
+          double temperature = buffer.getDouble();
+          double pressure = buffer.getDouble();
+          double initTemp = buffer.getDouble();
+          RockyPlanet planet = new RockyPlanet(radius, mass, pos, vel, texture, bodyName, gas, initTemp);
+          planet.getAtm().setTemperature(temperature);
+          planet.getAtm().setPressure(pressure);
+          planet.setHab(buffer.get() != 0);
+          body = planet;
+          break;
+        case GASSY:
+          body = new GassyPlanet(radius, mass, pos, vel, texture, bodyName);
+          break;
+        case CRASHED:
+          body = new CrashedPlanet(radius, mass, pos, vel, bodyName);
+          break;
+        default:
+          throw new IOException("Unknown body type " + type);
+      }
+      body.setTexture(texture);
+      body.setNorth(north);
+      body.setEquator(equator);
+      if (hasColor) {
+        body.setColor(new Color(rgb, true));
+      }
+      loaded.add(body);
+    }
+
+    solarSystem.getBodies().clear();
+    solarSystem.getBodies().addAll(loaded);
+    solarSystem.restart(time);
+    solarSystem.gravity = gravity;
+    if (system >= 0) {
+      solarSystem.setSystem(Systems.values()[system]);
+    }
+    solarSystem.publishSnapshot();
+  }
+
+  /**
+   * Writes the content of the buffer to the channel and clears it
+   * @param buffer buffer in write mode
+   * @param channel channel to write to
+   * @throws IOException if the channel cannot be written
+   */
+  private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Makes sure the buffer holds at least some bytes, reading more from the
+   * channel if needed. Fewer bytes are only accepted at the end of the channel
+   * @param buffer buffer in read mode
+   * @param channel channel to read from
+   * @param needed number of bytes wanted
+   * @throws IOException if the channel cannot be read, or ends before any byte is available
+   */
+  private static void fill(ByteBuffer buffer, ReadableByteChannel channel, int needed) throws IOException {
+    if (buffer.remaining() >= needed) {
+      return;
+    }
+    buffer.compact();
+    while (buffer.position() < needed) {
+      if (channel.read(buffer) < 0) {
+        break;
+      }
+    }
+    buffer.flip();
+    if (!buffer.hasRemaining()) {
+      throw new EOFException("Truncated checkpoint");
+    }
+  }
+
+  /**
+   * Reads the ordinal of an enum constant
+   * @param buffer buffer to read from
+   * @param count number of constants of the enum
+   * @return ordinal, from 0 to count - 1
+   * @throws IOException if the ordinal is not the one of a constant
+   */
+  private static int ordinal(ByteBuffer buffer, int count) throws IOException {
+    int ordinal = buffer.getInt();
+    if (ordinal < 0 || ordinal >= count) {
+      throw new IOException("Corrupted checkpoint");
+    }
+    return ordinal;
+  }
+
+  /**
+   * Writes the components of a vector
+   * @param buffer buffer to write to
+   * @param v vector to write
+   */
+  private static void putVector(ByteBuffer buffer, Vector3D v) {
+    buffer.putDouble(v.getX());
+    buffer.putDouble(v.getY());
+    buffer.putDouble(v.getZ());
+  }
+
+  /**
+   * Reads the components of a vector
+   * @param buffer buffer to read from
+   * @return new vector
+   */
+  private static Vector3D getVector(ByteBuffer buffer) {
+    return new Vector3D(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+  }
+}
@@ -0,0 +1,422 @@
+package environment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lib.Vector3D;
+
+/**
+ * Monte Carlo study of the habitability: runs many copies of a system whose
+ * positions and velocities are randomly perturbed, and measures for each rocky
+ * planet the fraction of the time it spends habitable.
+ *
+ * The members are spread over the threads of a ForkJoinPool. A member is only
+ * created when a thread starts it, and its result is folded into running
+ * statistics as soon as it ends, so at most one system per thread is held in
+ * memory whatever the number of members. Member k uses its own random seed, so
+ * the results do not depend on the number of threads (up to the rounding of
+ * the statistics, which are summed in completion order).
+ *
+ * Run with: java environment.EnsembleRunner [options]
+ *   --system name        preset to perturb (default SolarSystem)
+ *   --scenario file      scenario file to perturb instead (see Scenario)
+ *   --members n          number of perturbed copies (default 100)
+ *   --dt time            time step (default 1d)
+ *   --duration time      simulated time of each copy (default 10y)
+ *   --position spread    standard deviation of the relative perturbation of the positions (default 1e-3)
+ *   --velocity spread    standard deviation of the relative perturbation of the velocities (default 1e-3)
+ *   --seed n             random seed (default 396)
+ *   --threads n          number of threads (default number of processors)
+ *   --integrator name    integrator, as in SimulationRunner
+ * Times are in seconds, or followed by h, d or y.
+ */
+public class EnsembleRunner {
+  private ArrayList<Body> base = new ArrayList<Body>(); // Unperturbed bodies, copied for each member
+  private double positionSpread = 1e-3; // Relative standard deviation of the perturbation of the positions
+  private double velocitySpread = 1e-3; // Relative standard deviation of the perturbation of the velocities
+  private long seed = 396;
+  private String integrator = "euler"; // Name of the integrator, each member gets its own
+  private ForkJoinPool pool = ForkJoinPool.commonPool();
+  private PlanetStats[] results; // Statistics of each rocky planet of the base system
+  private AtomicInteger nbDone = new AtomicInteger(); // Members finished in the current run
+
+  /**
+   * Running statistics of the habitable-time fraction of one planet over the
+   * members, updated with Welford's algorithm
+   */
+  public static class PlanetStats {
+    private final String name;
+    private long count = 0;
+    private double mean = 0;
+    private double m2 = 0; // Sum of the squared deviations from the mean
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Constructor for empty statistics
+     * @param name name of the planet
+     */
+    PlanetStats(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Adds the result of a member
+     * @param fraction fraction of the time the planet was habitable
+     */
+    synchronized void add(double fraction) {
+      count++;
+      double delta = fraction - mean;
+      mean += delta / count;
+      m2 += delta * (fraction - mean);
+      min = Math.min(min, fraction);
+      max = Math.max(max, fraction);
+    }
+
+    /**
+     * Getter for the name of the planet
+     * @return name of the planet
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Getter for the number of members added
+     * @return number of members
+     */
+    public synchronized long getCount() {
+      return count;
+    }
+
+    /**
+     * Getter for the mean habitable-time fraction
+     * @return mean fraction, between 0 and 1
+     */
+    public synchronized double getMean() {
+      return mean;
+    }
+
+    /**
+     * Getter for the standard deviation of the habitable-time fraction
+     * @return sample standard deviation, 0 with fewer than two members
+     */
+    public synchronized double getStandardDeviation() {
+      return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+    }
+
+    /**
+     * Getter for the smallest habitable-time fraction
+     * @return smallest fraction over the members
+     */
+    public synchronized double getMin() {
+      return min;
+    }
+
+    /**
+     * Getter for the largest habitable-time fraction
+     * @return largest fraction over the members
+     */
+    public synchronized double getMax() {
+      return max;
+    }
+  }
+
+  /**
+   * Constructor for an ensemble around a list of bodies
+   * @param bodies unperturbed bodies, copied so that the list can change afterwards
+   */
+  public EnsembleRunner(ArrayList<Body> bodies) {
+    for (Body body : bodies) {
+      base.add(body.copy());
+    }
+  }
+
+  /**
+   * Runs the members and gathers their statistics, replacing the ones of a
+   * previous run. Returns when all the members are done
+   * @param nbMembers number of perturbed copies
+   * @param dt time step in seconds
+   * @param duration simulated time of each copy in seconds
+   * @return statistics of each rocky planet, in the order of the bodies
+   */
+  public PlanetStats[] run(int nbMembers, double dt, double duration) {
+    if (nbMembers < 1) {
+      throw new IllegalArgumentException("The ensemble needs at least one member");
+    }
+    if (dt <= 0 || duration <= 0) {
+      throw new IllegalArgumentException("The time step and the duration must be strictly positive");
+    }
+    ArrayList<PlanetStats> stats = new ArrayList<PlanetStats>();
+    for (Body body : base) {
+      if (body instanceof RockyPlanet) {
+        stats.add(new PlanetStats(body.getBodyName()));
+      }
+    }
+    results = stats.toArray(new PlanetStats[0]);
+    nbDone.set(0);
+    pool.invoke(new MemberTask(0, nbMembers, dt, duration));
+    return results;
+  }
+
+  /**
+   * Task splitting a range of members in halves down to single members
+   */
+  private class MemberTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int from;
+    private final int to;
+    private final double dt;
+    private final double duration;
+
+    /**
+     * Constructor for a range of members
+     * @param from first member of the range
+     * @param to member after the last member of the range
+     * @param dt time step in seconds
+     * @param duration simulated time in seconds
+     */
+    MemberTask(int from, int to, double dt, double duration) {
+      this.from = from;
+      this.to = to;
+      this.dt = dt;
+      this.duration = duration;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        runMember(from, dt, duration);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new MemberTask(from, mid, dt, duration), new MemberTask(mid, to, dt, duration));
+    }
+  }
+
+  /**
+   * Creates, runs and measures one member
+   * @param member index of the member, which sets its random perturbation
+   * @param dt time step in seconds
+   * @param duration simulated time in seconds
+   */
+  private void runMember(int member, double dt, double duration) {
+    Random rand = new Random(seed + 0x9E3779B97F4A7C15L * member);
+    ArrayList<Body> bodies = new ArrayList<Body>(base.size());
+    for (Body body : base) {
+      Body copy = body.copy();
+      copy.setPos(perturb(body.getPos(), positionSpread, rand));
+      copy.setVel(perturb(body.getVel(), velocitySpread, rand));
+      bodies.add(copy);
+    }
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem, bodies);
+    solarSystem.setUseStateStore(true);
+    solarSystem.setSolver(SimulationRunner.parseSolver(integrator));
+
+    HabitableTime habitable = new HabitableTime(bodies);
+    solarSystem.addStepListener(habitable);
+    solarSystem.advanceTo(duration, dt);
+    for (int p = 0; p < results.length; p++) {
+      results[p].add(habitable.time[p] / duration);
+    }
+    nbDone.incrementAndGet();
+  }
+
+  /**
+   * Perturbs a vector by a random amount proportional to its length
+   * @param v vector to perturb
+   * @param spread standard deviation of each component of the perturbation, relative to the length
+   * @param rand random generator
+   * @return new perturbed vector
+   */
+  private static Vector3D perturb(Vector3D v, double spread, Random rand) {
+    double scale = spread * v.len();
+    return new Vector3D(v.getX() + scale * rand.nextGaussian(), v.getY() + scale * rand.nextGaussian(),
+        v.getZ() + scale * rand.nextGaussian());
+  }
+
+  /**
+   * Adds up the time each rocky planet of a member spends habitable. A planet
+   * that crashes stops counting
+   */
+  private static class HabitableTime implements StepListener {
+    private RockyPlanet[] planets; // Rocky planets in list order, null once crashed
+    private double[] time; // Habitable time of each planet in seconds
+    private int nbBodies; // Number of bodies after the last step
+
+    /**
+     * Constructor for the rocky planets of a list of bodies
+     * @param bodies bodies of the member
+     */
+    HabitableTime(ArrayList<Body> bodies) {
+      ArrayList<RockyPlanet> rocky = new ArrayList<RockyPlanet>();
+      for (Body body : bodies) {
+        if (body instanceof RockyPlanet) {
+          rocky.add((RockyPlanet) body);
+        }
+      }
+      planets = rocky.toArray(new RockyPlanet[0]);
+      time = new double[planets.length];
+      nbBodies = bodies.size();
+    }
+
+    @Override
+    public void stepDone(SolarSystem solarSystem, BodyState state) {
+      ArrayList<Body> bodies = solarSystem.getBodies();
+      if (bodies.size() != nbBodies) { // Only crashes remove bodies
+        for (int p = 0; p < planets.length; p++) {
+          if (planets[p] != null && !bodies.contains(planets[p])) {
+            planets[p] = null;
+          }
+        }
+        nbBodies = bodies.size();
+      }
+      double dt = solarSystem.getLastDt();
+      for (int p = 0; p < planets.length; p++) {
+        if (planets[p] != null && planets[p].getHab()) {
+          time[p] += dt;
+        }
+      }
+    }
+  }
+
+  /**
+   * Getter for the statistics of the current or last run
+   * @return statistics of each rocky planet, null before the first run
+   */
+  public PlanetStats[] getResults() {
+    return results;
+  }
+
+  /**
+   * Getter for the number of members finished in the current or last run
+   * @return number of members done
+   */
+  public int getNbDone() {
+    return nbDone.get();
+  }
+
+  /**
+   * Setter for the relative perturbation of the positions
+   * @param positionSpread standard deviation of each component, relative to the distance to the origin
+   */
+  public void setPositionSpread(double positionSpread) {
+    this.positionSpread = positionSpread;
+  }
+
+  /**
+   * Setter for the relative perturbation of the velocities
+   * @param velocitySpread standard deviation of each component, relative to the speed
+   */
+  public void setVelocitySpread(double velocitySpread) {
+    this.velocitySpread = velocitySpread;
+  }
+
+  /**
+   * Setter for the random seed of the perturbations
+   * @param seed new seed
+   */
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Setter for the integrator of the members
+   * @param integrator name of the integrator, as accepted by SimulationRunner.parseSolver
+   */
+  public void setIntegrator(String integrator) {
+    SimulationRunner.parseSolver(integrator); // Fails now rather than in every member
+    this.integrator = integrator;
+  }
+
+  /**
+   * Setter for the pool running the members
+   * @param pool new pool (common pool by default)
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Runs the ensemble described by the arguments and prints the statistics
+   * @param args options, see the class documentation
+   * @throws IOException if the scenario cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+    String system = "SolarSystem";
+    String scenario = null;
+    int nbMembers = 100;
+    double dt = SimulationRunner.parseTime("1d");
+    double duration = SimulationRunner.parseTime("10y");
+    int threads = Runtime.getRuntime().availableProcessors();
+    double positionSpread = 1e-3;
+    double velocitySpread = 1e-3;
+    long seed = 396;
+    String integrator = "euler";
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      String value = args[++i];
+      switch (args[i - 1]) {
+        case "--system":
+          system = value;
+          break;
+        case "--scenario":
+          scenario = value;
+          break;
+        case "--members":
+          nbMembers = Integer.parseInt(value);
+          break;
+        case "--dt":
+          dt = SimulationRunner.parseTime(value);
+          break;
+        case "--duration":
+          duration = SimulationRunner.parseTime(value);
+          break;
+        case "--position":
+          positionSpread = Double.parseDouble(value);
+          break;
+        case "--velocity":
+          velocitySpread = Double.parseDouble(value);
+          break;
+        case "--seed":
+          seed = Long.parseLong(value);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(value);
+          break;
+        case "--integrator":
+          integrator = value;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+      }
+    }
+
+    SolarSystem solarSystem = scenario != null ? Scenario.load(scenario)
+        : new SolarSystem(Scenario.preset(system));
+    EnsembleRunner ensemble = new EnsembleRunner(solarSystem.getBodies());
+    ensemble.setPositionSpread(positionSpread);
+    ensemble.setVelocitySpread(velocitySpread);
+    ensemble.setSeed(seed);
+    ensemble.setIntegrator(integrator);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    ensemble.setPool(pool);
+    System.out.printf("%d members, %d threads, dt = %.6g s, duration = %.6g s%n", nbMembers, threads, dt, duration);
+
+    long start = System.nanoTime();
+    PlanetStats[] stats = ensemble.run(nbMembers, dt, duration);
+    pool.shutdown();
+    System.out.printf("done in %.3f s%n", (System.nanoTime() - start) / 1e9);
+    for (PlanetStats planet : stats) {
+      System.out.printf("%-16s habitable %.4f +- %.4f of the time (min %.4f, max %.4f)%n", planet.getName(),
+          planet.getMean(), planet.getStandardDeviation(), planet.getMin(), planet.getMax());
+    }
+  }
+}
@@ -37,7 +37,10 @@ public class RockyPlanet extends Body {
    */
   public RockyPlanet(RockyPlanet planet) {
     super(planet);
-    atmosphere = new Atmosphere(planet.getInitTemp(), planet.getAtm().getGas());
+    atmosphere = new Atmosphere(planet.getAtm().getTemperature(), planet.getAtm().getGas());
+    atmosphere.setPressure(planet.getAtm().getPressure());
+    initTemp = planet.getInitTemp();
+    habitable = planet.habitable;
   }
   /**
    * Method to copy rocky planet
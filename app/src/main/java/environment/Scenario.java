@@ -0,0 +1,161 @@
+package environment;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Random;
+
+import environment.gravity.GravityReport;
+import environment.habitablity.Gas;
+import lib.Vector3D;
+
+/**
+ * Reads a system from a scenario file, a text file with one body or one command
+ * per line (units: m, kg, m/s, K). Empty lines and lines starting with # are
+ * ignored, names cannot contain spaces.
+ *
+ * star name radius mass x y z vx vy vz
+ * rocky name radius mass x y z vx vy vz texture gas initialTemperature
+ * gassy name radius mass x y z vx vy vz texture
+ * crashed name radius mass x y z vx vy vz
+ * system preset          (adds the bodies of one of the Systems)
+ * belt nb [seed]         (adds an asteroid belt around the first body)
+ * disk nb [seed]         (adds a disk of small bodies around the first body)
+ *
+ * Scenarios shipped with the application are in the scenarios resource folder.
+ */
+public class Scenario {
+
+  /**
+   * Creates the system described by a scenario
+   * @param source path of the scenario file, or name of a scenario in the resources
+   * @return new system holding the bodies of the scenario. Its reset() goes back to
+   *         the Solar System preset, not to the scenario
+   * @throws IOException if the scenario cannot be read
+   */
+  public static SolarSystem load(String source) throws IOException {
+    ArrayList<Body> bodies = new ArrayList<Body>();
+
+    Path path = Paths.get(source);
+    BufferedReader reader;
+    if (Files.exists(path)) {
+      reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    } else {
+      InputStream stream = Scenario.class.getResourceAsStream("/scenarios/" + source);
+      if (stream == null) {
+        throw new IOException("No scenario file or resource named " + source);
+      }
+      reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+    try (BufferedReader lines = reader) {
+      String line;
+      int number = 0;
+      while ((line = lines.readLine()) != null) {
+        number++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        try {
+          parseLine(line.split("\\s+"), bodies);
+        } catch (RuntimeException e) {
+          throw new IllegalArgumentException("Line " + number + " of " + source + ": " + e.getMessage(), e);
+        }
+      }
+    }
+    return new SolarSystem(Systems.SolarSystem, bodies);
+  }
+
+  /**
+   * Adds the bodies described by one line of a scenario
+   * @param words words of the line
+   * @param bodies list of bodies to add to
+   */
+  private static void parseLine(String[] words, ArrayList<Body> bodies) {
+    switch (words[0]) {
+      case "system":
+        expect(words, 2);
+        for (Body body : preset(words[1]).getBodies()) {
+          bodies.add(body.copy());
+        }
+        return;
+      case "belt":
+      case "disk":
+        if (words.length != 2 && words.length != 3) {
+          throw new IllegalArgumentException("Expected " + words[0] + " nb [seed]");
+        }
+        if (bodies.isEmpty()) {
+          throw new IllegalArgumentException("A " + words[0] + " needs a first body to orbit");
+        }
+        int nb = Integer.parseInt(words[1]);
+        Random rand = new Random(words.length == 3 ? Long.parseLong(words[2]) : 396);
+        if (words[0].equals("belt")) {
+          GravityReport.addBelt(bodies, nb, rand);
+        } else {
+          GravityReport.addDisk(bodies, nb, rand);
+        }
+        return;
+      default:
+        break;
+    }
+
+    String type = words[0];
+    int nbWords = type.equals("rocky") ? 13 : type.equals("gassy") ? 11 : 10;
+    expect(words, nbWords);
+    String name = words[1];
+    double radius = Double.parseDouble(words[2]);
+    double mass = Double.parseDouble(words[3]);
+    Vector3D pos = new Vector3D(Double.parseDouble(words[4]), Double.parseDouble(words[5]),
+        Double.parseDouble(words[6]));
+    Vector3D vel = new Vector3D(Double.parseDouble(words[7]), Double.parseDouble(words[8]),
+        Double.parseDouble(words[9]));
+    switch (type) {
+      case "star":
+        bodies.add(new Star(radius, mass, pos, vel, name));
+        break;
+      case "rocky":
+        bodies.add(new RockyPlanet(radius, mass, pos, vel, Texture.valueOf(words[10]), name,
+            Gas.valueOf(words[11]), Double.parseDouble(words[12])));
+        break;
+      case "gassy":
+        bodies.add(new GassyPlanet(radius, mass, pos, vel, Texture.valueOf(words[10]), name));
+        break;
+      case "crashed":
+        bodies.add(new CrashedPlanet(radius, mass, pos, vel, name));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown body type " + type);
+    }
+  }
+
+  /**
+   * Finds a preset from its enum name or its display name
+   * @param name name of the preset
+   * @return the preset
+   */
+  public static Systems preset(String name) {
+    for (Systems system : Systems.values()) {
+      if (system.name().equalsIgnoreCase(name) || system.getName().equalsIgnoreCase(name)) {
+        return system;
+      }
+    }
+    throw new IllegalArgumentException("Unknown system " + name);
+  }
+
+  /**
+   * Checks the number of words of a line
+   * @param words words of the line
+   * @param nb expected number of words
+   */
+  private static void expect(String[] words, int nb) {
+    if (words.length != nb) {
+      throw new IllegalArgumentException("Expected " + nb + " values for " + words[0] + ", got " + words.length);
+    }
+  }
+}
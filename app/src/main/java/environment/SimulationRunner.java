@@ -0,0 +1,258 @@
+package environment;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import environment.gravity.BarnesHutGravity;
+import environment.gravity.DirectGravity;
+import environment.gravity.FastMultipoleGravity;
+import environment.gravity.GravityReport;
+import environment.gravity.GravitySolver;
+import environment.gravity.PairwiseGravity;
+import environment.gravity.VectorGravityLoader;
+import lib.BlockTimeStep;
+import lib.DormandPrince;
+import lib.Hermite;
+import lib.Leapfrog;
+import lib.ODESolver;
+import lib.RungeKutta4;
+import lib.SemiImplicitEuler;
+import lib.WisdomHolman;
+import lib.Yoshida4;
+import lib.Yoshida6;
+
+/**
+ * Runs a simulation without any window, as fast as possible, and reports its
+ * throughput and accuracy. Meant for batch jobs on servers with no display.
+ *
+ * Run with: java environment.SimulationRunner [options]
+ *   --system name        preset to simulate (default SolarSystem)
+ *   --scenario file      scenario file to simulate instead (see Scenario), for
+ *                        instance disk-1m.txt for a million bodies disk
+ *   --dt time            time step (default 1h)
+ *   --duration time      simulated time (default 1y)
+ *   --integrator name    euler, leapfrog, yoshida4, yoshida6, rk4, dopri, block, wh or hermite
+ *   --gravity name       pairwise, direct, vector, barneshut or fmm
+ *   --record file        records the trajectory into a file (see TrajectoryRecorder)
+ *   --every n            steps between two recorded frames (default 1)
+ * Times are in seconds, or followed by h, d or y.
+ *
+ * Interactions are counted as for the direct sum, n (n - 1) per evaluation of
+ * the accelerations, whatever the gravity solver. The energy error is only
+ * measured up to GravityReport.MAX_DIRECT bodies, and crashes change the energy.
+ */
+public class SimulationRunner {
+  private static final int NB_REPORTS = 10; // Progress lines printed during the run
+
+  /**
+   * Runs the simulation described by the arguments
+   * @param args options, see the class documentation
+   * @throws IOException if the scenario cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+    String system = "SolarSystem";
+    String scenario = null;
+    double dt = 3600;
+    double duration = parseTime("1y");
+    String integrator = "euler";
+    String gravity = "pairwise";
+    String record = null;
+    int every = 1;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 >= args.length) {
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      }
+      String value = args[++i];
+      switch (args[i - 1]) {
+        case "--system":
+          system = value;
+          break;
+        case "--scenario":
+          scenario = value;
+          break;
+        case "--dt":
+          dt = parseTime(value);
+          break;
+        case "--duration":
+          duration = parseTime(value);
+          break;
+        case "--integrator":
+          integrator = value;
+          break;
+        case "--gravity":
+          gravity = value;
+          break;
+        case "--record":
+          record = value;
+          break;
+        case "--every":
+          every = Integer.parseInt(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+      }
+    }
+
+    SolarSystem solarSystem = scenario != null ? Scenario.load(scenario)
+        : new SolarSystem(Scenario.preset(system));
+    solarSystem.setUseStateStore(true);
+    solarSystem.setContinuousCollisions(true); // Large time-steps would let bodies go through each other
+    solarSystem.setSolver(parseSolver(integrator));
+    solarSystem.setGravitySolver(parseGravity(gravity));
+    int n = solarSystem.getBodies().size();
+    System.out.printf("%s: %d bodies, %s, %s gravity, dt = %.6g s, duration = %.6g s%n",
+        scenario != null ? scenario : Scenario.preset(system).getName(), n,
+        solarSystem.getSolver().getName(), solarSystem.getGravitySolver().getName(), dt, duration);
+
+    boolean measureEnergy = n <= GravityReport.MAX_DIRECT;
+    double e0 = measureEnergy ? solarSystem.totalEnergy() : 0;
+    TrajectoryRecorder recorder = null;
+    if (record != null) {
+      recorder = new TrajectoryRecorder(Paths.get(record), n, every);
+      solarSystem.addStepListener(recorder);
+    }
+    Stats stats = run(solarSystem, dt, duration);
+    if (recorder != null) {
+      recorder.close();
+      System.out.printf("recorded %d frames into %s%n", recorder.getNbFrames(), record);
+    }
+
+    double seconds = stats.wallTime / 1e9;
+    System.out.printf("steps: %d in %.3f s (%.1f steps/s, %.1f%% in forces)%n",
+        stats.nbSteps, seconds, stats.nbSteps / seconds, 100.0 * stats.forceTime / stats.wallTime);
+    System.out.printf("interactions: %.4g (%.4g interactions/s), %d evaluations%n",
+        stats.interactions, stats.interactions / seconds, stats.nbEvaluations);
+    System.out.printf("bodies at the end: %d%n", solarSystem.getBodies().size());
+    if (measureEnergy) {
+      double e1 = solarSystem.totalEnergy();
+      System.out.printf("relative energy error: %.3e%n", Math.abs((e1 - e0) / e0));
+    } else {
+      System.out.printf("relative energy error: not measured above %d bodies%n", GravityReport.MAX_DIRECT);
+    }
+  }
+
+  /**
+   * Throughput measured during a run
+   */
+  public static class Stats {
+    public long nbSteps = 0; // Number of steps
+    public long nbEvaluations = 0; // Number of evaluations of the accelerations
+    public double interactions = 0; // Direct sum equivalent number of pair interactions
+    public long wallTime = 0; // Wall time of the run in nanoseconds
+    public long forceTime = 0; // Wall time spent computing accelerations in nanoseconds
+  }
+
+  /**
+   * Advances a system by a duration with batches of steps, printing the progress
+   * @param solarSystem system to advance, stepping on its state store
+   * @param dt time step in seconds
+   * @param duration simulated time in seconds
+   * @return throughput of the run
+   */
+  public static Stats run(SolarSystem solarSystem, double dt, double duration) {
+    Stats stats = new Stats();
+    long total = Math.round(duration / dt);
+    long start = System.nanoTime();
+    long done = 0;
+    for (int r = 1; r <= NB_REPORTS; r++) {
+      int batch = (int) (total * r / NB_REPORTS - done);
+      if (batch == 0) {
+        continue;
+      }
+      int n = solarSystem.getBodies().size();
+      solarSystem.stepN(dt, batch);
+      BodyState state = solarSystem.getState();
+      stats.nbEvaluations += state.getNbEvaluations();
+      stats.interactions += (double) state.getNbEvaluations() * n * (n - 1);
+      stats.forceTime += state.getForceTime();
+      done += batch;
+      System.out.printf("  %3d%%  t = %.6g s, %.1f steps/s%n", 100 * r / NB_REPORTS, solarSystem.getTime(),
+          done / ((System.nanoTime() - start) / 1e9));
+    }
+    stats.nbSteps = done;
+    stats.wallTime = System.nanoTime() - start;
+    return stats;
+  }
+
+  /**
+   * Parses a duration
+   * @param text number of seconds, or number followed by h (hours), d (days) or y (years of 365.25 days)
+   * @return duration in seconds
+   */
+  public static double parseTime(String text) {
+    double unit = 1;
+    switch (text.charAt(text.length() - 1)) {
+      case 'h':
+        unit = 3600;
+        break;
+      case 'd':
+        unit = 86400;
+        break;
+      case 'y':
+        unit = 365.25 * 86400;
+        break;
+      case 's':
+        break;
+      default:
+        return Double.parseDouble(text);
+    }
+    return unit * Double.parseDouble(text.substring(0, text.length() - 1));
+  }
+
+  /**
+   * Creates an integrator from its name
+   * @param name name of the integrator
+   * @return the integrator
+   */
+  public static ODESolver parseSolver(String name) {
+    switch (name.toLowerCase()) {
+      case "euler":
+        return new SemiImplicitEuler();
+      case "leapfrog":
+        return new Leapfrog();
+      case "yoshida4":
+        return new Yoshida4();
+      case "yoshida6":
+        return new Yoshida6();
+      case "rk4":
+        return new RungeKutta4();
+      case "dopri":
+        return new DormandPrince(1e-9);
+      case "block":
+        return new BlockTimeStep(0.02);
+      case "wh":
+        return new WisdomHolman();
+      case "hermite":
+        return new Hermite(0.01);
+      default:
+        throw new IllegalArgumentException("Unknown integrator " + name);
+    }
+  }
+
+  /**
+   * Creates a gravity solver from its name
+   * @param name name of the gravity solver
+   * @return the gravity solver
+   */
+  public static GravitySolver parseGravity(String name) {
+    switch (name.toLowerCase()) {
+      case "pairwise":
+        return new PairwiseGravity();
+      case "direct":
+        return new DirectGravity();
+      case "vector":
+        VectorGravityLoader.Result loaded = VectorGravityLoader.tryLoad();
+        if (!loaded.isVectorized()) {
+          System.out.println("Scalar gravity used: " + loaded.getFallbackReason());
+        }
+        return loaded.getSolver();
+      case "barneshut":
+        return new BarnesHutGravity(0.5);
+      case "fmm":
+        return new FastMultipoleGravity(0.5, 2);
+      default:
+        throw new IllegalArgumentException("Unknown gravity solver " + name);
+    }
+  }
+}
@@ -0,0 +1,373 @@
+package environment;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Steps a system on a thread of its own, for the interface as well as for
+ * programs without one. Every call returns at once: the work is queued on a
+ * single thread, which is the only one to touch the bodies.
+ *
+ * While running, the system is stepped on a fixed tick, with the steps chosen
+ * by a warp controller to reach the requested speed. Ticks are not skipped
+ * while paused, they apply the input (the posted commands by default) without
+ * stepping, so that the system can still be edited. Ticks that start more than
+ * a tick late, for instance behind a long runUntil(), are dropped rather than
+ * run back to back: the simulation then runs slower than real time.
+ *
+ * After each tick (or single step, or run), the snapshot of the system is
+ * published and the tick listeners get the number of steps and their real time.
+ */
+public class SimulationService {
+  /**
+   * Object told about the steps taken by the service
+   */
+  public interface TickListener {
+    /**
+     * Called on the simulation thread after steps were taken
+     * @param service service that stepped the system
+     * @param steps number of steps taken, 0 for a tick while paused
+     * @param nanos real time of the steps in nanoseconds
+     */
+    public abstract void tickDone(SimulationService service, int steps, long nanos);
+  }
+
+  private final SolarSystem solarSystem;
+  private final WarpController warp;
+  private final long tickNanos; // Real time between two ticks
+  private final ScheduledExecutorService executor;
+  private final CopyOnWriteArrayList<TickListener> listeners = new CopyOnWriteArrayList<TickListener>();
+
+  private BooleanSupplier input; // Run before each tick, true if it changed the bodies
+  private ScheduledFuture<?> ticking; // Null until the ticks are started
+  private volatile boolean paused = true;
+  private long framePeriod; // Real time between two frames, to leave time for drawing them
+
+  private long firstTick; // Time at which the ticks were scheduled to start
+  private volatile long ticks = 0; // Ticks run or dropped
+  private volatile long droppedTicks = 0;
+  private volatile long lastTick; // Time of the last tick in nanoseconds
+  private volatile SystemSnapshot previous; // Snapshot before the steps of the last tick
+  private volatile SystemSnapshot current; // Snapshot after the steps of the last tick
+
+  /**
+   * Constructor of a paused service, stepping every 20 ms
+   * @param solarSystem system to step, not to be used by other threads any more
+   * @param warp controller choosing the steps of each tick
+   */
+  public SimulationService(SolarSystem solarSystem, WarpController warp) {
+    this(solarSystem, warp, 20_000_000L);
+  }
+
+  /**
+   * Constructor of a paused service
+   * @param solarSystem system to step, not to be used by other threads any more
+   * @param warp controller choosing the steps of each tick
+   * @param tickNanos real time between two ticks in nanoseconds
+   */
+  public SimulationService(SolarSystem solarSystem, WarpController warp, long tickNanos) {
+    if (tickNanos <= 0) {
+      throw new IllegalArgumentException("The tick period must be positive");
+    }
+    this.solarSystem = solarSystem;
+    this.warp = warp;
+    this.tickNanos = tickNanos;
+    framePeriod = tickNanos;
+    input = () -> solarSystem.applyCommands() > 0;
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "Simulation");
+      thread.setDaemon(true);
+      return thread;
+    });
+    current = solarSystem.getSnapshot();
+    previous = current;
+    lastTick = System.nanoTime();
+  }
+
+  /**
+   * Starts the ticks if they were not, without changing the pause: a paused
+   * service then only applies the input on each tick
+   */
+  public synchronized void start() {
+    if (ticking == null) {
+      firstTick = System.nanoTime();
+      ticking = executor.scheduleAtFixedRate(this::tick, 0, tickNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Starts stepping the system on each tick, starting the ticks if they were not
+   */
+  public void resume() {
+    paused = false;
+    start();
+  }
+
+  /**
+   * Stops stepping the system from the next tick on. The input is still applied
+   */
+  public void pause() {
+    paused = true;
+  }
+
+  /**
+   * Getter for the pause
+   * @return true if the ticks do not step the system
+   */
+  public boolean isPaused() {
+    return paused;
+  }
+
+  /**
+   * Queues a single step, taken even while paused
+   * @param dt time step in seconds
+   * @return snapshot of the system after the step, once taken
+   */
+  public Future<SystemSnapshot> stepOnce(double dt) {
+    return executor.submit(() -> {
+      applyInput();
+      return advance(dt, 1);
+    });
+  }
+
+  /**
+   * Queues steps up to a given time, with a last shorter step landing exactly on it.
+   * The ticks due meanwhile are dropped
+   * @param t time to reach in seconds, not before the time of the system then
+   * @param dt time step in seconds, strictly positive
+   * @return snapshot of the system at that time, once reached
+   */
+  public Future<SystemSnapshot> runUntil(double t, double dt) {
+    return executor.submit(() -> {
+      applyInput();
+      previous = current;
+      long steps = solarSystem.getStepCount();
+      long start = System.nanoTime();
+      solarSystem.advanceTo(t, dt);
+      long nanos = System.nanoTime() - start;
+      return published((int) (solarSystem.getStepCount() - steps), nanos);
+    });
+  }
+
+  /**
+   * Queues a task on the simulation thread, for instance to read or change the system
+   * @param task task to run
+   * @return future of the task
+   */
+  public Future<?> execute(Runnable task) {
+    return executor.submit(task);
+  }
+
+  /**
+   * Runs a task on the simulation thread at a fixed rate, between the ticks.
+   * The rate is also used to leave time for the frames when planning the steps
+   * @param draw task drawing a frame, for instance from interpolate()
+   * @param periodNanos real time between two frames in nanoseconds
+   * @return future to cancel the frames
+   */
+  public ScheduledFuture<?> scheduleFrames(Runnable draw, long periodNanos) {
+    if (periodNanos <= 0) {
+      throw new IllegalArgumentException("The frame period must be positive");
+    }
+    executor.execute(() -> framePeriod = periodNanos);
+    return executor.scheduleAtFixedRate(draw, 0, periodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Runs one tick: applies the input, then steps the system as planned by the
+   * warp controller unless paused or late
+   */
+  private void tick() {
+    try {
+      long now = System.nanoTime();
+      long late = now - (firstTick + ticks * tickNanos);
+      ticks++;
+      applyInput();
+      if (paused || late > tickNanos) {
+        if (!paused) {
+          droppedTicks++;
+        }
+        previous = current;
+        lastTick = now;
+        notifyTick(0, 0);
+        return;
+      }
+      int n = warp.plan(tickNanos, framePeriod);
+      lastTick = now;
+      advance(warp.getDt(), n);
+    } catch (RuntimeException e) {
+      // A task at a fixed rate that throws is never run again
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Applies the input, and publishes the snapshot of the system if it changed
+   * @return true if the input changed the bodies
+   */
+  private boolean applyInput() {
+    boolean changed = input.getAsBoolean();
+    if (changed) {
+      current = solarSystem.publishSnapshot();
+    }
+    return changed;
+  }
+
+  /**
+   * Takes steps, measures them and publishes the snapshot after them
+   * @param dt time step in seconds
+   * @param n number of steps
+   * @return snapshot after the steps
+   */
+  private SystemSnapshot advance(double dt, int n) {
+    previous = current;
+    long start = System.nanoTime();
+    solarSystem.stepN(dt, n);
+    long nanos = System.nanoTime() - start;
+    if (dt != 0) {
+      warp.recordSteps(n, nanos);
+      return published(n, nanos);
+    }
+    return published(0, nanos);
+  }
+
+  /**
+   * Publishes the snapshot of the system and tells the listeners about the steps
+   * @param steps number of steps taken
+   * @param nanos real time of the steps in nanoseconds
+   * @return snapshot published
+   */
+  private SystemSnapshot published(int steps, long nanos) {
+    current = solarSystem.publishSnapshot();
+    notifyTick(steps, nanos);
+    return current;
+  }
+
+  /**
+   * Tells the tick listeners about the steps
+   * @param steps number of steps taken
+   * @param nanos real time of the steps in nanoseconds
+   */
+  private void notifyTick(int steps, long nanos) {
+    for (TickListener listener : listeners) {
+      listener.tickDone(this, steps, nanos);
+    }
+  }
+
+  /**
+   * Gives the bodies as they are between the last two ticks at a given time,
+   * the last tick being drawn when the next one is due. May be called from any thread
+   * @param now time given by System.nanoTime()
+   * @return snapshot with interpolated positions
+   */
+  public SystemSnapshot interpolate(long now) {
+    double alpha = (double) (now - lastTick) / tickNanos;
+    return SystemSnapshot.interpolate(previous, current, alpha);
+  }
+
+  /**
+   * Waits for a task of the service, and gives back the exceptions it threw
+   * @param <T> type of the result
+   * @param future task of the service
+   * @return result of the task
+   */
+  public static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the simulation", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Stops the ticks and the thread, after the tasks already queued
+   * @param timeoutMillis longest wait for the queued tasks in milliseconds
+   * @return true if the thread ended in time
+   */
+  public boolean shutdown(long timeoutMillis) {
+    executor.shutdown();
+    try {
+      return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Setter for the input applied before each tick, single step and run, on
+   * the simulation thread. It should apply the posted commands of the system
+   * @param input input to apply, returning true if it changed the bodies
+   */
+  public void setInput(BooleanSupplier input) {
+    executor.execute(() -> this.input = input);
+  }
+
+  /**
+   * Adds a listener told after each tick, single step and run
+   * @param listener listener to add
+   */
+  public void addTickListener(TickListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes a tick listener
+   * @param listener listener to remove
+   */
+  public void removeTickListener(TickListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Getter for the system stepped, only to be used on the simulation thread
+   * @return the system
+   */
+  public SolarSystem getSolarSystem() {
+    return solarSystem;
+  }
+
+  /**
+   * Getter for the warp controller
+   * @return controller choosing the steps of each tick
+   */
+  public WarpController getWarpController() {
+    return warp;
+  }
+
+  /**
+   * Getter for the last snapshot published
+   * @return snapshot after the last steps
+   */
+  public SystemSnapshot getSnapshot() {
+    return current;
+  }
+
+  /**
+   * Getter for the number of ticks
+   * @return ticks run or dropped since the ticks were started
+   */
+  public long getTicks() {
+    return ticks;
+  }
+
+  /**
+   * Getter for the number of ticks dropped because they were late
+   * @return number of ticks
+   */
+  public long getDroppedTicks() {
+    return droppedTicks;
+  }
+}
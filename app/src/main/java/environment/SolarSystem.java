@@ -1,8 +1,17 @@
 package environment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
+import environment.collision.SweepAndPrune;
+import environment.gravity.GravitySolver;
+import environment.gravity.PairwiseGravity;
 import environment.habitablity.Gas;
+import lib.ODESolver;
+import lib.SemiImplicitEuler;
+import lib.UnionFind;
 import lib.Vector3D;
 
 
@@ -11,6 +20,30 @@ public class SolarSystem {
   private double time = 0; // time elapsed in the simulation in seconds
   double gravity = 6.67430e-11; // Gravitational constant in m^3 kg^-1 s^-2
   Systems system;
+  private BodyState state = new BodyState(16); // Primitive copy of the bodies used by the physics loops
+  private boolean useStateStore = false; // Whether steps run on the state store instead of the Body objects
+  private GravitySolver gravitySolver = new PairwiseGravity(); // Force backend used with the state store
+  private ODESolver solver = new SemiImplicitEuler(); // Integrator used with the state store
+  private SweepAndPrune collisions = new SweepAndPrune(); // Crash detection on the state store
+  private boolean continuousCollisions = false; // Whether crashes are checked along the whole step
+  private UnionFind crashGroups = new UnionFind(16); // Bodies connected by a chain of contacts
+  private boolean stateInSync = false; // Whether the state store holds the bodies as they are now
+  private ArrayList<StepListener> listeners = new ArrayList<StepListener>(); // Notified after each step
+  private long stepCount = 0; // Number of steps since the creation or the last reset
+  private double lastDt = 0; // Time step of the last step in seconds
+  boolean quiet = false; // Whether the step listeners are skipped, while a timeline replays steps
+
+  // Bodies involved in the habitability, found once per batch of steps
+  private int[] climateBodies = new int[0]; // Indices of the stars and rocky planets
+  private int nbClimateBodies = 0;
+  private ArrayList<RockyPlanet> planets = new ArrayList<RockyPlanet>(); // Rocky planets, in list order
+  private ArrayList<ArrayList<Star>> planetSuns = new ArrayList<ArrayList<Star>>(); // Stars seen by each planet
+  private long lastStepTime = 0; // Wall time of the last step in nanoseconds
+  private long lastForceTime = 0; // Wall time of the force evaluation of the last step in nanoseconds
+  // Changes asked by other threads, applied by the stepping thread between two steps
+  private final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+  // Last copy of the bodies handed to the other threads
+  private final AtomicReference<SystemSnapshot> snapshot = new AtomicReference<SystemSnapshot>();
 
   /**
    * Constructor for system
@@ -19,6 +52,18 @@ public class SolarSystem {
   public SolarSystem(Systems system) {
     this.system = system;
     createSystem();
+    publishSnapshot();
+  }
+
+  /**
+   * Constructor for a system holding given bodies instead of those of its preset
+   * @param system preset that reset() goes back to
+   * @param bodies bodies of the system, added as they are without copies
+   */
+  public SolarSystem(Systems system, ArrayList<Body> bodies) {
+    this.system = system;
+    this.bodies.addAll(bodies);
+    publishSnapshot();
   }
 
   /**
@@ -56,6 +101,24 @@ public class SolarSystem {
     return suns;
   }
 
+  /**
+   * Getter for the gravitational constant used by the system
+   * @return gravitational constant in m^3 kg^-1 s^-2
+   */
+  public double getGravity() {
+    return gravity;
+  }
+
+  /**
+   * Computes the total mechanical energy of the bodies (kinetic plus potential),
+   * which gravity alone conserves. Costs O(n^2)
+   * @return energy in J
+   */
+  public double totalEnergy() {
+    state.pull(bodies);
+    return state.totalEnergy(gravity);
+  }
+
   /**
    * Getter for time elapsed in the simulation
    * @return time elapsed in seconds
@@ -73,16 +136,225 @@ public class SolarSystem {
   }
 
   /**
-   * Step the simulation by moving the bodies and updating the habitability conditions
+   * Step the simulation by moving the bodies and updating the habitability conditions.
+   * The pending commands are applied first, even if dt is 0, except during replays
    * @param dt time step in seconds
    */
   public void step(double dt) {
+    if (!quiet) {
+      applyCommands();
+    }
+    advance(dt);
+  }
+
+  /**
+   * Steps the simulation once without applying the pending commands
+   * @param dt time step in seconds
+   */
+  private void advance(double dt) {
     if (dt == 0)
       return;
+    long start = System.nanoTime();
     time += dt;
+    lastDt = dt;
     bodies = getBodies();
-    move(bodies, dt);
+    if (useStateStore) {
+      moveState(bodies, dt);
+    }
+    else {
+      move(bodies, dt);
+    }
     habitability(bodies, dt);
+    lastStepTime = System.nanoTime() - start;
+    stepCount++;
+    notifyListeners();
+  }
+
+  /**
+   * Steps the simulation n times in one loop, giving the same result as n calls
+   * to step(dt).
+   *
+   * When stepping on the state store, the bodies are pulled into the store once,
+   * and only written back at the end of the batch, except for the stars and rocky
+   * planets whose positions are needed by the habitability after each step. The
+   * stars seen by each planet are also only listed once (and again after a crash).
+   * Without the state store, the steps are simply taken one after the other.
+   * Either way, the pending commands are only applied at the start of the batch,
+   * and not at all during replays, so that commands posted during a batch wait
+   * for the next one.
+   *
+   * The last step time and last force time are then averages over the batch
+   * @param dt time step in seconds
+   * @param n number of steps
+   */
+  public void stepN(double dt, int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("The number of steps cannot be negative");
+    }
+    if (dt == 0 || n == 0) {
+      return;
+    }
+    if (!quiet) {
+      applyCommands();
+    }
+    if (!useStateStore) {
+      for (int s = 0; s < n; s++) {
+        advance(dt);
+      }
+      return;
+    }
+
+    long start = System.nanoTime();
+    state.pull(bodies);
+    state.setForces(gravitySolver, gravity);
+    state.resetCounters();
+    findClimateBodies(bodies);
+    stateInSync = true;
+    lastDt = dt;
+    for (int s = 0; s < n; s++) {
+      time += dt;
+      if (continuousCollisions) {
+        collisions.saveStart(state);
+      }
+      solver.step(state, dt);
+      if (detectContacts() > 0) {
+        state.push(bodies);
+        combineCrashes(bodies);
+        state.pull(bodies);
+        findClimateBodies(bodies);
+      }
+      state.push(bodies, climateBodies, nbClimateBodies);
+      for (int p = 0; p < planets.size(); p++) {
+        RockyPlanet planet = planets.get(p);
+        if (planet.getAtm().getGas() != Gas.Vacuum) {
+          planet.update_habitability(planetSuns.get(p), dt);
+        }
+      }
+      stepCount++;
+      notifyListeners();
+    }
+    state.push(bodies);
+    lastForceTime = state.getForceTime() / n;
+    lastStepTime = (System.nanoTime() - start) / n;
+  }
+
+  /**
+   * Steps the simulation up to a given time, with steps of dt and a last shorter
+   * step landing exactly on that time
+   * @param t time to reach in seconds, not before the current time
+   * @param dt time step in seconds, strictly positive
+   */
+  public void advanceTo(double t, double dt) {
+    if (dt <= 0) {
+      throw new IllegalArgumentException("The time step must be strictly positive");
+    }
+    if (t < time) {
+      throw new IllegalArgumentException("Cannot advance to a time in the past");
+    }
+    // Relative margin so that rounding does not add a step of a few nanoseconds
+    int n = (int) Math.floor((t - time) / dt * (1 + 1e-12));
+    stepN(dt, n);
+    double remaining = t - time;
+    if (remaining > 1e-9 * dt) {
+      step(remaining);
+    }
+    time = t;
+  }
+
+  /**
+   * Lists the stars and rocky planets, and the stars seen by each planet. As in
+   * habitability, a planet only sees the stars before it in the bodies list
+   * @param bodies list of all bodies in system
+   */
+  private void findClimateBodies(ArrayList<Body> bodies) {
+    if (climateBodies.length < bodies.size()) {
+      climateBodies = new int[bodies.size()];
+    }
+    nbClimateBodies = 0;
+    planets.clear();
+    planetSuns.clear();
+    ArrayList<Star> suns = new ArrayList<Star>();
+    for (int i = 0; i < bodies.size(); i++) {
+      Body body = bodies.get(i);
+      if (body instanceof Star) {
+        suns = new ArrayList<Star>(suns); // The planets before keep the previous list
+        suns.add((Star) body);
+        climateBodies[nbClimateBodies++] = i;
+      }
+      if (body instanceof RockyPlanet) {
+        planets.add((RockyPlanet) body);
+        planetSuns.add(suns);
+        climateBodies[nbClimateBodies++] = i;
+      }
+    }
+  }
+
+  /**
+   * Getter for the wall time spent in the last step
+   * @return time spent in nanoseconds
+   */
+  public long getLastStepTime() {
+    return lastStepTime;
+  }
+
+  /**
+   * Getter for the wall time spent by the gravity solver during the last step
+   * (all the force evaluations of the integrator). Only measured when stepping
+   * on the state store
+   * @return time spent in nanoseconds
+   */
+  public long getLastForceTime() {
+    return lastForceTime;
+  }
+
+  /**
+   * Getter for the number of steps taken, each step of stepN counting as one
+   * @return number of steps since the creation of the system or the last reset
+   */
+  public long getStepCount() {
+    return stepCount;
+  }
+
+  /**
+   * Getter for the time step of the last step
+   * @return time step in seconds
+   */
+  public double getLastDt() {
+    return lastDt;
+  }
+
+  /**
+   * Adds an object to notify after each step
+   * @param listener listener to add
+   */
+  public void addStepListener(StepListener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Removes an object notified after each step
+   * @param listener listener to remove
+   */
+  public void removeStepListener(StepListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Calls the step listeners, pulling the bodies into the state store first if
+   * it does not hold them as they are (after a crash, or when stepping on the
+   * Body objects)
+   */
+  private void notifyListeners() {
+    if (listeners.isEmpty() || quiet) {
+      return;
+    }
+    if (!stateInSync) {
+      state.pull(bodies);
+      stateInSync = true;
+    }
+    for (int i = 0; i < listeners.size(); i++) {
+      listeners.get(i).stepDone(this, state);
+    }
   }
 
   /**
@@ -90,8 +362,207 @@ public class SolarSystem {
    */
   public void reset() {
     bodies.clear();
-    time = 0;
+    restart(0);
     createSystem();
+    publishSnapshot();
+  }
+
+  /**
+   * Starts a new run from a given time once the bodies were replaced: the step
+   * count and the last time step start over, and the state store is pulled again
+   * @param t time elapsed in seconds
+   */
+  void restart(double t) {
+    time = t;
+    stepCount = 0;
+    lastDt = 0;
+    stateInSync = false;
+  }
+
+  /**
+   * Queues a change of the system, to be run by the thread that steps it before
+   * the next step. Any thread can post, without waiting: this is how the bodies
+   * must be changed while the system is stepped by another thread, so that the
+   * physics loops always see a list that stays the same during a step
+   * @param command change to apply, run on the stepping thread
+   */
+  public void post(Runnable command) {
+    commands.add(command);
+  }
+
+  /**
+   * Queues the addition of a body
+   * @param body body to add at the end of the list
+   */
+  public void postAddBody(Body body) {
+    post(() -> bodies.add(body));
+  }
+
+  /**
+   * Queues the removal of a body. Nothing happens if the body is gone by then,
+   * for instance after a crash
+   * @param body body to remove
+   */
+  public void postRemoveBody(Body body) {
+    post(() -> bodies.remove(body));
+  }
+
+  /**
+   * Queues a change of the velocity of a body
+   * @param body body to change
+   * @param velocity new velocity in m/s, copied
+   */
+  public void postSetVelocity(Body body, Vector3D velocity) {
+    Vector3D copy = new Vector3D(velocity);
+    post(() -> body.setVel(copy));
+  }
+
+  /**
+   * Queues a switch to another preset, which replaces the bodies and sets the time back to 0
+   * @param system new preset
+   */
+  public void postSetSystem(Systems system) {
+    post(() -> {
+      setSystem(system);
+      reset();
+    });
+  }
+
+  /**
+   * Runs the pending commands, in the order they were posted, then tells the
+   * step listeners that the system changed. Called at the start of each step or
+   * batch of steps, and can be called by the stepping thread when it does not
+   * step, for instance while paused
+   * @return number of commands run
+   */
+  public int applyCommands() {
+    int count = 0;
+    Runnable command;
+    while ((command = commands.poll()) != null) {
+      command.run();
+      count++;
+    }
+    if (count > 0) {
+      stateInSync = false;
+      for (int i = 0; i < listeners.size(); i++) {
+        listeners.get(i).commandsApplied(this);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Copies the bodies as they are now and makes the copy the one returned by
+   * getSnapshot(). Must be called by the thread that steps the system, between
+   * two steps
+   * @return the new snapshot
+   */
+  public SystemSnapshot publishSnapshot() {
+    SystemSnapshot published = new SystemSnapshot(bodies, time, stepCount);
+    snapshot.set(published);
+    return published;
+  }
+
+  /**
+   * Getter for the last published copy of the bodies, that any thread can read
+   * without locking while the system keeps stepping
+   * @return the last snapshot
+   */
+  public SystemSnapshot getSnapshot() {
+    return snapshot.get();
+  }
+
+  /**
+   * Getter for the primitive state store used when stepping with useStateStore
+   * @return the state store of the system
+   */
+  public BodyState getState() {
+    return state;
+  }
+
+  /**
+   * Getter for the use of the state store
+   * @return true if steps are computed on the primitive state store
+   */
+  public boolean getUseStateStore() {
+    return useStateStore;
+  }
+
+  /**
+   * Setter for the use of the state store
+   * @param useStateStore true to compute steps on the primitive state store
+   */
+  public void setUseStateStore(boolean useStateStore) {
+    this.useStateStore = useStateStore;
+  }
+
+  /**
+   * Getter for the gravity backend used when stepping on the state store
+   * @return the gravity solver
+   */
+  public GravitySolver getGravitySolver() {
+    return gravitySolver;
+  }
+
+  /**
+   * Setter for the gravity backend used when stepping on the state store
+   * (direct summation by default)
+   * @param gravitySolver new gravity solver, computing jerks if the integrator needs them
+   */
+  public void setGravitySolver(GravitySolver gravitySolver) {
+    checkJerks(solver, gravitySolver);
+    this.gravitySolver = gravitySolver;
+  }
+
+  /**
+   * Getter for the integrator used when stepping on the state store
+   * @return the ODE solver
+   */
+  public ODESolver getSolver() {
+    return solver;
+  }
+
+  /**
+   * Setter for the integrator used when stepping on the state store
+   * (semi-implicit Euler by default, like move)
+   * @param solver new ODE solver, which may only need jerks if the gravity solver computes them
+   */
+  public void setSolver(ODESolver solver) {
+    checkJerks(solver, gravitySolver);
+    this.solver = solver;
+  }
+
+  /**
+   * Checks that an integrator needing jerks is used with a gravity solver computing
+   * them, so that the combination fails when chosen rather than on the first step
+   * @param solver integrator
+   * @param gravitySolver gravity solver
+   */
+  private static void checkJerks(ODESolver solver, GravitySolver gravitySolver) {
+    if (solver.needsJerks() && !gravitySolver.computesJerks()) {
+      throw new IllegalArgumentException(solver.getName() + " needs jerks, which "
+          + gravitySolver.getName() + " does not compute");
+    }
+  }
+
+  /**
+   * Getter for the continuous crash detection
+   * @return true if crashes are checked along the whole step
+   */
+  public boolean getContinuousCollisions() {
+    return continuousCollisions;
+  }
+
+  /**
+   * Setter for the continuous crash detection. When on, bodies are
+   * assumed to move in a straight line during a step and crash if they came in
+   * contact at any point of it, so that fast bodies cannot go through each other
+   * with large time-steps. When off (the default), only the positions at the
+   * end of the step are checked
+   * @param continuousCollisions true to check crashes along the whole step
+   */
+  public void setContinuousCollisions(boolean continuousCollisions) {
+    this.continuousCollisions = continuousCollisions;
   }
 
   /**
@@ -112,6 +583,9 @@ public class SolarSystem {
    * @param dt time-step in seconds
    */
   public void move(ArrayList<Body> bodies, double dt) {
+    if (continuousCollisions) {
+      collisions.saveStart(bodies); // The store is only pulled once, after the move
+    }
 
     ArrayList<Vector3D> forces = new ArrayList<Vector3D>();
 
@@ -141,40 +615,135 @@ public class SolarSystem {
     }
 
     // Detect crashes, deleted crashed bodies, and insert combined body accordingly
-    ArrayList<Body> crashed = findCrashes(bodies);
-    if (crashed.size() != 0) {
-      Body newBody = Body.bodyCombine(crashed);
-      int i = bodies.indexOf(crashed.get(0));
-      bodies.set(i, newBody);
-      for (Body planet : crashed) {
-        bodies.remove(planet);
+    state.pull(bodies);
+    stateInSync = detectContacts() == 0;
+    if (!stateInSync) {
+      combineCrashes(bodies);
+    }
+  }
+
+  /**
+   * Same as move, but the integration is computed on the primitive state store
+   * by the ODE solver, with the forces coming from the gravity solver. The
+   * bodies are synced from the store at the end of the step, and nothing is
+   * allocated unless a crash happens
+   *
+   * @param bodies list of all bodies in system
+   * @param dt time-step in seconds
+   */
+  public void moveState(ArrayList<Body> bodies, double dt) {
+    state.pull(bodies);
+    if (continuousCollisions) {
+      collisions.saveStart(state);
+    }
+    state.setForces(gravitySolver, gravity);
+    state.resetCounters();
+    solver.step(state, dt);
+    lastForceTime = state.getForceTime();
+    state.push(bodies);
+
+    // The state store is still in sync with the bodies, no need to pull it again
+    stateInSync = detectContacts() == 0;
+    if (!stateInSync) {
+      combineCrashes(bodies);
+    }
+  }
+
+  /**
+   * Finds the contacts between the bodies of the state store, along the whole
+   * step if continuous collisions are on, or at the end of the step otherwise
+   * @return number of contact pairs
+   */
+  private int detectContacts() {
+    if (continuousCollisions) {
+      return collisions.findSweptContacts(state);
+    }
+    return collisions.findContacts(state);
+  }
+
+  /**
+   * Replaces the bodies involved in the contacts found by the last detection with
+   * the bodies resulting from their crashes. The contact pairs are grouped with a
+   * union-find, so that unrelated crashes of the same step give separate bodies
+   * while a chain of contacts gives a single one. Each group is combined in place
+   * of its first body, and the list is compacted in one pass.
+   *
+   * Bodies that went through each other during the step are combined at their
+   * current positions: for a straight motion, the center of mass there is where
+   * the combined body would have moved to since the time of contact
+   * @param bodies list of bodies the state store was pulled from
+   */
+  private void combineCrashes(ArrayList<Body> bodies) {
+    int n = bodies.size();
+    int nbContacts = collisions.getNbContacts();
+    crashGroups.reset(n);
+    for (int k = 0; k < nbContacts; k++) {
+      crashGroups.union(collisions.getFirst()[k], collisions.getSecond()[k]);
+    }
+
+    // Members of each group, in the order of the bodies list
+    ArrayList<ArrayList<Body>> groups = new ArrayList<ArrayList<Body>>();
+    int[] groupOf = new int[n]; // Group of each body, -1 if it did not crash
+    int[] groupOfRoot = new int[n]; // Group of each union-find root, -1 if none yet
+    Arrays.fill(groupOfRoot, -1);
+    for (int i = 0; i < n; i++) {
+      groupOf[i] = -1;
+      if (crashGroups.setSize(i) > 1) {
+        int root = crashGroups.find(i);
+        if (groupOfRoot[root] < 0) {
+          groupOfRoot[root] = groups.size();
+          groups.add(new ArrayList<Body>());
+        }
+        groupOf[i] = groupOfRoot[root];
+        groups.get(groupOf[i]).add(bodies.get(i));
       }
     }
+
+    // The combined body of a group takes the place of its first member
+    int kept = 0;
+    for (int i = 0; i < n; i++) {
+      int g = groupOf[i];
+      if (g < 0) {
+        bodies.set(kept++, bodies.get(i));
+      } else if (groups.get(g).get(0) == bodies.get(i)) {
+        bodies.set(kept++, Body.bodyCombine(groups.get(g)));
+      }
+    }
+    bodies.subList(kept, n).clear();
   }
 
   /**
-   * Detect crashes if the center of one body enters within the radius of another
+   * Detect crashes if the center of one body enters within the radius of another.
+   * The bodies are copied to the state store and only the pairs that are close
+   * along the x axis are checked (sweep and prune)
    * @param bodies list of all bodies in system
    * @return list of bodies involved in the crash
    */
   public ArrayList<Body> findCrashes(ArrayList<Body> bodies) {
+    state.pull(bodies);
+    collisions.findContacts(state);
+    return crashedBodies(bodies);
+  }
+
+  /**
+   * Lists the bodies involved in the contacts found by the last crash detection
+   * @param bodies list of bodies the state store was pulled from
+   * @return list of crashed bodies, in the order of the bodies list
+   */
+  private ArrayList<Body> crashedBodies(ArrayList<Body> bodies) {
     ArrayList<Body> crashed = new ArrayList<Body>();
-    for (Body body1 : bodies) {
-      for (Body body2 : bodies) {
-        Vector3D pos2 = body2.getPos().copy();
-        Vector3D pos = body1.getPos().copy();
-        Vector3D r = pos2.sub(pos);
-        double distance = r.len();
-        if (body1 != body2) { // Avoid self-interaction
-          if (distance < body1.getRadius()) {
-            if (!crashed.contains(body1)) {
-              crashed.add(body1);
-            }
-            if (!crashed.contains(body2)) {
-              crashed.add(body2);
-            }
-          }
-        }
+    int nbContacts = collisions.getNbContacts();
+    if (nbContacts == 0) {
+      return crashed;
+    }
+    boolean[] isCrashed = new boolean[bodies.size()];
+    for (int k = 0; k < nbContacts; k++) {
+      isCrashed[collisions.getFirst()[k]] = true;
+      isCrashed[collisions.getSecond()[k]] = true;
+    }
+    for (int i = 0; i < bodies.size(); i++) {
+      if (isCrashed[i]) {
+        crashed.add(bodies.get(i));
       }
     }
     return crashed;
@@ -0,0 +1,27 @@
+package environment;
+
+/**
+ * Object notified by a SolarSystem after each of its steps, on the thread that
+ * runs the simulation
+ */
+public interface StepListener {
+
+  /**
+   * Called at the end of each step, once the crashes and the habitability are
+   * updated. During stepN, only the stars and rocky planets are written back to
+   * the Body objects after each step, so the positions and velocities must be
+   * read from the state store
+   * @param solarSystem system that was stepped
+   * @param state state store holding the bodies at the end of the step, in the
+   *              order of the bodies list
+   */
+  public abstract void stepDone(SolarSystem solarSystem, BodyState state);
+
+  /**
+   * Called once pending commands changed the system, between two steps. Does
+   * nothing by default
+   * @param solarSystem system that was changed
+   */
+  public default void commandsApplied(SolarSystem solarSystem) {
+  }
+}
@@ -0,0 +1,121 @@
+package environment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import lib.Vector3D;
+
+/**
+ * Copy of the bodies of a system at one moment, handed from the thread that
+ * steps the system to the threads that draw or list the bodies.
+ *
+ * A snapshot is never changed once published, so readers need no lock and
+ * always see every body at the same step. The simulation thread never waits
+ * for them either: it builds the next snapshot aside and swaps it in, and the
+ * old one is collected once the last reader is done with it.
+ */
+public class SystemSnapshot {
+  private final List<Body> bodies; // Copies of the bodies, not to be modified
+  private final List<Body> originals; // Bodies of the system the copies were made from
+  private final double time; // Time of the system in seconds
+  private final long stepCount; // Number of steps of the system
+
+  /**
+   * Constructor copying a list of bodies
+   * @param source bodies of the system, only read
+   * @param time time of the system in seconds
+   * @param stepCount number of steps of the system
+   */
+  SystemSnapshot(List<Body> source, double time, long stepCount) {
+    ArrayList<Body> copies = new ArrayList<Body>(source.size());
+    ArrayList<Body> sources = new ArrayList<Body>(source.size());
+    for (int i = 0; i < source.size(); i++) {
+      Body body = source.get(i);
+      copies.add(body.copy());
+      sources.add(body);
+    }
+    bodies = Collections.unmodifiableList(copies);
+    originals = Collections.unmodifiableList(sources);
+    this.time = time;
+    this.stepCount = stepCount;
+  }
+
+  /**
+   * Constructor wrapping lists that are already copies
+   * @param bodies copies of the bodies
+   * @param originals bodies the copies were made from
+   * @param time time of the system in seconds
+   * @param stepCount number of steps of the system
+   */
+  private SystemSnapshot(List<Body> bodies, List<Body> originals, double time, long stepCount) {
+    this.bodies = bodies;
+    this.originals = originals;
+    this.time = time;
+    this.stepCount = stepCount;
+  }
+
+  /**
+   * Blends the positions of two snapshots taken a few steps apart, to draw the
+   * bodies in between. If the bodies changed or no step was taken in between,
+   * there is nothing to blend and the later snapshot is returned
+   * @param previous snapshot taken before the last steps
+   * @param current snapshot of the last step
+   * @param alpha fraction of the step to add to the previous positions, from 0 to 1
+   * @return snapshot with blended positions and time, velocities are the current ones
+   */
+  public static SystemSnapshot interpolate(SystemSnapshot previous, SystemSnapshot current, double alpha) {
+    if (alpha >= 1 || current.stepCount <= previous.stepCount
+        || !current.originals.equals(previous.originals)) {
+      return current;
+    }
+    alpha = Math.max(alpha, 0);
+    ArrayList<Body> blended = new ArrayList<Body>(current.bodies.size());
+    for (int i = 0; i < current.bodies.size(); i++) {
+      Body from = previous.bodies.get(i);
+      Body to = current.bodies.get(i);
+      Body body = to.copy();
+      body.setPos(new Vector3D(
+          from.getX() + alpha * (to.getX() - from.getX()),
+          from.getY() + alpha * (to.getY() - from.getY()),
+          from.getZ() + alpha * (to.getZ() - from.getZ())));
+      blended.add(body);
+    }
+    double time = previous.time + alpha * (current.time - previous.time);
+    return new SystemSnapshot(Collections.unmodifiableList(blended), current.originals, time, current.stepCount);
+  }
+
+  /**
+   * Getter for the copies of the bodies, which must not be modified
+   * @return unmodifiable list of copies, in the order of the bodies of the system
+   */
+  public List<Body> getBodies() {
+    return bodies;
+  }
+
+  /**
+   * Getter for the bodies the copies were made from, to tell which body of the
+   * system a copy stands for. They keep moving with the system, so their
+   * state must not be read outside of the simulation thread
+   * @return unmodifiable list of bodies, in the same order as the copies
+   */
+  public List<Body> getOriginals() {
+    return originals;
+  }
+
+  /**
+   * Getter for the time of the snapshot
+   * @return time of the system in seconds
+   */
+  public double getTime() {
+    return time;
+  }
+
+  /**
+   * Getter for the step of the snapshot
+   * @return number of steps of the system
+   */
+  public long getStepCount() {
+    return stepCount;
+  }
+}
@@ -0,0 +1,404 @@
+package environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Replayable history of a simulation. Keyframes (checkpoints of the whole
+ * system) are kept every few steps, and the time steps taken in between are
+ * stored as runs of equal steps. Seeking to a step loads the last keyframe
+ * before it and steps again from there, so it costs at most one interval of
+ * steps however long the run is.
+ *
+ * Each run also keeps the time at its start, so that seeking to a time finds
+ * the steps where the run went through it, whether it went forward or back in
+ * time (negative steps): the one closest to the current step is chosen.
+ *
+ * When the keyframes use more than the memory budget, every other keyframe is
+ * dropped and the interval doubles. The runs may use a quarter of the budget:
+ * once they fill it, the older half of the history is forgotten, and the
+ * timeline starts at a later keyframe. Stepping after a seek back discards the
+ * history after that point. Commands posted to the system count as edits, so
+ * that replays start from a keyframe taken after them. Other changes made to
+ * the bodies between steps are not seen by the timeline: edited() must be
+ * called after them.
+ *
+ * Replays give back exactly the recorded states as long as the integrator
+ * keeps nothing from one step to the next, as the default one. The timeline
+ * must only be used from the thread that steps the system.
+ */
+public class Timeline implements StepListener {
+  /**
+   * Snapshot of the system at a step of the timeline
+   */
+  private static class Keyframe {
+    long step; // Number of steps since the start of the timeline
+    double time; // Time of the system in seconds
+    byte[] data; // Checkpoint of the system
+    boolean pinned; // Taken after an edit, never dropped
+  }
+
+  private static final int RUN_BYTES = 24; // Bytes of a run: start, time step and time
+
+  private SolarSystem solarSystem;
+  private final ByteBuffer buffer = Checkpoint.newBuffer(); // Buffer of every keyframe save and load
+  private ArrayList<Keyframe> keyframes = new ArrayList<Keyframe>(); // Sorted by step
+  private int interval; // Steps between two keyframes
+  private long maxBytes; // Memory budget of the keyframes
+  private long bytes = 0; // Memory used by the keyframes
+
+  // Time steps, as runs of equal steps: steps runStart[r] to runStart[r + 1] - 1 last runDt[r],
+  // the system being at time runTime[r] before the first one
+  private long[] runStart = new long[16];
+  private double[] runDt = new double[16];
+  private double[] runTime = new double[16];
+  private int nbRuns = 0;
+  private int maxRuns; // Runs kept at most, a quarter of the memory budget
+  private boolean keyframeDue = false; // Whether a keyframe must be taken after the next step
+
+  private long position = 0; // Current step of the system in the timeline
+  private double time; // Time of the system at the current step
+  private long length = 0; // Number of recorded steps
+  private double endTime; // Time of the system after the last recorded step
+
+  /**
+   * Constructor starting a timeline at the current state of a system, with a
+   * keyframe every 256 steps and 256 MB of keyframes at most
+   * @param solarSystem system to record, the timeline adds itself as its step listener
+   */
+  public Timeline(SolarSystem solarSystem) {
+    this(solarSystem, 256, 1L << 28);
+  }
+
+  /**
+   * Constructor starting a timeline at the current state of a system
+   * @param solarSystem system to record, the timeline adds itself as its step listener
+   * @param interval steps between two keyframes at first
+   * @param maxBytes memory budget in bytes, the first keyframe and the keyframes
+   *                 after edits are kept whatever their size
+   */
+  public Timeline(SolarSystem solarSystem, int interval, long maxBytes) {
+    if (interval < 1) {
+      throw new IllegalArgumentException("The interval must be at least one step");
+    }
+    this.solarSystem = solarSystem;
+    this.interval = interval;
+    this.maxBytes = maxBytes;
+    maxRuns = (int) Math.max(16, Math.min(Integer.MAX_VALUE / 2, maxBytes / 4 / RUN_BYTES));
+    time = solarSystem.getTime();
+    endTime = time;
+    addKeyframe(true);
+    solarSystem.addStepListener(this);
+  }
+
+  /**
+   * Records the step that was just taken
+   * @param solarSystem system that was stepped
+   * @param state state store of the system
+   */
+  @Override
+  public void stepDone(SolarSystem solarSystem, BodyState state) {
+    if (position < length) {
+      truncate();
+    }
+    double dt = solarSystem.getLastDt();
+    if (nbRuns == 0 || runDt[nbRuns - 1] != dt) {
+      if (nbRuns >= maxRuns) {
+        forgetOldRuns();
+      }
+      if (nbRuns == runStart.length) {
+        int cap = Math.max(nbRuns + 1, Math.min(2 * nbRuns, maxRuns));
+        runStart = Arrays.copyOf(runStart, cap);
+        runDt = Arrays.copyOf(runDt, cap);
+        runTime = Arrays.copyOf(runTime, cap);
+      }
+      runStart[nbRuns] = position;
+      runDt[nbRuns] = dt;
+      runTime[nbRuns] = time;
+      nbRuns++;
+    }
+    position++;
+    length = position;
+    time = solarSystem.getTime();
+    endTime = time;
+    if (position % interval == 0 || keyframeDue) {
+      keyframeDue = false;
+      state.push(solarSystem.getBodies()); // During stepN, the bodies lag behind the state store
+      addKeyframe(false);
+    }
+  }
+
+  /**
+   * Forgets the history before the first keyframe from the middle run on (or
+   * the last keyframe), which becomes the start of the timeline. When no run
+   * ends before that keyframe, a keyframe is taken after the next step instead,
+   * so that the next call has one to start from
+   */
+  private void forgetOldRuns() {
+    long middle = runStart[nbRuns / 2];
+    int k = 0;
+    while (k < keyframes.size() - 1 && keyframes.get(k).step < middle) {
+      k++;
+    }
+    Keyframe first = keyframes.get(k);
+    int dropped = 0;
+    while (dropped < nbRuns && (dropped + 1 < nbRuns ? runStart[dropped + 1] : length) <= first.step) {
+      dropped++;
+    }
+    if (dropped == 0) {
+      keyframeDue = true;
+      return;
+    }
+    for (int j = 0; j < k; j++) {
+      bytes -= keyframes.get(j).data.length;
+    }
+    keyframes.subList(0, k).clear();
+    first.pinned = true;
+    nbRuns -= dropped;
+    System.arraycopy(runStart, dropped, runStart, 0, nbRuns);
+    System.arraycopy(runDt, dropped, runDt, 0, nbRuns);
+    System.arraycopy(runTime, dropped, runTime, 0, nbRuns);
+    if (nbRuns > 0 && runStart[0] < first.step) {
+      runStart[0] = first.step;
+      runTime[0] = first.time;
+    }
+  }
+
+  /**
+   * Marks the commands applied by the system as an edit
+   * @param solarSystem system that was changed
+   */
+  @Override
+  public void commandsApplied(SolarSystem solarSystem) {
+    edited();
+  }
+
+  /**
+   * Marks a change of the bodies made between two steps. The history after the
+   * current step is discarded, and a keyframe of the changed system is taken
+   */
+  public void edited() {
+    truncate();
+    if (keyframes.get(keyframes.size() - 1).step == position) {
+      Keyframe last = keyframes.remove(keyframes.size() - 1);
+      bytes -= last.data.length;
+    }
+    addKeyframe(true);
+  }
+
+  /**
+   * Brings the system back (or forward) to a recorded step
+   * @param step number of steps since the start of the timeline, from getFirstStep() to getLength()
+   */
+  public void seek(long step) {
+    if (step < keyframes.get(0).step || step > length) {
+      throw new IllegalArgumentException("Step " + step + " is not in the timeline");
+    }
+    Keyframe keyframe = keyframes.get(0);
+    int low = 0;
+    int high = keyframes.size() - 1;
+    while (low <= high) { // Last keyframe at or before the step
+      int mid = (low + high) >>> 1;
+      if (keyframes.get(mid).step <= step) {
+        keyframe = keyframes.get(mid);
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    // Going forward from the current step is cheaper when no keyframe is in between
+    long from = keyframe.step;
+    if (position >= from && position <= step) {
+      from = position;
+    } else {
+      try {
+        Checkpoint.load(solarSystem, Channels.newChannel(new ByteArrayInputStream(keyframe.data)), buffer);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot read a keyframe", e);
+      }
+    }
+
+    solarSystem.quiet = true;
+    try {
+      int r = findRun(from);
+      while (from < step) {
+        long end = Math.min(step, r + 1 < nbRuns ? runStart[r + 1] : length);
+        solarSystem.stepN(runDt[r], (int) (end - from));
+        from = end;
+        r++;
+      }
+    } finally {
+      solarSystem.quiet = false;
+    }
+    position = step;
+    time = solarSystem.getTime();
+  }
+
+  /**
+   * Brings the system back (or forward) to a recorded time. In each run going
+   * through the time, the candidate is the last step not past it in the
+   * direction of the run, and the candidate closest to the current step is
+   * chosen. When no run goes through the time, the closest recorded time is
+   * chosen instead
+   * @param t time to reach in seconds
+   */
+  public void seekTime(double t) {
+    long best = position;
+    double bestError = Double.POSITIVE_INFINITY;
+    long bestDistance = Long.MAX_VALUE;
+    for (int r = 0; r < nbRuns; r++) {
+      long steps = (r + 1 < nbRuns ? runStart[r + 1] : length) - runStart[r];
+      // Steps of the run up to the time, a step landing on it counting despite the rounding
+      double q = (t - runTime[r]) / runDt[r] + 1e-9;
+      long step = runStart[r] + (long) Math.max(0, Math.min(Math.floor(q), steps));
+      double error = q >= 0 && q <= steps + 2e-9 ? 0 : Math.abs(runTime[r] + (step - runStart[r]) * runDt[r] - t);
+      long distance = Math.abs(step - position);
+      if (error < bestError || (error == bestError && distance < bestDistance)) {
+        best = step;
+        bestError = error;
+        bestDistance = distance;
+      }
+    }
+    seek(best);
+  }
+
+  /**
+   * Discards the history after the current step
+   */
+  private void truncate() {
+    while (keyframes.get(keyframes.size() - 1).step > position) {
+      Keyframe last = keyframes.remove(keyframes.size() - 1);
+      bytes -= last.data.length;
+    }
+    while (nbRuns > 0 && runStart[nbRuns - 1] >= position) {
+      nbRuns--;
+    }
+    keyframeDue = false;
+    length = position;
+    endTime = solarSystem.getTime();
+  }
+
+  /**
+   * Takes a keyframe of the system at the current step, and drops every other
+   * keyframe while the memory budget is exceeded
+   * @param pinned true to never drop the keyframe
+   */
+  private void addKeyframe(boolean pinned) {
+    Keyframe keyframe = new Keyframe();
+    keyframe.step = position;
+    keyframe.time = solarSystem.getTime();
+    keyframe.pinned = pinned;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      Checkpoint.save(solarSystem, Channels.newChannel(out), buffer);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot write a keyframe", e);
+    }
+    keyframe.data = out.toByteArray();
+    keyframes.add(keyframe);
+    bytes += keyframe.data.length;
+
+    while (bytes > maxBytes && interval <= length) {
+      interval *= 2;
+      int kept = 0;
+      for (Keyframe k : keyframes) {
+        if (k.pinned || k.step % interval == 0) {
+          keyframes.set(kept++, k);
+        } else {
+          bytes -= k.data.length;
+        }
+      }
+      keyframes.subList(kept, keyframes.size()).clear();
+    }
+  }
+
+  /**
+   * Finds the run of time steps holding a step
+   * @param step step number, before the length
+   * @return index of the run
+   */
+  private int findRun(long step) {
+    int low = 0;
+    int high = nbRuns - 1;
+    int run = 0;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (runStart[mid] <= step) {
+        run = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return run;
+  }
+
+  /**
+   * Stops recording the steps of the system
+   */
+  public void detach() {
+    solarSystem.removeStepListener(this);
+  }
+
+  /**
+   * Getter for the current step of the system in the timeline
+   * @return number of steps since the start of the timeline
+   */
+  public long getPosition() {
+    return position;
+  }
+
+  /**
+   * Getter for the first step still kept, 0 until the older history is forgotten
+   * @return number of steps since the start of the timeline
+   */
+  public long getFirstStep() {
+    return keyframes.get(0).step;
+  }
+
+  /**
+   * Getter for the number of recorded steps
+   * @return number of steps since the start of the timeline
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Getter for the time at the start of the timeline
+   * @return time in seconds
+   */
+  public double getStartTime() {
+    return keyframes.get(0).time;
+  }
+
+  /**
+   * Getter for the time after the last recorded step
+   * @return time in seconds
+   */
+  public double getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Getter for the number of keyframes kept
+   * @return number of keyframes
+   */
+  public int getNbKeyframes() {
+    return keyframes.size();
+  }
+
+  /**
+   * Getter for the number of steps between two keyframes
+   * @return interval in steps, doubled each time the memory budget is exceeded
+   */
+  public int getInterval() {
+    return interval;
+  }
+}
@@ -0,0 +1,233 @@
+package environment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Random access to the frames of a trajectory file written by
+ * TrajectoryRecorder. The file is mapped read-only chunk by chunk when first
+ * needed, and values are read straight from the mappings, so files much larger
+ * than the memory can be read without copying them.
+ *
+ * The file can be read while it is being recorded, getNbFrames() then grows.
+ */
+public class TrajectoryReader implements Closeable {
+  // Columns of a frame
+  public static final int X = 0;
+  public static final int Y = 1;
+  public static final int Z = 2;
+  public static final int VX = 3;
+  public static final int VY = 4;
+  public static final int VZ = 5;
+
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final int capacity; // Maximum number of bodies in a frame
+  private final int interval; // Steps between two frames
+  private final long recordSize; // Bytes of a frame
+  private final int chunkFrames; // Frames in a mapped chunk
+  private final ArrayList<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>(); // Mapped so far
+
+  /**
+   * Constructor opening a trajectory file
+   * @param path file to read
+   * @throws IOException if the file cannot be read or is not a trajectory
+   */
+  public TrajectoryReader(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    if (channel.size() < TrajectoryRecorder.HEADER_SIZE) {
+      channel.close();
+      throw new IOException("Not a trajectory file");
+    }
+    header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TrajectoryRecorder.HEADER_SIZE);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    if (header.getInt(0) != TrajectoryRecorder.MAGIC) {
+      channel.close();
+      throw new IOException("Not a trajectory file");
+    }
+    if (header.getInt(4) != TrajectoryRecorder.VERSION) {
+      channel.close();
+      throw new IOException("Unsupported trajectory version " + header.getInt(4));
+    }
+    capacity = header.getInt(TrajectoryRecorder.CAPACITY);
+    interval = header.getInt(TrajectoryRecorder.INTERVAL);
+    recordSize = header.getLong(TrajectoryRecorder.RECORD_SIZE);
+    chunkFrames = (int) header.getLong(TrajectoryRecorder.CHUNK_FRAMES);
+    if (capacity < 1 || recordSize != TrajectoryRecorder.recordSize(capacity) || chunkFrames < 1) {
+      channel.close();
+      throw new IOException("Corrupted trajectory header");
+    }
+  }
+
+  /**
+   * Getter for the number of complete frames
+   * @return number of frames
+   */
+  public long getNbFrames() {
+    return header.getLong(TrajectoryRecorder.NB_FRAMES);
+  }
+
+  /**
+   * Getter for the maximum number of bodies in a frame
+   * @return capacity of the frames
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Getter for the number of steps between two frames
+   * @return interval in steps
+   */
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Getter for the time of a frame
+   * @param frame index of the frame
+   * @return time in seconds
+   */
+  public double getTime(long frame) {
+    return chunk(frame).getDouble(offset(frame));
+  }
+
+  /**
+   * Getter for the step number of a frame
+   * @param frame index of the frame
+   * @return number of steps of the system when the frame was recorded
+   */
+  public long getStep(long frame) {
+    return chunk(frame).getLong(offset(frame) + 8);
+  }
+
+  /**
+   * Getter for the number of bodies in a frame
+   * @param frame index of the frame
+   * @return number of bodies
+   */
+  public int getNbBodies(long frame) {
+    return chunk(frame).getInt(offset(frame) + 16);
+  }
+
+  /**
+   * Reads one value of a body
+   * @param frame index of the frame
+   * @param column X, Y, Z, VX, VY or VZ
+   * @param body index of the body in the frame
+   * @return position in m or velocity in m/s
+   */
+  public double get(long frame, int column, int body) {
+    checkColumn(column);
+    checkBody(frame, body);
+    return chunk(frame).getDouble(offset(frame) + TrajectoryRecorder.FRAME_HEADER + 8 * (column * capacity + body));
+  }
+
+  /**
+   * Gives a column of a frame without copying it
+   * @param frame index of the frame
+   * @param column X, Y, Z, VX, VY or VZ
+   * @return read-only view of the values of the bodies of the frame
+   */
+  public DoubleBuffer getColumn(long frame, int column) {
+    checkColumn(column);
+    int start = offset(frame) + TrajectoryRecorder.FRAME_HEADER + 8 * column * capacity;
+    return chunk(frame).slice(start, 8 * getNbBodies(frame)).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+  }
+
+  /**
+   * Getter for the habitability flag of a body
+   * @param frame index of the frame
+   * @param body index of the body in the frame
+   * @return true if the body is a habitable rocky planet
+   */
+  public boolean isHabitable(long frame, int body) {
+    checkBody(frame, body);
+    long word = chunk(frame).getLong(offset(frame) + TrajectoryRecorder.FRAME_HEADER
+        + 8 * TrajectoryRecorder.NB_COLUMNS * capacity + 8 * (body >> 6));
+    return (word & (1L << body)) != 0;
+  }
+
+  /**
+   * Gives a whole frame without copying it, laid out as described in TrajectoryRecorder
+   * @param frame index of the frame
+   * @return read-only little-endian view of the frame
+   */
+  public ByteBuffer getFrame(long frame) {
+    return chunk(frame).slice(offset(frame), (int) recordSize).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Finds the offset of a frame in its chunk
+   * @param frame index of the frame
+   * @return offset in bytes
+   */
+  private int offset(long frame) {
+    return (int) (frame % chunkFrames * recordSize);
+  }
+
+  /**
+   * Finds the chunk holding a frame, mapping it if needed
+   * @param frame index of the frame
+   * @return read-only chunk
+   */
+  private ByteBuffer chunk(long frame) {
+    if (frame < 0 || frame >= getNbFrames()) {
+      throw new IndexOutOfBoundsException("No frame " + frame + " in " + getNbFrames() + " frames");
+    }
+    int index = (int) (frame / chunkFrames);
+    while (chunks.size() <= index) {
+      chunks.add(null);
+    }
+    MappedByteBuffer mapped = chunks.get(index);
+    if (mapped == null) {
+      try {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+            TrajectoryRecorder.HEADER_SIZE + (long) index * chunkFrames * recordSize, chunkFrames * recordSize);
+      } catch (IOException e) {
+        throw new IllegalStateException("Cannot map the trajectory file", e);
+      }
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      chunks.set(index, mapped);
+    }
+    return mapped;
+  }
+
+  /**
+   * Checks a column index
+   * @param column index of the column
+   */
+  private static void checkColumn(int column) {
+    if (column < X || column > VZ) {
+      throw new IllegalArgumentException("Unknown column " + column);
+    }
+  }
+
+  /**
+   * Checks the index of a body
+   * @param frame index of the frame
+   * @param body index of the body
+   */
+  private void checkBody(long frame, int body) {
+    if (body < 0 || body >= getNbBodies(frame)) {
+      throw new IndexOutOfBoundsException("No body " + body + " in frame " + frame);
+    }
+  }
+
+  /**
+   * Closes the file. The mappings stay valid until they are garbage collected
+   * @throws IOException if the file cannot be closed
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
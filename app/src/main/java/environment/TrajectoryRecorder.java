@@ -0,0 +1,264 @@
+package environment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every Nth step of a simulation into a memory-mapped trajectory file,
+ * read back with TrajectoryReader. Add it to a system with addStepListener.
+ *
+ * The file holds a header of HEADER_SIZE bytes followed by frames of a fixed
+ * size, so that frame k starts at HEADER_SIZE + k * recordSize. A frame holds
+ * the time, the step number and the number of bodies, then the x, y, z, vx, vy
+ * and vz columns of capacity doubles each, then the habitability flags as
+ * capacity bits packed in longs. Everything is little-endian.
+ *
+ * Frames are written by plain copies into the mapped file, mapped in chunks of
+ * whole frames: the step never waits for the disk, the operating system writes
+ * the dirty pages back in the background. Mapping a chunk grows the file, which
+ * can take a while, so once a chunk is half full the next one is mapped on a
+ * helper thread, and only swapped in when the current one is full. The number
+ * of frames in the header
+ * is updated after each frame, so the file can be read while it is written.
+ * The file is not truncated on close, it can be longer than its frames.
+ */
+public class TrajectoryRecorder implements StepListener, Closeable {
+  static final int MAGIC = 0x53535452; // "SSTR"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 64;
+  static final int FRAME_HEADER = 24; // time, step, number of bodies and padding
+  static final int NB_COLUMNS = 6; // x, y, z, vx, vy, vz
+
+  // Offsets of the fields of the header
+  static final int CAPACITY = 8;
+  static final int INTERVAL = 12;
+  static final int RECORD_SIZE = 16;
+  static final int CHUNK_FRAMES = 24;
+  static final int NB_FRAMES = 32;
+
+  private static final int CHUNK_SIZE = 1 << 26; // Default bytes mapped at once
+
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final int capacity; // Maximum number of bodies in a frame
+  private final int interval; // Steps between two frames
+  private final long recordSize; // Bytes of a frame
+  private final int chunkFrames; // Frames in a mapped chunk
+  private MappedByteBuffer chunk; // Chunk holding the next frame
+  private Future<MappedByteBuffer> nextChunk; // Chunk after it, being mapped, null if not requested yet
+  private final ExecutorService mapper; // Thread mapping the chunks ahead
+  private long nbFrames = 0;
+  private long[] flags; // Habitability bits of the frame being written
+
+  /**
+   * Constructor creating a trajectory file, replacing it if it exists
+   * @param path file to write
+   * @param capacity maximum number of bodies, usually the number of bodies at the
+   *                 start as crashes only lower it
+   * @param interval a frame is recorded every interval steps
+   * @throws IOException if the file cannot be created
+   */
+  public TrajectoryRecorder(Path path, int capacity, int interval) throws IOException {
+    this(path, capacity, interval, CHUNK_SIZE);
+  }
+
+  /**
+   * Constructor with a given size of mapped chunks
+   * @param path file to write
+   * @param capacity maximum number of bodies
+   * @param interval a frame is recorded every interval steps
+   * @param chunkSize bytes mapped at once, rounded down to whole frames
+   * @throws IOException if the file cannot be created
+   */
+  TrajectoryRecorder(Path path, int capacity, int interval, int chunkSize) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The capacity must be at least one body");
+    }
+    if (interval < 1) {
+      throw new IllegalArgumentException("The interval must be at least one step");
+    }
+    recordSize = recordSize(capacity);
+    if (recordSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many bodies for a mapped frame: " + capacity);
+    }
+    this.capacity = capacity;
+    this.interval = interval;
+    chunkFrames = (int) Math.max(1, chunkSize / recordSize);
+    flags = new long[(capacity + 63) / 64];
+
+    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(0, MAGIC);
+    header.putInt(4, VERSION);
+    header.putInt(CAPACITY, capacity);
+    header.putInt(INTERVAL, interval);
+    header.putLong(RECORD_SIZE, recordSize);
+    header.putLong(CHUNK_FRAMES, chunkFrames);
+    header.putLong(NB_FRAMES, 0);
+    mapper = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Trajectory mapper");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Computes the size of a frame
+   * @param capacity maximum number of bodies
+   * @return bytes of a frame, a multiple of 8
+   */
+  static long recordSize(int capacity) {
+    return FRAME_HEADER + 8L * NB_COLUMNS * capacity + 8L * ((capacity + 63) / 64);
+  }
+
+  /**
+   * Records a frame if the step number is a multiple of the interval
+   * @param solarSystem system that was stepped
+   * @param state state store holding the bodies at the end of the step
+   */
+  @Override
+  public void stepDone(SolarSystem solarSystem, BodyState state) {
+    if (solarSystem.getStepCount() % interval == 0) {
+      append(solarSystem.getTime(), solarSystem.getStepCount(), state, solarSystem.getBodies());
+    }
+  }
+
+  /**
+   * Writes a frame at the end of the file
+   * @param time time of the frame in seconds
+   * @param step step number of the frame
+   * @param state state store holding the positions and velocities
+   * @param bodies bodies in the order of the state store, for the habitability
+   */
+  public void append(double time, long step, BodyState state, ArrayList<Body> bodies) {
+    int n = state.size();
+    if (n > capacity) {
+      throw new IllegalStateException(n + " bodies do not fit in frames of " + capacity);
+    }
+    long index = nbFrames / chunkFrames;
+    int slot = (int) (nbFrames % chunkFrames);
+    if (slot == 0) {
+      chunk = nextChunk == null ? map(index) : await(nextChunk);
+      nextChunk = null;
+    }
+    int offset = (int) (slot * recordSize);
+    chunk.putDouble(offset, time);
+    chunk.putLong(offset + 8, step);
+    chunk.putInt(offset + 16, n);
+
+    double[][] columns = { state.getX(), state.getY(), state.getZ(), state.getVx(), state.getVy(), state.getVz() };
+    for (int c = 0; c < NB_COLUMNS; c++) {
+      chunk.position(offset + FRAME_HEADER + 8 * c * capacity);
+      chunk.asDoubleBuffer().put(columns[c], 0, n);
+    }
+    for (int w = 0; w < flags.length; w++) {
+      flags[w] = 0;
+    }
+    for (int i = 0; i < n; i++) {
+      Body body = bodies.get(i);
+      if (body instanceof RockyPlanet && ((RockyPlanet) body).getHab()) {
+        flags[i >> 6] |= 1L << i;
+      }
+    }
+    chunk.position(offset + FRAME_HEADER + 8 * NB_COLUMNS * capacity);
+    chunk.asLongBuffer().put(flags);
+
+    nbFrames++;
+    header.putLong(NB_FRAMES, nbFrames); // Only after the frame, for readers following the file
+    if (nextChunk == null && 2 * (slot + 1) >= chunkFrames) {
+      nextChunk = mapper.submit(() -> map(index + 1));
+    }
+  }
+
+  /**
+   * Waits for a chunk mapped by the helper thread
+   * @param future chunk being mapped
+   * @return the chunk
+   */
+  private static MappedByteBuffer await(Future<MappedByteBuffer> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while growing the trajectory file", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Maps a chunk of the file, growing the file if needed
+   * @param index index of the chunk
+   * @return the chunk, little-endian
+   */
+  private MappedByteBuffer map(long index) {
+    try {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+          HEADER_SIZE + index * chunkFrames * recordSize, chunkFrames * recordSize);
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      return mapped;
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot grow the trajectory file", e);
+    }
+  }
+
+  /**
+   * Getter for the number of frames written
+   * @return number of frames
+   */
+  public long getNbFrames() {
+    return nbFrames;
+  }
+
+  /**
+   * Getter for the mapping ahead
+   * @return true if the chunk after the current one was requested from the helper thread
+   */
+  boolean isNextChunkRequested() {
+    return nextChunk != null;
+  }
+
+  /**
+   * Getter for the number of steps between two frames
+   * @return interval in steps
+   */
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Writes the mapped frames to the disk and closes the file. The mappings stay
+   * valid until they are garbage collected
+   * @throws IOException if the file cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    mapper.shutdown(); // The chunk being mapped ahead, if any, is left unused
+    try {
+      mapper.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (chunk != null) {
+      chunk.force();
+    }
+    header.force();
+    channel.close();
+  }
+}
@@ -0,0 +1,172 @@
+package environment;
+
+/**
+ * Chooses how many steps to take at each tick of an interactive simulation,
+ * and how long they are, so that the simulation runs at a requested speed
+ * (simulated seconds per real second) within a share of the processor.
+ *
+ * The cost of a step and the cost of drawing a frame are measured as the
+ * simulation runs. Each tick takes enough steps for none of them to be longer
+ * than the largest time step allowed, as long as they fit in the time left
+ * after drawing. When they do not, the steps stay at the largest time step and
+ * the simulation runs slower than requested, so more bodies (or a slower
+ * integrator) lower the speed but never the accuracy.
+ *
+ * The measures may be recorded from any thread, the plan must be made by the
+ * thread that steps the system.
+ */
+public class WarpController {
+  private static final double SMOOTHING = 0.2; // Weight of a new measure in the averages
+
+  private volatile double warp; // Requested simulated seconds per real second
+  private volatile double maxDt = 3600; // Largest time step in seconds
+  private volatile double budget = 0.75; // Share of the real time the steps and frames may use
+
+  private double stepCost = 0; // Average real time of a step in nanoseconds, 0 until measured
+  private volatile double frameCost = 0; // Average real time of a frame in nanoseconds
+
+  private int steps = 1; // Steps of the last plan
+  private double dt = 0; // Time step of the last plan in seconds
+  private volatile double achievedWarp = 0; // Simulated seconds per real second of the last plan
+
+  /**
+   * Constructor
+   * @param warp requested simulated seconds per real second, negative to go back in time
+   */
+  public WarpController(double warp) {
+    setWarp(warp);
+  }
+
+  /**
+   * Plans the steps of the next tick. The first tick takes a single step, to measure its cost
+   * @param tickNanos real time between two ticks in nanoseconds
+   * @param frameNanos real time between two frames in nanoseconds
+   * @return number of steps to take, at least one, each of getDt() seconds
+   */
+  public int plan(long tickNanos, long frameNanos) {
+    if (tickNanos <= 0 || frameNanos <= 0) {
+      throw new IllegalArgumentException("The tick and frame periods must be positive");
+    }
+    double span = warp * tickNanos * 1e-9; // Simulated time to cover in this tick
+    int wanted = (int) Math.min(Integer.MAX_VALUE, Math.ceil(Math.abs(span) / maxDt));
+    // Real time of the tick left for the steps once the frames are drawn
+    double available = tickNanos * (budget - frameCost / frameNanos);
+    int affordable = stepCost > 0 ? (int) Math.min(Integer.MAX_VALUE, available / stepCost) : 1;
+    steps = Math.max(1, Math.min(wanted, affordable));
+    dt = Math.copySign(Math.min(Math.abs(span) / steps, maxDt), span);
+    achievedWarp = steps * dt / (tickNanos * 1e-9);
+    return steps;
+  }
+
+  /**
+   * Records the real time taken by steps of the system
+   * @param n number of steps taken
+   * @param nanos real time they took in nanoseconds
+   */
+  public void recordSteps(int n, long nanos) {
+    if (n <= 0) {
+      return;
+    }
+    double cost = (double) nanos / n;
+    stepCost = stepCost == 0 ? cost : stepCost + SMOOTHING * (cost - stepCost);
+  }
+
+  /**
+   * Records the real time taken by drawing a frame
+   * @param nanos real time in nanoseconds
+   */
+  public void recordFrame(long nanos) {
+    double cost = frameCost;
+    frameCost = cost == 0 ? nanos : cost + SMOOTHING * (nanos - cost);
+  }
+
+  /**
+   * Getter for the time step of the last plan
+   * @return time step in seconds, of the same sign as the requested speed
+   */
+  public double getDt() {
+    return dt;
+  }
+
+  /**
+   * Getter for the number of steps of the last plan
+   * @return number of steps per tick
+   */
+  public int getSteps() {
+    return steps;
+  }
+
+  /**
+   * Getter for the speed of the last plan, lower than the requested one when
+   * the steps do not fit in the budget
+   * @return simulated seconds per real second
+   */
+  public double getAchievedWarp() {
+    return achievedWarp;
+  }
+
+  /**
+   * Getter for the requested speed
+   * @return simulated seconds per real second
+   */
+  public double getWarp() {
+    return warp;
+  }
+
+  /**
+   * Setter for the requested speed
+   * @param warp simulated seconds per real second, negative to go back in time, 0 to pause
+   */
+  public void setWarp(double warp) {
+    if (!Double.isFinite(warp)) {
+      throw new IllegalArgumentException("The speed must be finite");
+    }
+    this.warp = warp;
+  }
+
+  /**
+   * Getter for the largest time step
+   * @return time step in seconds
+   */
+  public double getMaxDt() {
+    return maxDt;
+  }
+
+  /**
+   * Setter for the largest time step, above which the integrator is not accurate enough
+   * @param maxDt time step in seconds
+   */
+  public void setMaxDt(double maxDt) {
+    if (!(maxDt > 0)) {
+      throw new IllegalArgumentException("The largest time step must be positive");
+    }
+    this.maxDt = maxDt;
+  }
+
+  /**
+   * Setter for the share of the real time the steps and the frames may use
+   * @param budget share between 0 (exclusive) and 1
+   */
+  public void setBudget(double budget) {
+    if (!(budget > 0 && budget <= 1)) {
+      throw new IllegalArgumentException("The budget must be between 0 and 1");
+    }
+    this.budget = budget;
+  }
+
+  /**
+   * Getter for the average cost of a step
+   * @return real time in nanoseconds, 0 until measured
+   */
+  public double getStepCost() {
+    return stepCost;
+  }
+
+  /**
+   * Getter for the average cost of a frame
+   * @return real time in nanoseconds, 0 until measured
+   */
+  public double getFrameCost() {
+    return frameCost;
+  }
+}
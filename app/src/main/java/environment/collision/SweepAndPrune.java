@@ -0,0 +1,454 @@
+package environment.collision;
+
+import java.util.Arrays;
+import java.util.List;
+
+import environment.Body;
+import environment.BodyState;
+
+/**
+ * Collision detection between the bodies of a state store in about O(n log n)
+ * per step.
+ *
+ * Broad phase: every body covers the box [x - r, x + r] x [y - r, y + r] x
+ * [z - r, z + r]. The bodies are sorted by the start of their interval along x.
+ * Since they move little from one step to the next, the order of the previous
+ * call is kept and sorted again with an insertion sort, in about O(n), falling
+ * back on a merge sort when it is too far off. Space is then cut in strips
+ * along y, about twice as wide as the average box, and each body is put in the
+ * strips its box covers (one or two for most bodies), in the sorted order. In
+ * each strip, a sweep over that order only pairs a body with the
+ * following ones whose interval starts before its own ends (sweep and prune).
+ * The pairs whose boxes also overlap along y and z go to the narrow phase, a
+ * pair sharing several strips only being kept in the one where the overlap of
+ * its boxes along y starts. The strips keep the sweep short in a flat disk,
+ * where a single sweep along x would pair every body with all the ones in the
+ * same slice of the disk.
+ *
+ * Narrow phase: the remaining pairs are kept when the center of one body lies
+ * within the radius of the other, as in SolarSystem.findCrashes.
+ *
+ * Continuous detection: with large time-steps, fast bodies can go through each
+ * other between two checks. When the positions at the start of the step were
+ * saved with saveStart(), findSweptContacts() assumes the bodies moved in a
+ * straight line during the step. The interval of a body then covers its whole
+ * motion along x, and the narrow phase solves for the earliest time at which the
+ * distance went below the radius (swept spheres).
+ *
+ * The contact pairs are stored in primitive arrays reused from one call to the
+ * next, each pair with its smaller index first and its time of contact.
+ */
+public class SweepAndPrune {
+  private static final int MAX_MOVES = 8; // Moves per body allowed to the insertion sort before a merge sort
+
+  private int[] sorted = new int[0]; // Body indices sorted by start of interval along x, kept between calls
+  private int nbSorted = 0; // Number of bodies in the sorted array, 0 if the order must be rebuilt
+  private boolean reused = false; // Whether the last call sorted the previous order again
+  private int[] scratch = new int[0]; // Buffer of the merge sort
+  private int[] order = new int[0]; // Body indices sorted by strip, then by start of interval along x
+  private int[] stripStart = new int[0]; // First entry of each strip in the order array, then the end
+  private double[] low = new double[0]; // Start of the box of each body along x
+  private double[] high = new double[0]; // End of the box of each body along x
+  private double[] lowY = new double[0]; // Start of the box of each body along y
+  private double[] highY = new double[0];
+  private double[] lowZ = new double[0]; // Start of the box of each body along z
+  private double[] highZ = new double[0];
+
+  // Positions at the start of the step, for the continuous detection
+  private int nbStart = -1; // Number of bodies saved, -1 if none
+  private double[] startX = new double[0];
+  private double[] startY = new double[0];
+  private double[] startZ = new double[0];
+
+  private int nbContacts = 0; // Number of contact pairs found by the last call
+  private int[] first = new int[16]; // Smaller index of each pair
+  private int[] second = new int[16]; // Larger index of each pair
+  private double[] time = new double[16]; // Time of contact of each pair, as a fraction of the step
+
+  /**
+   * Finds every pair of bodies in contact at the current positions
+   * @param state state store holding the positions and radii of the bodies
+   * @return number of contact pairs, available with getFirst() and getSecond()
+   */
+  public int findContacts(BodyState state) {
+    return find(state, state.getX(), state.getY(), state.getZ());
+  }
+
+  /**
+   * Saves the positions at the start of a step, for findSweptContacts()
+   * @param state state store holding the positions of the bodies
+   */
+  public void saveStart(BodyState state) {
+    int n = state.size();
+    if (startX.length < n) {
+      int cap = Math.max(n, 2 * startX.length);
+      startX = new double[cap];
+      startY = new double[cap];
+      startZ = new double[cap];
+    }
+    System.arraycopy(state.getX(), 0, startX, 0, n);
+    System.arraycopy(state.getY(), 0, startY, 0, n);
+    System.arraycopy(state.getZ(), 0, startZ, 0, n);
+    nbStart = n;
+  }
+
+  /**
+   * Saves the positions at the start of a step, for findSweptContacts(), straight
+   * from the bodies the state store will be pulled from at the end of the step
+   * @param bodies list of bodies
+   */
+  public void saveStart(List<Body> bodies) {
+    int n = bodies.size();
+    if (startX.length < n) {
+      int cap = Math.max(n, 2 * startX.length);
+      startX = new double[cap];
+      startY = new double[cap];
+      startZ = new double[cap];
+    }
+    for (int i = 0; i < n; i++) {
+      Body body = bodies.get(i);
+      startX[i] = body.getX();
+      startY[i] = body.getY();
+      startZ[i] = body.getZ();
+    }
+    nbStart = n;
+  }
+
+  /**
+   * Finds every pair of bodies that came in contact at some point of the step,
+   * each body moving in a straight line from the position saved with saveStart()
+   * to its current position
+   * @param state state store holding the positions and radii of the bodies at the end of the step
+   * @return number of contact pairs, available with getFirst(), getSecond() and getTimes()
+   */
+  public int findSweptContacts(BodyState state) {
+    if (nbStart != state.size()) {
+      throw new IllegalStateException("The start of the step was not saved for these bodies");
+    }
+    return find(state, startX, startY, startZ);
+  }
+
+  /**
+   * Sweeps the bodies moving from start positions to the current positions of the store
+   * @param state state store holding the positions and radii of the bodies
+   * @param x0 x positions at the start of the step
+   * @param y0 y positions at the start of the step
+   * @param z0 z positions at the start of the step
+   * @return number of contact pairs
+   */
+  private int find(BodyState state, double[] x0, double[] y0, double[] z0) {
+    int n = state.size();
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] radius = state.getRadius();
+    ensureCapacity(n);
+    nbContacts = 0;
+    if (n < 2) {
+      return 0;
+    }
+
+    // Boxes covering the motion of the bodies
+    double minY = Double.POSITIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    double extent = 0;
+    for (int i = 0; i < n; i++) {
+      low[i] = Math.min(x0[i], x[i]) - radius[i];
+      high[i] = Math.max(x0[i], x[i]) + radius[i];
+      lowY[i] = Math.min(y0[i], y[i]) - radius[i];
+      highY[i] = Math.max(y0[i], y[i]) + radius[i];
+      lowZ[i] = Math.min(z0[i], z[i]) - radius[i];
+      highZ[i] = Math.max(z0[i], z[i]) + radius[i];
+      minY = Math.min(minY, lowY[i]);
+      maxY = Math.max(maxY, highY[i]);
+      extent += highY[i] - lowY[i];
+    }
+
+    // Strips about twice as wide as the average box, but no more strips than bodies
+    double width = Math.max(2 * extent / n, (maxY - minY) / n);
+    if (!(width > 0) || !Double.isFinite(width)) {
+      width = 1;
+    }
+    int nbStrips = (int) Math.min((maxY - minY) / width, n) + 1;
+    sortAlongX(n);
+    sortByStrip(n, minY, width, nbStrips);
+
+    for (int s = 0; s < nbStrips; s++) {
+      int end = stripStart[s + 1];
+      for (int a = stripStart[s]; a < end; a++) {
+        int i = order[a];
+        double endX = high[i];
+        for (int b = a + 1; b < end && low[order[b]] < endX; b++) {
+          int j = order[b];
+          if (lowY[j] >= highY[i] || lowY[i] >= highY[j] || lowZ[j] >= highZ[i] || lowZ[i] >= highZ[j]) {
+            continue;
+          }
+          if (strip(Math.max(lowY[i], lowY[j]), minY, width, nbStrips) != s) {
+            continue; // Kept in another strip
+          }
+          double t = contactTime(x0[j] - x0[i], y0[j] - y0[i], z0[j] - z0[i],
+              x[j] - x[i], y[j] - y[i], z[j] - z[i], Math.max(radius[i], radius[j]));
+          if (t >= 0) {
+            addContact(Math.min(i, j), Math.max(i, j), t);
+          }
+        }
+      }
+    }
+    return nbContacts;
+  }
+
+  /**
+   * Swept narrow phase: finds the earliest time at which the distance between two
+   * bodies moving in a straight line is below a radius
+   * @param dx0 x separation at the start of the step
+   * @param dy0 y separation at the start of the step
+   * @param dz0 z separation at the start of the step
+   * @param dx1 x separation at the end of the step
+   * @param dy1 y separation at the end of the step
+   * @param dz1 z separation at the end of the step
+   * @param r contact radius
+   * @return time of contact as a fraction of the step in [0, 1], or -1 if there is none
+   */
+  public static double contactTime(double dx0, double dy0, double dz0, double dx1, double dy1, double dz1,
+      double r) {
+    // |d0 + t (d1 - d0)|^2 = r^2, written a t^2 + b t + c = 0
+    double ex = dx1 - dx0;
+    double ey = dy1 - dy0;
+    double ez = dz1 - dz0;
+    double c = dx0 * dx0 + dy0 * dy0 + dz0 * dz0 - r * r;
+    if (c < 0) {
+      return 0; // Already in contact at the start
+    }
+    double a = ex * ex + ey * ey + ez * ez;
+    double b = 2 * (dx0 * ex + dy0 * ey + dz0 * ez);
+    if (a == 0 || b >= 0) {
+      return -1; // Not getting closer
+    }
+    double disc = b * b - 4 * a * c;
+    if (disc <= 0) {
+      return -1; // Closest approach farther than the radius
+    }
+    double t = (-b - Math.sqrt(disc)) / (2 * a);
+    return t < 1 ? t : -1;
+  }
+
+  /**
+   * Narrow phase: checks whether the center of one body lies within the radius
+   * of the other
+   * @param state state store holding the positions and radii of the bodies
+   * @param i index of the first body
+   * @param j index of the second body
+   * @return true if the bodies crashed
+   */
+  public static boolean overlaps(BodyState state, int i, int j) {
+    double dx = state.getX()[j] - state.getX()[i];
+    double dy = state.getY()[j] - state.getY()[i];
+    double dz = state.getZ()[j] - state.getZ()[i];
+    double r = Math.max(state.getRadius()[i], state.getRadius()[j]);
+    return dx * dx + dy * dy + dz * dz < r * r;
+  }
+
+  /**
+   * Sorts the bodies by start of interval along x, from the order of the previous
+   * call when it had as many bodies
+   * @param n number of bodies
+   */
+  private void sortAlongX(int n) {
+    if (sorted.length < n) {
+      sorted = new int[Math.max(n, 2 * sorted.length)];
+      scratch = new int[sorted.length];
+    }
+    reused = nbSorted == n;
+    if (!reused) {
+      for (int i = 0; i < n; i++) {
+        sorted[i] = i;
+      }
+      mergeSort(0, n);
+    } else if (!insertionSort(n, (long) MAX_MOVES * n)) {
+      mergeSort(0, n);
+    }
+    nbSorted = n;
+  }
+
+  /**
+   * Insertion sort of the sorted array by start of interval, giving up after a
+   * number of moves. The array is still a permutation of the bodies when it does
+   * @param n number of bodies
+   * @param maxMoves largest number of moves
+   * @return true if the array is sorted
+   */
+  private boolean insertionSort(int n, long maxMoves) {
+    long moves = 0;
+    for (int k = 1; k < n; k++) {
+      int i = sorted[k];
+      double key = low[i];
+      int m = k - 1;
+      while (m >= 0 && low[sorted[m]] > key) {
+        sorted[m + 1] = sorted[m];
+        m--;
+        if (++moves > maxMoves) {
+          sorted[m + 1] = i;
+          return false;
+        }
+      }
+      sorted[m + 1] = i;
+    }
+    return true;
+  }
+
+  /**
+   * Fills the order array with the bodies of each strip (counting sort). The
+   * bodies are taken in the sorted array, so each strip is sorted by start of
+   * interval along x
+   * @param n number of bodies
+   * @param minY start of the first strip
+   * @param width width of the strips
+   * @param nbStrips number of strips
+   */
+  private void sortByStrip(int n, double minY, double width, int nbStrips) {
+    if (stripStart.length < nbStrips + 1) {
+      stripStart = new int[Math.max(nbStrips + 1, 2 * stripStart.length)];
+    }
+    Arrays.fill(stripStart, 0, nbStrips + 1, 0);
+    for (int i = 0; i < n; i++) {
+      int last = strip(highY[i], minY, width, nbStrips);
+      for (int s = strip(lowY[i], minY, width, nbStrips); s <= last; s++) {
+        stripStart[s + 1]++;
+      }
+    }
+    for (int s = 0; s < nbStrips; s++) {
+      stripStart[s + 1] += stripStart[s];
+    }
+    int nbEntries = stripStart[nbStrips];
+    if (order.length < nbEntries) {
+      order = new int[Math.max(nbEntries, 2 * order.length)];
+    }
+    // Strip starts are moved forward while filling, and shifted back afterwards
+    for (int k = 0; k < n; k++) {
+      int i = sorted[k];
+      int last = strip(highY[i], minY, width, nbStrips);
+      for (int s = strip(lowY[i], minY, width, nbStrips); s <= last; s++) {
+        order[stripStart[s]++] = i;
+      }
+    }
+    for (int s = nbStrips; s > 0; s--) {
+      stripStart[s] = stripStart[s - 1];
+    }
+    stripStart[0] = 0;
+  }
+
+  /**
+   * Finds the strip holding a coordinate
+   * @param y coordinate along y
+   * @param minY start of the first strip
+   * @param width width of the strips
+   * @param nbStrips number of strips
+   * @return index of the strip, clamped to the existing strips
+   */
+  private static int strip(double y, double minY, double width, int nbStrips) {
+    int s = (int) ((y - minY) / width);
+    return Math.max(0, Math.min(s, nbStrips - 1));
+  }
+
+  /**
+   * Stable merge sort of a range of the sorted array by start of interval
+   * @param from first entry of the range
+   * @param to entry after the last entry of the range
+   */
+  private void mergeSort(int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    int mid = (from + to) >>> 1;
+    mergeSort(from, mid);
+    mergeSort(mid, to);
+    if (low[sorted[mid - 1]] <= low[sorted[mid]]) {
+      return; // Already in order
+    }
+    System.arraycopy(sorted, from, scratch, from, to - from);
+    int a = from;
+    int b = mid;
+    for (int k = from; k < to; k++) {
+      if (b >= to || (a < mid && low[scratch[a]] <= low[scratch[b]])) {
+        sorted[k] = scratch[a++];
+      } else {
+        sorted[k] = scratch[b++];
+      }
+    }
+  }
+
+  /**
+   * Appends a pair to the contact arrays, growing them if needed
+   * @param i smaller index of the pair
+   * @param j larger index of the pair
+   * @param t time of contact as a fraction of the step
+   */
+  private void addContact(int i, int j, double t) {
+    if (nbContacts == first.length) {
+      first = Arrays.copyOf(first, 2 * nbContacts);
+      second = Arrays.copyOf(second, 2 * nbContacts);
+      time = Arrays.copyOf(time, 2 * nbContacts);
+    }
+    first[nbContacts] = i;
+    second[nbContacts] = j;
+    time[nbContacts] = t;
+    nbContacts++;
+  }
+
+  /**
+   * Grows the per body arrays if needed
+   * @param n number of bodies
+   */
+  private void ensureCapacity(int n) {
+    if (low.length < n) {
+      int cap = Math.max(n, 2 * low.length);
+      low = new double[cap];
+      high = new double[cap];
+      lowY = new double[cap];
+      highY = new double[cap];
+      lowZ = new double[cap];
+      highZ = new double[cap];
+    }
+  }
+
+  /**
+   * Getter for the reuse of the order between calls
+   * @return true if the last call sorted the order of the previous one again
+   */
+  public boolean wasOrderReused() {
+    return reused;
+  }
+
+  /**
+   * Getter for the number of contact pairs found by the last call
+   * @return number of pairs
+   */
+  public int getNbContacts() {
+    return nbContacts;
+  }
+
+  /**
+   * Getter for the smaller index of each contact pair
+   * @return array of indices (only the first getNbContacts() entries are valid)
+   */
+  public int[] getFirst() {
+    return first;
+  }
+
+  /**
+   * Getter for the larger index of each contact pair
+   * @return array of indices (only the first getNbContacts() entries are valid)
+   */
+  public int[] getSecond() {
+    return second;
+  }
+
+  /**
+   * Getter for the time of contact of each pair, as a fraction of the step (0
+   * when the bodies already touched at the start, always 0 for findContacts())
+   * @return array of times (only the first getNbContacts() entries are valid)
+   */
+  public double[] getTimes() {
+    return time;
+  }
+}
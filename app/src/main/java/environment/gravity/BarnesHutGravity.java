@@ -0,0 +1,208 @@
+package environment.gravity;
+
+import environment.BodyState;
+
+/**
+ * Barnes-Hut gravity. The bodies are sorted in an octree and the pull of a node
+ * that is far enough from a body is approximated by the pull of its total mass
+ * placed at its center of mass, which brings the cost of a step down to
+ * O(n log n).
+ *
+ * A node of side s is used as a whole when s / theta + delta is smaller than its
+ * distance to the body, delta being the offset between its center of mass and
+ * its geometric center. theta = 0 gives the exact direct sum, larger values up
+ * to 1 are faster but less accurate (0.5 is a common compromise).
+ *
+ * The octree is built on the calling thread. Above the parallel threshold, the
+ * walks of the bodies are then split in ranges, each range using its own stack.
+ */
+public class BarnesHutGravity extends ParallelGravitySolver {
+  private double theta; // Opening angle
+  private Octree tree;
+  private int[] stack = newStack(); // Nodes left to visit on the sequential path
+
+  /**
+   * Constructor for the Barnes-Hut solver with a leaf size of 8
+   * @param theta opening angle
+   */
+  public BarnesHutGravity(double theta) {
+    this(theta, 8);
+  }
+
+  /**
+   * Constructor for the Barnes-Hut solver
+   * @param theta opening angle
+   * @param leafSize maximum number of bodies in a leaf of the octree
+   */
+  public BarnesHutGravity(double theta, int leafSize) {
+    setTheta(theta);
+    tree = new Octree(leafSize);
+  }
+
+  /**
+   * Builds the octree and computes the acceleration of every body by walking it
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity) {
+    tree.build(state);
+    int n = state.size();
+    if (isParallel(n)) {
+      forEachRange(n, (from, to) -> {
+        int[] rangeStack = newStack();
+        for (int i = from; i < to; i++) {
+          accelerate(i, state, gravity, rangeStack);
+        }
+      });
+    } else {
+      for (int i = 0; i < n; i++) {
+        accelerate(i, state, gravity, stack);
+      }
+    }
+  }
+
+  /**
+   * Builds the octree and computes the acceleration of some of the bodies by
+   * walking it
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity, int[] active, int count) {
+    tree.build(state);
+    if (isParallel(count)) {
+      forEachRange(count, (from, to) -> {
+        int[] rangeStack = newStack();
+        for (int k = from; k < to; k++) {
+          accelerate(active[k], state, gravity, rangeStack);
+        }
+      });
+    } else {
+      for (int k = 0; k < count; k++) {
+        accelerate(active[k], state, gravity, stack);
+      }
+    }
+  }
+
+  /**
+   * Creates a stack large enough for a walk of the octree
+   * @return empty stack
+   */
+  private static int[] newStack() {
+    return new int[8 * Octree.MAX_DEPTH + 8];
+  }
+
+  /**
+   * Computes the acceleration of one body by walking the octree
+   * @param i index of the body
+   * @param state state store the octree was built from
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param stack stack used for the walk
+   */
+  private void accelerate(int i, BodyState state, double gravity, int[] stack) {
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] m = state.getMass();
+    int[] order = tree.getOrder();
+    int[] start = tree.getStart();
+    int[] end = tree.getEnd();
+    int[] firstChild = tree.getFirstChild();
+    int[] nbChildren = tree.getNbChildren();
+    double[] midX = tree.getMidX();
+    double[] midY = tree.getMidY();
+    double[] midZ = tree.getMidZ();
+    double[] half = tree.getHalf();
+    double[] nodeMass = tree.getMass();
+    double[] comX = tree.getComX();
+    double[] comY = tree.getComY();
+    double[] comZ = tree.getComZ();
+
+    double xi = x[i];
+    double yi = y[i];
+    double zi = z[i];
+    double axi = 0;
+    double ayi = 0;
+    double azi = 0;
+
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      int first = firstChild[node];
+      if (first < 0) {
+        // Leaf: sum its bodies directly
+        for (int k = start[node]; k < end[node]; k++) {
+          int j = order[k];
+          if (j == i) { // Avoid self-interaction
+            continue;
+          }
+          double dx = x[j] - xi;
+          double dy = y[j] - yi;
+          double dz = z[j] - zi;
+          double dist2 = dx * dx + dy * dy + dz * dz;
+          double s = gravity * m[j] / (dist2 * Math.sqrt(dist2));
+          axi += dx * s;
+          ayi += dy * s;
+          azi += dz * s;
+        }
+        continue;
+      }
+
+      double dx = comX[node] - xi;
+      double dy = comY[node] - yi;
+      double dz = comZ[node] - zi;
+      double dist2 = dx * dx + dy * dy + dz * dz;
+      double ox = comX[node] - midX[node];
+      double oy = comY[node] - midY[node];
+      double oz = comZ[node] - midZ[node];
+      double open = 2 * half[node] / theta + Math.sqrt(ox * ox + oy * oy + oz * oz);
+      if (theta > 0 && dist2 > open * open) {
+        // Far enough: use the node's center of mass
+        double s = gravity * nodeMass[node] / (dist2 * Math.sqrt(dist2));
+        axi += dx * s;
+        ayi += dy * s;
+        azi += dz * s;
+      } else {
+        for (int c = first; c < first + nbChildren[node]; c++) {
+          stack[top++] = c;
+        }
+      }
+    }
+    state.getAx()[i] = axi;
+    state.getAy()[i] = ayi;
+    state.getAz()[i] = azi;
+  }
+
+  /**
+   * Getter for the opening angle
+   * @return theta
+   */
+  public double getTheta() {
+    return theta;
+  }
+
+  /**
+   * Setter for the opening angle. It cannot exceed 1, otherwise a body could
+   * accept a node containing it and be pulled by its own mass
+   * @param theta new opening angle between 0 (exact) and 1
+   */
+  public void setTheta(double theta) {
+    if (theta < 0 || theta > 1) {
+      throw new IllegalArgumentException("The opening angle must be between 0 and 1");
+    }
+    this.theta = theta;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Barnes-Hut (theta = " + theta + ")";
+  }
+}
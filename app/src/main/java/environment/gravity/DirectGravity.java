@@ -0,0 +1,97 @@
+package environment.gravity;
+
+import environment.BodyState;
+
+/**
+ * Exact O(n^2) gravity obtained by summing the contribution of every other body.
+ * Above the parallel threshold, the bodies are split in ranges computed by
+ * different threads, each one writing only the accelerations of its own range.
+ */
+public class DirectGravity extends ParallelGravitySolver {
+
+  /**
+   * Computes the gravitational acceleration on every body from all the others
+   * by direct summation
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity) {
+    int n = state.size();
+    if (isParallel(n)) {
+      forEachRange(n, (from, to) -> accelerate(state, gravity, null, from, to));
+    } else {
+      accelerate(state, gravity, null, 0, n);
+    }
+  }
+
+  /**
+   * Computes the acceleration of some of the bodies from all the others
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity, int[] active, int count) {
+    if (isParallel(count)) {
+      forEachRange(count, (from, to) -> accelerate(state, gravity, active, from, to));
+    } else {
+      accelerate(state, gravity, active, 0, count);
+    }
+  }
+
+  /**
+   * Computes the acceleration of a range of bodies from all the others
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies, or null to use the range as indices
+   * @param from first entry of the range
+   * @param to entry after the last entry of the range
+   */
+  static void accelerate(BodyState state, double gravity, int[] active, int from, int to) {
+    int n = state.size();
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] mass = state.getMass();
+    double[] ax = state.getAx();
+    double[] ay = state.getAy();
+    double[] az = state.getAz();
+
+    for (int k = from; k < to; k++) {
+      int i = active == null ? k : active[k];
+      double xi = x[i];
+      double yi = y[i];
+      double zi = z[i];
+      double axi = 0;
+      double ayi = 0;
+      double azi = 0;
+      for (int j = 0; j < n; j++) {
+        if (j == i) { // Avoid self-interaction
+          continue;
+        }
+        double dx = x[j] - xi;
+        double dy = y[j] - yi;
+        double dz = z[j] - zi;
+        double dist2 = dx * dx + dy * dy + dz * dz;
+        double s = gravity * mass[j] / (dist2 * Math.sqrt(dist2));
+        axi += dx * s;
+        ayi += dy * s;
+        azi += dz * s;
+      }
+      ax[i] = axi;
+      ay[i] = ayi;
+      az[i] = azi;
+    }
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Direct";
+  }
+}
@@ -0,0 +1,646 @@
+package environment.gravity;
+
+import java.util.Arrays;
+
+import environment.BodyState;
+
+/**
+ * Fast multipole gravity in cartesian coordinates, costing O(n) per step.
+ *
+ * The bodies are sorted in an octree, and pairs of nodes are walked at the same
+ * time (dual tree walk). When two nodes are far enough from each other, the pull
+ * of the source node (its mass, plus its quadrupole from order 2) is converted
+ * once into a Taylor expansion of the acceleration field around the center of
+ * mass of the sink node. Those expansions are then pushed down the tree and evaluated at
+ * each body, so the far field of a whole cell is shared by all of its bodies.
+ * Close pairs of leaves are summed directly.
+ *
+ * The expansion order sets how many terms of the Taylor expansion are kept:
+ * 0 keeps the acceleration at the center of the sink node, 1 adds its gradient
+ * (the tidal tensor) and 2 adds its second derivatives and the source
+ * quadrupoles. Two nodes are far enough when the sum of their sizes (radius of
+ * the sphere around their center of mass holding all their bodies) is smaller
+ * than theta times their distance.
+ *
+ * The local expansions converge slowly around a very massive source, such as
+ * the star of a planetary system. Bodies heavier than a fraction of the total
+ * mass are therefore kept out of the tree and their pull is summed directly,
+ * which only costs O(n) per heavy body.
+ *
+ * Above the parallel threshold, the tree is cut into subtrees that are walked by
+ * different threads: each subtree receives the pull of the whole tree and pushes
+ * its own expansions down, so the threads never write to the same node or body.
+ */
+public class FastMultipoleGravity extends ParallelGravitySolver {
+  /**
+   * Highest supported expansion order
+   */
+  public static final int MAX_ORDER = 2;
+
+  private double theta; // Opening angle
+  private int order; // Order of the expansions
+  private double heavyFraction = 1e-4; // Fraction of the total mass above which a body is summed directly
+  private Octree tree;
+  private boolean[] heavy = new boolean[0]; // Bodies kept out of the tree
+
+  // Per node data
+  private double[] size = new double[0]; // Radius of the sphere around the center of mass holding the bodies
+  private double[] quad = new double[0]; // Quadrupole about the center of mass (xx, xy, xz, yy, yz, zz)
+  private double[] la = new double[0]; // Acceleration at the center (x, y, z)
+  private double[] lt = new double[0]; // Gradient of the acceleration (xx, xy, xz, yy, yz, zz)
+  private double[] lu = new double[0]; // Second derivatives (xxx, xxy, xxz, xyy, xyz, xzz, yyy, yyz, yzz, zzz)
+  private double[] shifted = new double[9]; // Result of the last evaluation on the sequential path
+
+  private BodyState state; // State being evaluated
+  private double gravity; // Gravitational constant being used
+
+  /**
+   * Constructor for the fast multipole solver with a leaf size of 16
+   * @param theta opening angle
+   * @param order expansion order, between 0 and MAX_ORDER
+   */
+  public FastMultipoleGravity(double theta, int order) {
+    this(theta, order, 16);
+  }
+
+  /**
+   * Constructor for the fast multipole solver
+   * @param theta opening angle
+   * @param order expansion order, between 0 and MAX_ORDER
+   * @param leafSize maximum number of bodies in a leaf of the octree
+   */
+  public FastMultipoleGravity(double theta, int order, int leafSize) {
+    setTheta(theta);
+    setOrder(order);
+    tree = new Octree(leafSize);
+  }
+
+  /**
+   * Builds the octree, computes the expansions of every node and evaluates them
+   * at each body
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity) {
+    this.state = state;
+    this.gravity = gravity;
+    int n = state.size();
+    Arrays.fill(state.getAx(), 0, n, 0);
+    Arrays.fill(state.getAy(), 0, n, 0);
+    Arrays.fill(state.getAz(), 0, n, 0);
+    if (n == 0) {
+      return;
+    }
+
+    // Find the heavy bodies
+    if (heavy.length < n) {
+      heavy = new boolean[state.getX().length];
+    }
+    double[] m = state.getMass();
+    double totalMass = 0;
+    for (int i = 0; i < n; i++) {
+      totalMass += m[i];
+    }
+    boolean anyHeavy = false;
+    for (int i = 0; i < n; i++) {
+      heavy[i] = m[i] > heavyFraction * totalMass;
+      anyHeavy |= heavy[i];
+    }
+
+    tree.build(state, heavy);
+    int nbNodes = tree.getNbNodes();
+    if (nbNodes > 0) {
+      ensureNodeCapacity(nbNodes);
+      Arrays.fill(la, 0, 3 * nbNodes, 0);
+      Arrays.fill(lt, 0, 6 * nbNodes, 0);
+      Arrays.fill(lu, 0, 10 * nbNodes, 0);
+
+      upwardPass();
+      if (isParallel(n)) {
+        int[] subtrees = subtrees(4 * getPool().getParallelism());
+        forEachRange(subtrees.length, (from, to) -> {
+          double[] rangeShifted = new double[9];
+          for (int k = from; k < to; k++) {
+            interact(subtrees[k], 0);
+            downwardPass(subtrees[k], rangeShifted);
+          }
+        });
+      } else {
+        interact(0, 0);
+        downwardPass(0, shifted);
+      }
+    }
+    if (anyHeavy) {
+      heavyPull();
+    }
+    this.state = null;
+  }
+
+  /**
+   * Sums directly the pull of every heavy body on all the others, and the pull
+   * of the light bodies on the heavy ones
+   */
+  private void heavyPull() {
+    int n = state.size();
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] m = state.getMass();
+    double[] ax = state.getAx();
+    double[] ay = state.getAy();
+    double[] az = state.getAz();
+
+    for (int h = 0; h < n; h++) {
+      if (!heavy[h]) {
+        continue;
+      }
+      double xh = x[h];
+      double yh = y[h];
+      double zh = z[h];
+      double gmh = gravity * m[h];
+      double axh = 0;
+      double ayh = 0;
+      double azh = 0;
+      for (int i = 0; i < n; i++) {
+        if (i == h) { // Avoid self-interaction
+          continue;
+        }
+        double dx = xh - x[i];
+        double dy = yh - y[i];
+        double dz = zh - z[i];
+        double dist2 = dx * dx + dy * dy + dz * dz;
+        double inv3 = 1 / (dist2 * Math.sqrt(dist2));
+        ax[i] += gmh * inv3 * dx;
+        ay[i] += gmh * inv3 * dy;
+        az[i] += gmh * inv3 * dz;
+        if (!heavy[i]) {
+          // The pull between heavy bodies is already counted above
+          double gmi = gravity * m[i];
+          axh -= gmi * inv3 * dx;
+          ayh -= gmi * inv3 * dy;
+          azh -= gmi * inv3 * dz;
+        }
+      }
+      ax[h] += axh;
+      ay[h] += ayh;
+      az[h] += azh;
+    }
+  }
+
+  /**
+   * Cuts the tree into disjoint subtrees covering every body, by opening the
+   * nodes level by level until there are enough of them
+   * @param target number of subtrees wanted
+   * @return roots of the subtrees
+   */
+  private int[] subtrees(int target) {
+    int[] firstChild = tree.getFirstChild();
+    int[] nbChildren = tree.getNbChildren();
+    int[] nodes = {0};
+    boolean opened = true;
+    while (nodes.length < target && opened) {
+      int[] next = new int[8 * nodes.length];
+      int count = 0;
+      opened = false;
+      for (int node : nodes) {
+        int first = firstChild[node];
+        if (first < 0) {
+          next[count++] = node;
+          continue;
+        }
+        for (int c = first; c < first + nbChildren[node]; c++) {
+          next[count++] = c;
+        }
+        opened = true;
+      }
+      nodes = Arrays.copyOf(next, count);
+    }
+    return nodes;
+  }
+
+  /**
+   * Computes the size (and quadrupole from order 2) of every node, children
+   * being processed before their parent
+   */
+  private void upwardPass() {
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] m = state.getMass();
+    int[] order = tree.getOrder();
+    int[] start = tree.getStart();
+    int[] end = tree.getEnd();
+    int[] firstChild = tree.getFirstChild();
+    int[] nbChildren = tree.getNbChildren();
+    double[] midX = tree.getMidX();
+    double[] midY = tree.getMidY();
+    double[] midZ = tree.getMidZ();
+    double[] half = tree.getHalf();
+    double[] nodeMass = tree.getMass();
+    double[] comX = tree.getComX();
+    double[] comY = tree.getComY();
+    double[] comZ = tree.getComZ();
+
+    for (int node = tree.getNbNodes() - 1; node >= 0; node--) {
+      double qxx = 0, qxy = 0, qxz = 0, qyy = 0, qyz = 0, qzz = 0;
+      double r2max = 0;
+      int first = firstChild[node];
+      if (first < 0) {
+        for (int k = start[node]; k < end[node]; k++) {
+          int i = order[k];
+          double dx = x[i] - comX[node];
+          double dy = y[i] - comY[node];
+          double dz = z[i] - comZ[node];
+          double d2 = dx * dx + dy * dy + dz * dz;
+          r2max = Math.max(r2max, d2);
+          qxx += m[i] * (3 * dx * dx - d2);
+          qxy += m[i] * 3 * dx * dy;
+          qxz += m[i] * 3 * dx * dz;
+          qyy += m[i] * (3 * dy * dy - d2);
+          qyz += m[i] * 3 * dy * dz;
+          qzz += m[i] * (3 * dz * dz - d2);
+        }
+      } else {
+        // Shift the quadrupoles of the children to the center of mass of the node
+        for (int c = first; c < first + nbChildren[node]; c++) {
+          double dx = comX[c] - comX[node];
+          double dy = comY[c] - comY[node];
+          double dz = comZ[c] - comZ[node];
+          double d2 = dx * dx + dy * dy + dz * dz;
+          double r = Math.sqrt(d2) + size[c];
+          r2max = Math.max(r2max, r * r);
+          double mc = nodeMass[c];
+          qxx += quad[6 * c] + mc * (3 * dx * dx - d2);
+          qxy += quad[6 * c + 1] + mc * 3 * dx * dy;
+          qxz += quad[6 * c + 2] + mc * 3 * dx * dz;
+          qyy += quad[6 * c + 3] + mc * (3 * dy * dy - d2);
+          qyz += quad[6 * c + 4] + mc * 3 * dy * dz;
+          qzz += quad[6 * c + 5] + mc * (3 * dz * dz - d2);
+        }
+      }
+      // Both the spheres of the children and the cube bound the bodies of the
+      // node, keep the tighter of the two
+      double ox = comX[node] - midX[node];
+      double oy = comY[node] - midY[node];
+      double oz = comZ[node] - midZ[node];
+      size[node] = Math.min(Math.sqrt(r2max), Math.sqrt(3) * half[node] + Math.sqrt(ox * ox + oy * oy + oz * oz));
+
+      if (this.order < 2) {
+        continue;
+      }
+      quad[6 * node] = qxx;
+      quad[6 * node + 1] = qxy;
+      quad[6 * node + 2] = qxz;
+      quad[6 * node + 3] = qyy;
+      quad[6 * node + 4] = qyz;
+      quad[6 * node + 5] = qzz;
+    }
+  }
+
+  /**
+   * Dual tree walk: accounts for the pull of the source node on the sink node.
+   * The sink may also lie inside the source, in which case the source is opened
+   * until the sink meets itself
+   * @param sink node receiving the pull
+   * @param source node pulling
+   */
+  private void interact(int sink, int source) {
+    int[] firstChild = tree.getFirstChild();
+    int[] nbChildren = tree.getNbChildren();
+    int sinkFirst = firstChild[sink];
+    int sourceFirst = firstChild[source];
+
+    if (sink == source) {
+      if (sinkFirst < 0) {
+        direct(sink, source);
+        return;
+      }
+      for (int a = sinkFirst; a < sinkFirst + nbChildren[sink]; a++) {
+        for (int b = sinkFirst; b < sinkFirst + nbChildren[sink]; b++) {
+          interact(a, b);
+        }
+      }
+      return;
+    }
+
+    double dx = tree.getComX()[sink] - tree.getComX()[source];
+    double dy = tree.getComY()[sink] - tree.getComY()[source];
+    double dz = tree.getComZ()[sink] - tree.getComZ()[source];
+    double dist2 = dx * dx + dy * dy + dz * dz;
+    double reach = (size[sink] + size[source]) / theta;
+    if (theta > 0 && dist2 > reach * reach) {
+      farField(sink, source, dx, dy, dz);
+      return;
+    }
+
+    // Too close: open the larger node, or sum directly if both are leaves
+    boolean splitSink = sourceFirst < 0 || (sinkFirst >= 0 && size[sink] >= size[source]);
+    if (sinkFirst < 0 && sourceFirst < 0) {
+      direct(sink, source);
+    } else if (splitSink) {
+      for (int a = sinkFirst; a < sinkFirst + nbChildren[sink]; a++) {
+        interact(a, source);
+      }
+    } else {
+      for (int b = sourceFirst; b < sourceFirst + nbChildren[source]; b++) {
+        interact(sink, b);
+      }
+    }
+  }
+
+  /**
+   * Sums directly the pull of the bodies of a leaf on the bodies of another leaf
+   * (or of the same leaf)
+   * @param sink leaf receiving the pull
+   * @param source leaf pulling
+   */
+  private void direct(int sink, int source) {
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] m = state.getMass();
+    double[] ax = state.getAx();
+    double[] ay = state.getAy();
+    double[] az = state.getAz();
+    int[] order = tree.getOrder();
+    int sourceStart = tree.getStart()[source];
+    int sourceEnd = tree.getEnd()[source];
+
+    for (int k = tree.getStart()[sink]; k < tree.getEnd()[sink]; k++) {
+      int i = order[k];
+      double xi = x[i];
+      double yi = y[i];
+      double zi = z[i];
+      double axi = 0;
+      double ayi = 0;
+      double azi = 0;
+      for (int l = sourceStart; l < sourceEnd; l++) {
+        int j = order[l];
+        if (j == i) { // Avoid self-interaction
+          continue;
+        }
+        double dx = x[j] - xi;
+        double dy = y[j] - yi;
+        double dz = z[j] - zi;
+        double dist2 = dx * dx + dy * dy + dz * dz;
+        double s = gravity * m[j] / (dist2 * Math.sqrt(dist2));
+        axi += dx * s;
+        ayi += dy * s;
+        azi += dz * s;
+      }
+      ax[i] += axi;
+      ay[i] += ayi;
+      az[i] += azi;
+    }
+  }
+
+  /**
+   * Adds the pull of a far source node to the expansion of the sink node
+   * @param sink node receiving the pull
+   * @param source node pulling
+   * @param rx x component of the vector between the centers of mass of the source and the sink
+   * @param ry y component of that vector
+   * @param rz z component of that vector
+   */
+  private void farField(int sink, int source, double rx, double ry, double rz) {
+    double gm = gravity * tree.getMass()[source];
+    double r2 = rx * rx + ry * ry + rz * rz;
+    double inv2 = 1 / r2;
+    double inv1 = Math.sqrt(inv2);
+    double inv3 = inv1 * inv2;
+    double inv5 = inv3 * inv2;
+
+    // Acceleration of the monopole
+    double f3 = gm * inv3;
+    double ax = -f3 * rx;
+    double ay = -f3 * ry;
+    double az = -f3 * rz;
+
+    if (order >= 2) {
+      // Acceleration of the quadrupole: Q.R / r^5 - 5/2 (R.Q.R) R / r^7
+      int q = 6 * source;
+      double g = gravity;
+      double qrx = quad[q] * rx + quad[q + 1] * ry + quad[q + 2] * rz;
+      double qry = quad[q + 1] * rx + quad[q + 3] * ry + quad[q + 4] * rz;
+      double qrz = quad[q + 2] * rx + quad[q + 4] * ry + quad[q + 5] * rz;
+      double rqr = rx * qrx + ry * qry + rz * qrz;
+      double c = 2.5 * rqr * inv5 * inv2;
+      ax += g * (qrx * inv5 - c * rx);
+      ay += g * (qry * inv5 - c * ry);
+      az += g * (qrz * inv5 - c * rz);
+    }
+    la[3 * sink] += ax;
+    la[3 * sink + 1] += ay;
+    la[3 * sink + 2] += az;
+    if (order < 1) {
+      return;
+    }
+
+    // Gradient of the acceleration: M (3 R R / r^5 - I / r^3)
+    double f5 = 3 * gm * inv5;
+    int t = 6 * sink;
+    lt[t] += f5 * rx * rx - f3;
+    lt[t + 1] += f5 * rx * ry;
+    lt[t + 2] += f5 * rx * rz;
+    lt[t + 3] += f5 * ry * ry - f3;
+    lt[t + 4] += f5 * ry * rz;
+    lt[t + 5] += f5 * rz * rz - f3;
+    if (order < 2) {
+      return;
+    }
+
+    // Second derivatives: M (3 (d_ij R_k + d_ik R_j + d_jk R_i) / r^5 - 15 R_i R_j R_k / r^7)
+    double f7 = 15 * gm * inv5 * inv2;
+    int u = 10 * sink;
+    lu[u] += 3 * f5 * rx - f7 * rx * rx * rx;
+    lu[u + 1] += f5 * ry - f7 * rx * rx * ry;
+    lu[u + 2] += f5 * rz - f7 * rx * rx * rz;
+    lu[u + 3] += f5 * rx - f7 * rx * ry * ry;
+    lu[u + 4] += -f7 * rx * ry * rz;
+    lu[u + 5] += f5 * rx - f7 * rx * rz * rz;
+    lu[u + 6] += 3 * f5 * ry - f7 * ry * ry * ry;
+    lu[u + 7] += f5 * rz - f7 * ry * ry * rz;
+    lu[u + 8] += f5 * ry - f7 * ry * rz * rz;
+    lu[u + 9] += 3 * f5 * rz - f7 * rz * rz * rz;
+  }
+
+  /**
+   * Shifts the expansion of a node to its children, or evaluates it at its
+   * bodies if it is a leaf
+   * @param node node whose expansion is pushed down
+   * @param shifted scratch array receiving the evaluations of the expansions
+   */
+  private void downwardPass(int node, double[] shifted) {
+    int first = tree.getFirstChild()[node];
+    double cx = tree.getComX()[node];
+    double cy = tree.getComY()[node];
+    double cz = tree.getComZ()[node];
+
+    if (first < 0) {
+      double[] x = state.getX();
+      double[] y = state.getY();
+      double[] z = state.getZ();
+      int[] order = tree.getOrder();
+      for (int k = tree.getStart()[node]; k < tree.getEnd()[node]; k++) {
+        int i = order[k];
+        evaluate(node, x[i] - cx, y[i] - cy, z[i] - cz, shifted);
+        state.getAx()[i] += shifted[0];
+        state.getAy()[i] += shifted[1];
+        state.getAz()[i] += shifted[2];
+      }
+      return;
+    }
+
+    int t = 6 * node;
+    int u = 10 * node;
+    for (int c = first; c < first + tree.getNbChildren()[node]; c++) {
+      // a' = a(d), T' = T + U.d, U' = U
+      evaluate(node, tree.getComX()[c] - cx, tree.getComY()[c] - cy, tree.getComZ()[c] - cz, shifted);
+      la[3 * c] += shifted[0];
+      la[3 * c + 1] += shifted[1];
+      la[3 * c + 2] += shifted[2];
+      if (order >= 1) {
+        for (int k = 0; k < 6; k++) {
+          lt[6 * c + k] += lt[t + k] + shifted[3 + k];
+        }
+      }
+      if (order >= 2) {
+        for (int k = 0; k < 10; k++) {
+          lu[10 * c + k] += lu[u + k];
+        }
+      }
+      downwardPass(c, shifted);
+    }
+  }
+
+  /**
+   * Evaluates the Taylor expansion of a node at an offset from its center. The
+   * acceleration is stored in shifted[0..2] and the second derivatives contracted
+   * once with the offset (U.d) in shifted[3..8]
+   * @param node node whose expansion is evaluated
+   * @param dx x offset from the center of the node
+   * @param dy y offset from the center of the node
+   * @param dz z offset from the center of the node
+   * @param shifted array receiving the result
+   */
+  private void evaluate(int node, double dx, double dy, double dz, double[] shifted) {
+    int a = 3 * node;
+    int t = 6 * node;
+    int u = 10 * node;
+    double ax = la[a];
+    double ay = la[a + 1];
+    double az = la[a + 2];
+
+    double uxx = 0, uxy = 0, uxz = 0, uyy = 0, uyz = 0, uzz = 0;
+    if (order >= 2) {
+      uxx = lu[u] * dx + lu[u + 1] * dy + lu[u + 2] * dz;
+      uxy = lu[u + 1] * dx + lu[u + 3] * dy + lu[u + 4] * dz;
+      uxz = lu[u + 2] * dx + lu[u + 4] * dy + lu[u + 5] * dz;
+      uyy = lu[u + 3] * dx + lu[u + 6] * dy + lu[u + 7] * dz;
+      uyz = lu[u + 4] * dx + lu[u + 7] * dy + lu[u + 8] * dz;
+      uzz = lu[u + 5] * dx + lu[u + 8] * dy + lu[u + 9] * dz;
+    }
+    if (order >= 1) {
+      // a + (T + U.d / 2).d
+      double txx = lt[t] + 0.5 * uxx;
+      double txy = lt[t + 1] + 0.5 * uxy;
+      double txz = lt[t + 2] + 0.5 * uxz;
+      double tyy = lt[t + 3] + 0.5 * uyy;
+      double tyz = lt[t + 4] + 0.5 * uyz;
+      double tzz = lt[t + 5] + 0.5 * uzz;
+      ax += txx * dx + txy * dy + txz * dz;
+      ay += txy * dx + tyy * dy + tyz * dz;
+      az += txz * dx + tyz * dy + tzz * dz;
+    }
+    shifted[0] = ax;
+    shifted[1] = ay;
+    shifted[2] = az;
+    shifted[3] = uxx;
+    shifted[4] = uxy;
+    shifted[5] = uxz;
+    shifted[6] = uyy;
+    shifted[7] = uyz;
+    shifted[8] = uzz;
+  }
+
+  /**
+   * Grows the per node arrays if needed
+   */
+  private void ensureNodeCapacity(int n) {
+    if (size.length >= n) {
+      return;
+    }
+    int cap = Math.max(n, 2 * size.length);
+    size = new double[cap];
+    quad = new double[6 * cap];
+    la = new double[3 * cap];
+    lt = new double[6 * cap];
+    lu = new double[10 * cap];
+  }
+
+  /**
+   * Getter for the opening angle
+   * @return theta
+   */
+  public double getTheta() {
+    return theta;
+  }
+
+  /**
+   * Setter for the opening angle. It cannot exceed 1, otherwise a node could
+   * accept the far field of a node containing it
+   * @param theta new opening angle between 0 (exact) and 1
+   */
+  public void setTheta(double theta) {
+    if (theta < 0 || theta > 1) {
+      throw new IllegalArgumentException("The opening angle must be between 0 and 1");
+    }
+    this.theta = theta;
+  }
+
+  /**
+   * Getter for the expansion order
+   * @return order of the expansions
+   */
+  public int getOrder() {
+    return order;
+  }
+
+  /**
+   * Setter for the expansion order
+   * @param order new order, between 0 and MAX_ORDER
+   */
+  public void setOrder(int order) {
+    if (order < 0 || order > MAX_ORDER) {
+      throw new IllegalArgumentException("The expansion order must be between 0 and " + MAX_ORDER);
+    }
+    this.order = order;
+  }
+
+  /**
+   * Getter for the fraction of the total mass above which a body is summed directly
+   * @return heavy body mass fraction
+   */
+  public double getHeavyFraction() {
+    return heavyFraction;
+  }
+
+  /**
+   * Setter for the fraction of the total mass above which a body is summed
+   * directly (1 puts every body in the tree)
+   * @param heavyFraction new heavy body mass fraction
+   */
+  public void setHeavyFraction(double heavyFraction) {
+    this.heavyFraction = heavyFraction;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "FMM (theta = " + theta + ", order = " + order + ")";
+  }
+}
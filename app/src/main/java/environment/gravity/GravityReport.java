@@ -0,0 +1,232 @@
+package environment.gravity;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import environment.Body;
+import environment.BodyState;
+import environment.CrashedPlanet;
+import environment.SolarSystem;
+import environment.Systems;
+import lib.Vector3D;
+
+/**
+ * Compares the accuracy and the speed of the gravity solvers against direct
+ * summation on the default systems, alone and with an added asteroid belt, or on
+ * a large disk of bodies.
+ *
+ * Run with: java environment.gravity.GravityReport [belt sizes...]
+ * or: java environment.gravity.GravityReport disk [number of bodies]
+ */
+public class GravityReport {
+  /**
+   * Above this number of bodies, direct summation is not timed and the errors are
+   * measured on a sample of the bodies
+   */
+  public static final int MAX_DIRECT = 30000;
+  private static final int SAMPLE_SIZE = 1000;
+
+  /**
+   * Prints the report
+   * @param args number of asteroids added to the systems (default 2000 and 20000),
+   *             or "disk" followed by the number of bodies in the disk
+   */
+  public static void main(String[] args) {
+    GravitySolver[] solvers = {
+        new PairwiseGravity(),
+        VectorGravityLoader.load(), // Pairwise again without the Vector API
+        new BarnesHutGravity(0.3),
+        new BarnesHutGravity(0.5),
+        new BarnesHutGravity(0.7),
+        new BarnesHutGravity(1.0),
+        new FastMultipoleGravity(0.5, 0),
+        new FastMultipoleGravity(0.5, 1),
+        new FastMultipoleGravity(0.5, 2),
+        new FastMultipoleGravity(0.3, 2),
+    };
+    System.out.printf("%-14s %8s %-32s %12s %12s %12s%n",
+        "System", "Bodies", "Solver", "ms/eval", "mean error", "max error");
+
+    if (args.length > 0 && args[0].equals("disk")) {
+      int nb = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+      SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+      solarSystem.getBodies().subList(1, solarSystem.getBodies().size()).clear();
+      addDisk(solarSystem.getBodies(), nb, new Random(396));
+      // Only the fastest settings are worth timing on large disks
+      report("Disk", solarSystem, new GravitySolver[] {
+          new BarnesHutGravity(1.0),
+          new FastMultipoleGravity(0.5, 1),
+          new FastMultipoleGravity(0.5, 2),
+      });
+      return;
+    }
+
+    int[] beltSizes = { 0, 2000, 20000 };
+    if (args.length > 0) {
+      beltSizes = new int[args.length + 1];
+      for (int i = 0; i < args.length; i++) {
+        beltSizes[i + 1] = Integer.parseInt(args[i]);
+      }
+    }
+    for (Systems system : Systems.values()) {
+      for (int belt : beltSizes) {
+        SolarSystem solarSystem = new SolarSystem(system);
+        addBelt(solarSystem.getBodies(), belt, new Random(396));
+        report(system.getName(), solarSystem, solvers);
+      }
+    }
+  }
+
+  /**
+   * Prints the accuracy and speed of every solver on one system
+   * @param name name of the system
+   * @param solarSystem system to evaluate
+   * @param solvers solvers to compare against direct summation
+   */
+  public static void report(String name, SolarSystem solarSystem, GravitySolver[] solvers) {
+    double gravity = solarSystem.getGravity();
+    BodyState state = new BodyState(solarSystem.getBodies().size());
+    state.pull(solarSystem.getBodies());
+    int n = state.size();
+
+    // Bodies on which the errors are measured, and their exact accelerations
+    int[] sample = new int[Math.min(n, SAMPLE_SIZE)];
+    if (n <= MAX_DIRECT) {
+      sample = new int[n];
+    }
+    Random rand = new Random(1);
+    for (int k = 0; k < sample.length; k++) {
+      sample[k] = sample.length == n ? k : rand.nextInt(n);
+    }
+    double[] ref = new double[3 * sample.length];
+    if (n <= MAX_DIRECT) {
+      GravitySolver direct = new DirectGravity();
+      double directTime = time(direct, state, gravity);
+      for (int k = 0; k < n; k++) {
+        ref[3 * k] = state.getAx()[k];
+        ref[3 * k + 1] = state.getAy()[k];
+        ref[3 * k + 2] = state.getAz()[k];
+      }
+      System.out.printf("%-14s %8d %-32s %12.3f %12s %12s%n", name, n, direct.getName(), directTime, "-", "-");
+    } else {
+      for (int k = 0; k < sample.length; k++) {
+        directSum(state, sample[k], gravity, ref, 3 * k);
+      }
+    }
+
+    for (GravitySolver solver : solvers) {
+      if (n > MAX_DIRECT && solver instanceof PairwiseGravity) { // Too slow on large systems
+        continue;
+      }
+      double t = time(solver, state, gravity);
+      double meanErr = 0;
+      double maxErr = 0;
+      for (int k = 0; k < sample.length; k++) {
+        int i = sample[k];
+        double rx = ref[3 * k], ry = ref[3 * k + 1], rz = ref[3 * k + 2];
+        double ex = state.getAx()[i] - rx;
+        double ey = state.getAy()[i] - ry;
+        double ez = state.getAz()[i] - rz;
+        double err = Math.sqrt((ex * ex + ey * ey + ez * ez) / (rx * rx + ry * ry + rz * rz));
+        meanErr += err / sample.length;
+        maxErr = Math.max(maxErr, err);
+      }
+      System.out.printf("%-14s %8d %-32s %12.3f %12.2e %12.2e%n", name, n, solver.getName(), t, meanErr, maxErr);
+    }
+  }
+
+  /**
+   * Computes the exact acceleration of a single body
+   * @param state state holding the bodies
+   * @param i index of the body
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param out array receiving the acceleration
+   * @param offset index of the x component in out
+   */
+  private static void directSum(BodyState state, int i, double gravity, double[] out, int offset) {
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] m = state.getMass();
+    for (int j = 0; j < state.size(); j++) {
+      if (j == i) {
+        continue;
+      }
+      double dx = x[j] - x[i];
+      double dy = y[j] - y[i];
+      double dz = z[j] - z[i];
+      double dist2 = dx * dx + dy * dy + dz * dz;
+      double s = gravity * m[j] / (dist2 * Math.sqrt(dist2));
+      out[offset] += dx * s;
+      out[offset + 1] += dy * s;
+      out[offset + 2] += dz * s;
+    }
+  }
+
+  /**
+   * Times the evaluation of the accelerations, after a few warm up runs
+   * @return average time of an evaluation in milliseconds
+   */
+  private static double time(GravitySolver solver, BodyState state, double gravity) {
+    for (int i = 0; i < (state.size() <= MAX_DIRECT ? 3 : 1); i++) {
+      solver.computeAccelerations(state, gravity);
+    }
+    int reps = 0;
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      solver.computeAccelerations(state, gravity);
+      reps++;
+      elapsed = System.nanoTime() - start;
+    } while (elapsed < 200_000_000L && reps < 1000 && state.size() <= MAX_DIRECT);
+    return elapsed / 1e6 / reps;
+  }
+
+  /**
+   * Adds small bodies on circular orbits around the first body, between 1.2 and
+   * 1.8 times the orbital radius of the second body
+   * @param bodies list of bodies to add the belt to
+   * @param nb number of asteroids
+   * @param rand random generator used to place the asteroids
+   */
+  public static void addBelt(ArrayList<Body> bodies, int nb, Random rand) {
+    if (nb == 0 || bodies.size() < 2) {
+      return;
+    }
+    Body star = bodies.get(0);
+    double ref = Vector3D.sub(bodies.get(1).getPos(), star.getPos()).len();
+    double gravity = 6.67430e-11;
+    for (int i = 0; i < nb; i++) {
+      double r = ref * (1.2 + 0.6 * rand.nextDouble());
+      double angle = 2 * Math.PI * rand.nextDouble();
+      double v = Math.sqrt(gravity * star.getMass() / r);
+      Vector3D pos = new Vector3D(r * Math.cos(angle), r * Math.sin(angle), r * 0.02 * rand.nextGaussian())
+          .add(star.getPos());
+      Vector3D vel = new Vector3D(-v * Math.sin(angle), v * Math.cos(angle), 0).add(star.getVel());
+      bodies.add(new CrashedPlanet(1e4, 1e15 * (1 + rand.nextDouble()), pos, vel, "Asteroid " + i));
+    }
+  }
+
+  /**
+   * Adds small bodies on circular orbits around the first body, spread as a thin
+   * exponential disk with a scale length of 10 AU
+   * @param bodies list of bodies to add the disk to
+   * @param nb number of bodies in the disk
+   * @param rand random generator used to place the bodies
+   */
+  public static void addDisk(ArrayList<Body> bodies, int nb, Random rand) {
+    Body star = bodies.get(0);
+    double scale = 1.496e12;
+    double gravity = 6.67430e-11;
+    for (int i = 0; i < nb; i++) {
+      // Exponential surface density, kept away from the star
+      double r = 0.05 * scale - scale * Math.log(1 - rand.nextDouble());
+      double angle = 2 * Math.PI * rand.nextDouble();
+      double v = Math.sqrt(gravity * star.getMass() / r);
+      Vector3D pos = new Vector3D(r * Math.cos(angle), r * Math.sin(angle), 0.01 * r * rand.nextGaussian())
+          .add(star.getPos());
+      Vector3D vel = new Vector3D(-v * Math.sin(angle), v * Math.cos(angle), 0).add(star.getVel());
+      bodies.add(new CrashedPlanet(1e4, 1e20 * (1 + rand.nextDouble()), pos, vel, "Disk " + i));
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package environment.gravity;
+
+import environment.BodyState;
+
+/**
+ * Backend computing the gravitational acceleration of every body in a state store
+ */
+public interface GravitySolver {
+
+  /**
+   * Computes the gravitational acceleration on every body of the state and
+   * stores it in the acceleration arrays of the state
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  public abstract void computeAccelerations(BodyState state, double gravity);
+
+  /**
+   * Computes the gravitational acceleration on some of the bodies of the state,
+   * pulled by all of them. The default implementation computes every body
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  public default void computeAccelerations(BodyState state, double gravity, int[] active, int count) {
+    computeAccelerations(state, gravity);
+  }
+
+  /**
+   * Computes the gravitational acceleration and jerk (time derivative of the
+   * acceleration) on every body of the state and stores them in the state.
+   * Only exact pairwise solvers support it, the default implementation throws
+   * an UnsupportedOperationException
+   * @param state state store holding the positions, velocities and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  public default void computeAccelerationsAndJerks(BodyState state, double gravity) {
+    throw new UnsupportedOperationException(getName() + " does not compute jerks");
+  }
+
+  /**
+   * Tells if computeAccelerationsAndJerks is supported. False by default
+   * @return true if the solver computes jerks
+   */
+  public default boolean computesJerks() {
+    return false;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name used when reporting on the solver
+   */
+  public abstract String getName();
+}
@@ -0,0 +1,363 @@
+package environment.gravity;
+
+import java.util.Arrays;
+
+import environment.BodyState;
+
+/**
+ * Octree over the bodies of a state store, stored in flat arrays so that it can
+ * be rebuilt every step without creating any object once its arrays are large
+ * enough.
+ *
+ * Each node covers a cube and a contiguous range [start, end) of the order
+ * array, which holds body indices sorted so that the bodies of any node are
+ * next to each other. The children of a node are stored contiguously, starting
+ * at firstChild. Empty octants are not stored. The root is node 0.
+ */
+public class Octree {
+  /**
+   * Maximum depth of the tree. Bodies that are still together at that depth (for
+   * instance coincident bodies) share a leaf
+   */
+  public static final int MAX_DEPTH = 40;
+
+  private int leafSize; // Maximum number of bodies in a leaf (except at MAX_DEPTH)
+  private int nbNodes = 0;
+
+  private int[] order = new int[0]; // Body indices sorted by node
+  private int[] scratch = new int[0]; // Temporary buffer used while partitioning
+  private byte[] octant = new byte[0]; // Octant of each body during partitioning
+  private int[][] counts = new int[MAX_DEPTH + 1][9]; // Octant counts for each depth
+
+  // Per node data
+  private int[] start = new int[0];
+  private int[] end = new int[0];
+  private int[] firstChild = new int[0]; // -1 for leaves
+  private int[] nbChildren = new int[0];
+  private double[] midX = new double[0]; // Geometric center of the cube
+  private double[] midY = new double[0];
+  private double[] midZ = new double[0];
+  private double[] half = new double[0]; // Half of the side length of the cube
+  private double[] mass = new double[0]; // Total mass
+  private double[] comX = new double[0]; // Center of mass
+  private double[] comY = new double[0];
+  private double[] comZ = new double[0];
+
+  /**
+   * Constructor for the octree
+   * @param leafSize maximum number of bodies in a leaf
+   */
+  public Octree(int leafSize) {
+    this.leafSize = Math.max(leafSize, 1);
+  }
+
+  /**
+   * Rebuilds the tree from the positions and masses of a state store
+   * @param state state store to build the tree from
+   */
+  public void build(BodyState state) {
+    build(state, null);
+  }
+
+  /**
+   * Rebuilds the tree from the positions and masses of a state store, leaving
+   * some bodies out of it
+   * @param state state store to build the tree from
+   * @param excluded true for the bodies to leave out, or null to keep them all
+   */
+  public void build(BodyState state, boolean[] excluded) {
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+
+    ensureBodyCapacity(state.size());
+    int n = 0;
+    for (int i = 0; i < state.size(); i++) {
+      if (excluded == null || !excluded[i]) {
+        order[n++] = i;
+      }
+    }
+    nbNodes = 0;
+    if (n == 0) {
+      return;
+    }
+
+    // Bounding cube of every body
+    double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+    for (int k = 0; k < n; k++) {
+      int i = order[k];
+      minX = Math.min(minX, x[i]);
+      minY = Math.min(minY, y[i]);
+      minZ = Math.min(minZ, z[i]);
+      maxX = Math.max(maxX, x[i]);
+      maxY = Math.max(maxY, y[i]);
+      maxZ = Math.max(maxZ, z[i]);
+    }
+    double h = 0.5 * Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ));
+    // Slightly enlarge the cube so that no body lies exactly on its boundary
+    h = h * (1 + 1e-9) + Double.MIN_NORMAL;
+
+    int root = newNode(0.5 * (minX + maxX), 0.5 * (minY + maxY), 0.5 * (minZ + maxZ), h, 0, n);
+    buildNode(root, 0, state);
+  }
+
+  /**
+   * Splits a node into its octants (if it holds too many bodies) and computes its
+   * mass and center of mass
+   * @param node index of the node
+   * @param depth depth of the node in the tree
+   * @param state state store the tree is built from
+   */
+  private void buildNode(int node, int depth, BodyState state) {
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] m = state.getMass();
+    int s = start[node];
+    int e = end[node];
+
+    if (e - s <= leafSize || depth == MAX_DEPTH) {
+      // Leaf: sum the bodies directly
+      double mt = 0, cx = 0, cy = 0, cz = 0;
+      for (int k = s; k < e; k++) {
+        int i = order[k];
+        mt += m[i];
+        cx += m[i] * x[i];
+        cy += m[i] * y[i];
+        cz += m[i] * z[i];
+      }
+      setMass(node, mt, cx, cy, cz);
+      return;
+    }
+
+    // Count the bodies in each octant
+    double mx = midX[node], my = midY[node], mz = midZ[node];
+    int[] count = counts[depth];
+    for (int o = 0; o < 9; o++) {
+      count[o] = 0;
+    }
+    for (int k = s; k < e; k++) {
+      int i = order[k];
+      int o = (x[i] >= mx ? 1 : 0) | (y[i] >= my ? 2 : 0) | (z[i] >= mz ? 4 : 0);
+      octant[k] = (byte) o;
+      count[o + 1]++;
+    }
+    // Prefix sums give the offset of each octant, then partition the range
+    for (int o = 0; o < 8; o++) {
+      count[o + 1] += count[o];
+    }
+    for (int k = s; k < e; k++) {
+      scratch[s + count[octant[k]]++] = order[k];
+    }
+    System.arraycopy(scratch, s, order, s, e - s);
+
+    // Create the non-empty children next to each other. After the partition,
+    // count[o] is the end offset of octant o
+    double hc = 0.5 * half[node];
+    int first = nbNodes;
+    int nbChild = 0;
+    int childStart = s;
+    for (int o = 0; o < 8; o++) {
+      int childEnd = s + count[o];
+      if (childEnd > childStart) {
+        newNode(mx + ((o & 1) != 0 ? hc : -hc), my + ((o & 2) != 0 ? hc : -hc), mz + ((o & 4) != 0 ? hc : -hc),
+            hc, childStart, childEnd);
+        nbChild++;
+      }
+      childStart = childEnd;
+    }
+    firstChild[node] = first;
+    nbChildren[node] = nbChild;
+
+    // Build the children and combine their masses
+    double mt = 0, cx = 0, cy = 0, cz = 0;
+    for (int c = first; c < first + nbChild; c++) {
+      buildNode(c, depth + 1, state);
+      mt += mass[c];
+      cx += mass[c] * comX[c];
+      cy += mass[c] * comY[c];
+      cz += mass[c] * comZ[c];
+    }
+    setMass(node, mt, cx, cy, cz);
+  }
+
+  /**
+   * Sets the mass and center of mass of a node from mass weighted sums
+   */
+  private void setMass(int node, double mt, double cx, double cy, double cz) {
+    mass[node] = mt;
+    if (mt > 0) {
+      comX[node] = cx / mt;
+      comY[node] = cy / mt;
+      comZ[node] = cz / mt;
+    } else {
+      comX[node] = midX[node];
+      comY[node] = midY[node];
+      comZ[node] = midZ[node];
+    }
+  }
+
+  /**
+   * Appends a leaf node to the tree
+   * @return index of the new node
+   */
+  private int newNode(double mx, double my, double mz, double h, int s, int e) {
+    ensureNodeCapacity(nbNodes + 1);
+    int node = nbNodes++;
+    midX[node] = mx;
+    midY[node] = my;
+    midZ[node] = mz;
+    half[node] = h;
+    start[node] = s;
+    end[node] = e;
+    firstChild[node] = -1;
+    nbChildren[node] = 0;
+    return node;
+  }
+
+  /**
+   * Grows the per body arrays if needed
+   */
+  private void ensureBodyCapacity(int n) {
+    if (order.length < n) {
+      order = new int[n];
+      scratch = new int[n];
+      octant = new byte[n];
+    }
+  }
+
+  /**
+   * Grows the per node arrays if needed
+   */
+  private void ensureNodeCapacity(int n) {
+    if (n <= start.length) {
+      return;
+    }
+    int cap = Math.max(n, 2 * start.length + 16);
+    start = Arrays.copyOf(start, cap);
+    end = Arrays.copyOf(end, cap);
+    firstChild = Arrays.copyOf(firstChild, cap);
+    nbChildren = Arrays.copyOf(nbChildren, cap);
+    midX = Arrays.copyOf(midX, cap);
+    midY = Arrays.copyOf(midY, cap);
+    midZ = Arrays.copyOf(midZ, cap);
+    half = Arrays.copyOf(half, cap);
+    mass = Arrays.copyOf(mass, cap);
+    comX = Arrays.copyOf(comX, cap);
+    comY = Arrays.copyOf(comY, cap);
+    comZ = Arrays.copyOf(comZ, cap);
+  }
+
+  /**
+   * Getter for the number of nodes in the tree
+   * @return number of nodes (0 if the tree is empty)
+   */
+  public int getNbNodes() {
+    return nbNodes;
+  }
+
+  /**
+   * Getter for the body indices sorted by node
+   * @return array of body indices
+   */
+  public int[] getOrder() {
+    return order;
+  }
+
+  /**
+   * Getter for the first index in the order array of each node
+   * @return array of start offsets
+   */
+  public int[] getStart() {
+    return start;
+  }
+
+  /**
+   * Getter for the end index (exclusive) in the order array of each node
+   * @return array of end offsets
+   */
+  public int[] getEnd() {
+    return end;
+  }
+
+  /**
+   * Getter for the first child of each node
+   * @return array of child indices, -1 for leaves
+   */
+  public int[] getFirstChild() {
+    return firstChild;
+  }
+
+  /**
+   * Getter for the number of children of each node
+   * @return array of child counts
+   */
+  public int[] getNbChildren() {
+    return nbChildren;
+  }
+
+  /**
+   * Getter for the x coordinate of the center of each node's cube
+   * @return array of x coordinates in m
+   */
+  public double[] getMidX() {
+    return midX;
+  }
+
+  /**
+   * Getter for the y coordinate of the center of each node's cube
+   * @return array of y coordinates in m
+   */
+  public double[] getMidY() {
+    return midY;
+  }
+
+  /**
+   * Getter for the z coordinate of the center of each node's cube
+   * @return array of z coordinates in m
+   */
+  public double[] getMidZ() {
+    return midZ;
+  }
+
+  /**
+   * Getter for the half side length of each node's cube
+   * @return array of half sizes in m
+   */
+  public double[] getHalf() {
+    return half;
+  }
+
+  /**
+   * Getter for the mass of each node
+   * @return array of masses in kg
+   */
+  public double[] getMass() {
+    return mass;
+  }
+
+  /**
+   * Getter for the x coordinate of each node's center of mass
+   * @return array of x coordinates in m
+   */
+  public double[] getComX() {
+    return comX;
+  }
+
+  /**
+   * Getter for the y coordinate of each node's center of mass
+   * @return array of y coordinates in m
+   */
+  public double[] getComY() {
+    return comY;
+  }
+
+  /**
+   * Getter for the z coordinate of each node's center of mass
+   * @return array of z coordinates in m
+   */
+  public double[] getComZ() {
+    return comZ;
+  }
+}
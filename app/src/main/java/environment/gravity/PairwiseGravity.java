@@ -0,0 +1,240 @@
+package environment.gravity;
+
+import java.util.Arrays;
+
+import environment.BodyState;
+
+/**
+ * Exact gravity visiting each unordered pair of bodies once. The distance and
+ * the square root of a pair are shared by both bodies, which receive equal and
+ * opposite pulls (Newton's third law), so the cost is half the one of
+ * DirectGravity.
+ *
+ * A pair writes to both of its bodies, so the parallel path cannot simply split
+ * the bodies between threads. Instead the rows of the pair triangle are split in
+ * blocks holding about the same number of pairs, each block accumulating into
+ * its own partial buffers, and the buffers are summed at the end.
+ *
+ * The same pair loop can also compute the jerks (time derivatives of the
+ * accelerations) needed by the Hermite integrator.
+ */
+public class PairwiseGravity extends ParallelGravitySolver {
+  // Per block partial accelerations (then jerks), one array per component,
+  // reused from one evaluation to the next
+  private double[][][] partial = new double[0][6][0];
+
+  /**
+   * Computes the gravitational acceleration on every body from all the others,
+   * visiting each pair once
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity) {
+    compute(state, gravity, false);
+  }
+
+  /**
+   * Computes the gravitational acceleration and jerk on every body from all the
+   * others, visiting each pair once
+   * @param state state store holding the positions, velocities and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public void computeAccelerationsAndJerks(BodyState state, double gravity) {
+    compute(state, gravity, true);
+  }
+
+  /**
+   * The pairwise solver computes jerks
+   * @return true
+   */
+  @Override
+  public boolean computesJerks() {
+    return true;
+  }
+
+  /**
+   * Runs the pair loop on the calling thread or on the pool
+   * @param state state store holding the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param jerk true to compute the jerks as well
+   */
+  private void compute(BodyState state, double gravity, boolean jerk) {
+    int n = state.size();
+    double[][] out = { state.getAx(), state.getAy(), state.getAz(),
+        state.getJx(), state.getJy(), state.getJz() };
+    int nbOut = jerk ? 6 : 3;
+    if (!isParallel(n)) {
+      for (int c = 0; c < nbOut; c++) {
+        Arrays.fill(out[c], 0, n, 0);
+      }
+      accumulate(state, gravity, 0, n, out, jerk);
+      return;
+    }
+
+    int nbBlocks = getPool().getParallelism();
+    int[] rows = balancedRows(n, nbBlocks);
+    ensureBuffers(nbBlocks, n);
+    forEachRange(nbBlocks, (from, to) -> {
+      for (int b = from; b < to; b++) {
+        for (int c = 0; c < nbOut; c++) {
+          Arrays.fill(partial[b][c], 0, n, 0);
+        }
+        accumulate(state, gravity, rows[b], rows[b + 1], partial[b], jerk);
+      }
+    });
+
+    // Reduction, each range of bodies summing its own part of every buffer
+    forEachRange(n, (from, to) -> {
+      for (int c = 0; c < nbOut; c++) {
+        for (int i = from; i < to; i++) {
+          double sum = 0;
+          for (int b = 0; b < nbBlocks; b++) {
+            sum += partial[b][c][i];
+          }
+          out[c][i] = sum;
+        }
+      }
+    });
+  }
+
+  /**
+   * Computes the acceleration of some of the bodies from all the others. The
+   * pairs cannot be shared when only one of their bodies is updated, so this
+   * uses the same loop as DirectGravity
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity, int[] active, int count) {
+    if (isParallel(count)) {
+      forEachRange(count, (from, to) -> DirectGravity.accelerate(state, gravity, active, from, to));
+    } else {
+      DirectGravity.accelerate(state, gravity, active, 0, count);
+    }
+  }
+
+  /**
+   * Adds the pulls of the pairs (i, j) with from <= i < to and j > i to the
+   * accelerations (and jerks) of both of their bodies
+   * @param state state store holding the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param from first row of pairs
+   * @param to row after the last row of pairs
+   * @param out arrays to add the x, y, z accelerations then the x, y, z jerks to
+   * @param jerk true to compute the jerks as well
+   */
+  private void accumulate(BodyState state, double gravity, int from, int to, double[][] out, boolean jerk) {
+    int n = state.size();
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] vx = state.getVx();
+    double[] vy = state.getVy();
+    double[] vz = state.getVz();
+    double[] mass = state.getMass();
+    double[] outX = out[0];
+    double[] outY = out[1];
+    double[] outZ = out[2];
+
+    for (int i = from; i < to; i++) {
+      double xi = x[i];
+      double yi = y[i];
+      double zi = z[i];
+      double mi = mass[i];
+      double axi = 0;
+      double ayi = 0;
+      double azi = 0;
+      double jxi = 0;
+      double jyi = 0;
+      double jzi = 0;
+      for (int j = i + 1; j < n; j++) {
+        double dx = x[j] - xi;
+        double dy = y[j] - yi;
+        double dz = z[j] - zi;
+        double dist2 = dx * dx + dy * dy + dz * dz;
+        double s = gravity / (dist2 * Math.sqrt(dist2));
+        double si = s * mass[j]; // Pull of j on i
+        double sj = s * mi; // Pull of i on j
+        axi += dx * si;
+        ayi += dy * si;
+        azi += dz * si;
+        outX[j] -= dx * sj;
+        outY[j] -= dy * sj;
+        outZ[j] -= dz * sj;
+        if (jerk) {
+          // Derivative of the pull: (dv - 3 (dx . dv) dx / r^2) / r^3
+          double dvx = vx[j] - vx[i];
+          double dvy = vy[j] - vy[i];
+          double dvz = vz[j] - vz[i];
+          double rv = 3 * (dx * dvx + dy * dvy + dz * dvz) / dist2;
+          double kx = dvx - rv * dx;
+          double ky = dvy - rv * dy;
+          double kz = dvz - rv * dz;
+          jxi += kx * si;
+          jyi += ky * si;
+          jzi += kz * si;
+          out[3][j] -= kx * sj;
+          out[4][j] -= ky * sj;
+          out[5][j] -= kz * sj;
+        }
+      }
+      outX[i] += axi;
+      outY[i] += ayi;
+      outZ[i] += azi;
+      if (jerk) {
+        out[3][i] += jxi;
+        out[4][i] += jyi;
+        out[5][i] += jzi;
+      }
+    }
+  }
+
+  /**
+   * Splits the rows of the pair triangle in blocks holding about the same number
+   * of pairs. Row i holds n - 1 - i pairs, so the first blocks have fewer rows
+   * @param n number of bodies
+   * @param nbBlocks number of blocks
+   * @return first row of each block, followed by n
+   */
+  static int[] balancedRows(int n, int nbBlocks) {
+    int[] rows = new int[nbBlocks + 1];
+    double pairs = 0.5 * n * (n - 1.0);
+    int row = 0;
+    double done = 0;
+    for (int b = 1; b < nbBlocks; b++) {
+      double target = pairs * b / nbBlocks;
+      while (row < n && done < target) {
+        done += n - 1 - row;
+        row++;
+      }
+      rows[b] = row;
+    }
+    rows[nbBlocks] = n;
+    return rows;
+  }
+
+  /**
+   * Grows the partial buffers if needed
+   * @param nbBlocks number of blocks
+   * @param n number of bodies
+   */
+  private void ensureBuffers(int nbBlocks, int n) {
+    if (partial.length != nbBlocks || partial[0][0].length < n) {
+      int cap = Math.max(n, partial.length > 0 ? 2 * partial[0][0].length : 0);
+      partial = new double[nbBlocks][6][cap];
+    }
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Pairwise";
+  }
+}
@@ -0,0 +1,123 @@
+package environment.gravity;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Base class for the gravity solvers that can spread their work over the
+ * threads of a ForkJoinPool.
+ *
+ * The work is split in ranges of bodies (or of tree nodes), and each task only
+ * writes the results of its own range, so no accumulator is shared between
+ * threads. Systems with fewer bodies than the parallel threshold stay on the
+ * calling thread, where the cost of waking up the pool would outweigh the gain.
+ */
+public abstract class ParallelGravitySolver implements GravitySolver {
+  /**
+   * Default number of bodies from which the evaluation is parallelized
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 2048;
+
+  private ForkJoinPool pool = ForkJoinPool.commonPool(); // Pool running the tasks, null to stay sequential
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+  /**
+   * Work done on a range of indices
+   */
+  public interface RangeAction {
+    /**
+     * Processes the indices of a range
+     * @param from first index of the range
+     * @param to index after the last index of the range
+     */
+    public abstract void run(int from, int to);
+  }
+
+  /**
+   * Checks whether the evaluation of a given number of bodies should be parallelized
+   * @param n number of bodies
+   * @return true if the work should be spread over the pool
+   */
+  protected boolean isParallel(int n) {
+    return pool != null && pool.getParallelism() > 1 && n >= parallelThreshold;
+  }
+
+  /**
+   * Runs an action over the range [0, n) split in chunks processed by the pool,
+   * and waits for all of them to finish
+   * @param n size of the range
+   * @param action work done on each chunk
+   */
+  protected void forEachRange(int n, RangeAction action) {
+    // A few chunks per thread balance the load without too much overhead
+    int grain = Math.max(1, n / (4 * pool.getParallelism()));
+    pool.invoke(new RangeTask(action, 0, n, grain));
+  }
+
+  /**
+   * Task splitting a range in halves until it is small enough
+   */
+  private static class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final RangeAction action;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    /**
+     * Constructor for a range task
+     * @param action work done on each chunk
+     * @param from first index of the range
+     * @param to index after the last index of the range
+     * @param grain size under which the range is not split anymore
+     */
+    RangeTask(RangeAction action, int from, int to, int grain) {
+      this.action = action;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        action.run(from, to);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new RangeTask(action, from, mid, grain), new RangeTask(action, mid, to, grain));
+    }
+  }
+
+  /**
+   * Getter for the pool running the parallel evaluations
+   * @return the pool, or null if the solver is sequential
+   */
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Setter for the pool running the parallel evaluations (common pool by default)
+   * @param pool new pool, or null to always stay on the calling thread
+   */
+  public void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Getter for the number of bodies from which the evaluation is parallelized
+   * @return parallel threshold
+   */
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /**
+   * Setter for the number of bodies from which the evaluation is parallelized
+   * @param parallelThreshold new threshold (Integer.MAX_VALUE to stay sequential)
+   */
+  public void setParallelThreshold(int parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+  }
+}
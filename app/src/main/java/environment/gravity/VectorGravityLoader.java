@@ -0,0 +1,131 @@
+package environment.gravity;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import environment.Body;
+import environment.BodyState;
+import environment.CrashedPlanet;
+import lib.Vector3D;
+
+/**
+ * Loads the SIMD gravity kernel when the Vector API is available.
+ *
+ * VectorGravity lives in the optional vector source set and is only referenced
+ * by name, so that this class (and the rest of the simulation) compiles and
+ * runs when that source set was not built or when the jdk.incubator.vector
+ * module has not been added to the JVM. The kernel is also checked against the
+ * scalar direct sum on a small cloud of bodies before being used. If it cannot
+ * be loaded or does not match, the scalar PairwiseGravity is used instead, and
+ * the result tells why.
+ */
+public class VectorGravityLoader {
+  /**
+   * Outcome of loading the kernel
+   */
+  public static class Result {
+    private final GravitySolver solver; // Solver to use
+    private final String fallbackReason; // Why the kernel is not used, null if it is
+
+    /**
+     * Constructor
+     * @param solver solver to use
+     * @param fallbackReason why the kernel is not used, null if it is
+     */
+    private Result(GravitySolver solver, String fallbackReason) {
+      this.solver = solver;
+      this.fallbackReason = fallbackReason;
+    }
+
+    /**
+     * Getter for the solver
+     * @return the SIMD kernel, or the scalar fallback
+     */
+    public GravitySolver getSolver() {
+      return solver;
+    }
+
+    /**
+     * Tells if the SIMD kernel is used
+     * @return true if the solver is the SIMD kernel
+     */
+    public boolean isVectorized() {
+      return fallbackReason == null;
+    }
+
+    /**
+     * Getter for the reason of the fallback
+     * @return why the scalar solver is used, null if the kernel is used
+     */
+    public String getFallbackReason() {
+      return fallbackReason;
+    }
+  }
+
+  private static final String KERNEL = "environment.gravity.VectorGravity"; // Class using the Vector API
+  private static final int CHECK_BODIES = 101; // Bodies of the check, not a multiple of any vector length
+  private static final double TOLERANCE = 1e-9; // Largest relative difference accepted by the check
+
+  /**
+   * Creates the fastest exact gravity solver available on this JVM
+   * @return the SIMD kernel if it loads and passes the check, a PairwiseGravity otherwise
+   */
+  public static GravitySolver load() {
+    return tryLoad().getSolver();
+  }
+
+  /**
+   * Creates the fastest exact gravity solver available on this JVM, telling
+   * why the SIMD kernel is not used if it is not
+   * @return result holding the solver
+   */
+  public static Result tryLoad() {
+    GravitySolver kernel;
+    try {
+      kernel = (GravitySolver) Class.forName(KERNEL).getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException e) {
+      return new Result(new PairwiseGravity(), "the vector source set was not compiled");
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return new Result(new PairwiseGravity(),
+          "the jdk.incubator.vector module is missing (" + e + ")");
+    }
+    if (!matchesScalar(kernel)) {
+      return new Result(new PairwiseGravity(), kernel.getName() + " does not match the scalar sum");
+    }
+    return new Result(kernel, null);
+  }
+
+  /**
+   * Compares the accelerations computed by a solver with the scalar direct sum on
+   * a random cloud of bodies
+   * @param solver solver to check
+   * @return true if every acceleration matches up to rounding
+   */
+  public static boolean matchesScalar(GravitySolver solver) {
+    Random rand = new Random(396);
+    ArrayList<Body> bodies = new ArrayList<>();
+    for (int i = 0; i < CHECK_BODIES; i++) {
+      Vector3D pos = new Vector3D(rand.nextGaussian(), rand.nextGaussian(), rand.nextGaussian()).scale(1.5e11);
+      bodies.add(new CrashedPlanet(1e6, 1e24 * (1 + rand.nextDouble()), pos, new Vector3D(0, 0, 0), "Check " + i));
+    }
+    double gravity = 6.67430e-11;
+    BodyState state = new BodyState(CHECK_BODIES);
+    state.pull(bodies);
+
+    new DirectGravity().computeAccelerations(state, gravity);
+    double[] refX = state.getAx().clone();
+    double[] refY = state.getAy().clone();
+    double[] refZ = state.getAz().clone();
+    solver.computeAccelerations(state, gravity);
+    for (int i = 0; i < CHECK_BODIES; i++) {
+      double ex = state.getAx()[i] - refX[i];
+      double ey = state.getAy()[i] - refY[i];
+      double ez = state.getAz()[i] - refZ[i];
+      double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+      if (!(Math.sqrt(ex * ex + ey * ey + ez * ez) <= TOLERANCE * ref)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
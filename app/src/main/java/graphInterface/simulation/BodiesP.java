@@ -11,6 +11,8 @@ import javax.swing.JPanel;
 
 import environment.Body;
 import environment.Camera3D;
+import environment.SolarSystem;
+import environment.SystemSnapshot;
 
 /**
  * BodiesP
@@ -21,15 +23,15 @@ public class BodiesP extends JPanel {
   private int nbPanels = 0;
   private JLabel emptyL;
   private ArrayList<BodyP> bodyPanels = new ArrayList<>();
-  private ArrayList<Body> bodies;
+  private SolarSystem solarSystem;
 
   /**
    * Constructor for the bodies panel
    *
-   * @param bodies List of bodies in the solar system
+   * @param solarSystem Solar system whose bodies are listed
    */
-  public BodiesP(ArrayList<Body> bodies) {
-    this.bodies = bodies;
+  public BodiesP(SolarSystem solarSystem) {
+    this.solarSystem = solarSystem;
     setBackground(Color.decode("#1f1f38"));
 
     // No rows for now, and a single column
@@ -74,26 +76,28 @@ public class BodiesP extends JPanel {
   }
 
   /**
-   * Populates the panel with a list of bodies
+   * Populates the panel with the bodies of a snapshot of the system
    *
-   * @param bodies The list of bodies used to populate the panel
-   * @param camera Camera used to look at the bodies
+   * @param snapshot Copy of the bodies used to populate the panel
+   * @param camera   Camera used to look at the bodies
    */
-  public void populatePanel(ArrayList<Body> bodies, Camera3D camera) {
-    for (Body b : bodies) {
-      addBodyP(new BodyP(b, camera, () -> {bodies.remove(b);}));
+  public void populatePanel(SystemSnapshot snapshot, Camera3D camera) {
+    for (int i = 0; i < snapshot.getBodies().size(); i++) {
+      // The panel shows the copy, deleting removes the body it was made from
+      Body original = snapshot.getOriginals().get(i);
+      addBodyP(new BodyP(snapshot.getBodies().get(i), camera, () -> solarSystem.postRemoveBody(original)));
     }
   }
 
   /**
    * Updates the panel with new bodies
    *
-   * @param bodies The new bodies
-   * @param camera The camera that sees the bodies
+   * @param snapshot Copy of the new bodies
+   * @param camera   The camera that sees the bodies
    */
-  public void updatePanel(ArrayList<Body> bodies, Camera3D camera) {
+  public void updatePanel(SystemSnapshot snapshot, Camera3D camera) {
     removeAll();
-    populatePanel(bodies, camera);
+    populatePanel(snapshot, camera);
     revalidate();
     repaint();
   }
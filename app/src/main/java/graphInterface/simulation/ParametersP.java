@@ -8,7 +8,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.util.ArrayList;
 import java.util.function.Consumer;
 
 import javax.swing.AbstractAction;
@@ -33,7 +32,6 @@ import lib.keyBinds;
  */
 public class ParametersP extends JPanel implements Runnable {
   private SimulationP simP;
-  private ArrayList<Body> bodies;
   private JButton addBodyB;
   private JComboBox<String> bodyTypeBox;
   private Thread paraThread;
@@ -49,7 +47,6 @@ public class ParametersP extends JPanel implements Runnable {
    */
   public ParametersP(SimulationP simP) {
     this.simP = simP;
-    this.bodies = this.simP.getSolarSystem().getBodies();
     setBackground(Color.decode("#1f1f38"));
     setBorder(new LineBorder(Color.BLACK, 2));
 
@@ -82,7 +79,7 @@ public class ParametersP extends JPanel implements Runnable {
     setupAddBodyFunctionality();
 
     // Scrollpane where parameters for each body will be
-    bodiesP = new BodiesP(this.bodies);
+    bodiesP = new BodiesP(simP.getSolarSystem());
     UIManager.put("ScrollBar.width", 10);
     UIManager.put("ScrollBar.height", 10);
     JScrollPane bodiesSPane = new JScrollPane(bodiesP);
@@ -96,7 +93,7 @@ public class ParametersP extends JPanel implements Runnable {
     layout.putConstraint(SpringLayout.EAST, bodiesSPane, -2, SpringLayout.EAST, this);
 
     // Add body panel for each body
-    bodiesP.populatePanel(bodies, simP.getCamera());
+    bodiesP.populatePanel(simP.getSolarSystem().getSnapshot(), simP.getCamera());
     // Starts the thread
     start();
     // Sets up keybindings
@@ -155,7 +152,7 @@ public class ParametersP extends JPanel implements Runnable {
    * Redraws the panel of bodies
    */
   public void listenBodies() {
-    bodiesP.updatePanel(bodies, simP.getCamera());
+    bodiesP.updatePanel(simP.getSolarSystem().getSnapshot(), simP.getCamera());
   }
 
   /**
@@ -175,7 +172,7 @@ public class ParametersP extends JPanel implements Runnable {
         addBodyB.setEnabled(false);
         int width = 500;
         int height = 475;
-        Consumer<Body> addBody = b -> simP.getSolarSystem().getBodies().add(b);
+        Consumer<Body> addBody = b -> simP.getSolarSystem().postAddBody(b);
         switch (body) {
           case "Rocky Planet":
             newBodyD = new AddBodyManager(null, new Dimension(width, height), AddBodyManager.ROCKY, addBody,
@@ -4,8 +4,11 @@ import java.awt.AWTException;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.awt.Point;
 import java.awt.RenderingHints;
 import java.awt.Robot;
@@ -41,8 +44,12 @@ import javax.swing.SpringLayout;
 import javax.swing.SwingUtilities;
 
 import environment.Camera3D;
+import environment.SimulationService;
 import environment.SolarSystem;
+import environment.SystemSnapshot;
 import environment.Systems;
+import environment.Timeline;
+import environment.WarpController;
 import graphInterface.settings.CarouselRow;
 import graphInterface.settings.LabelRow;
 import graphInterface.settings.SettingsManager;
@@ -50,24 +57,30 @@ import graphInterface.settings.SliderRow;
 import lib.Vector3D;
 import lib.keyBinds;
 
-public class SimulationP extends JPanel implements Runnable {
+public class SimulationP extends JPanel {
   // Set of keys currently being held down
   private final Set<Integer> heldKeys = new HashSet<>();
   // Define actions for the held down keys
   // private final Map<Integer, Runnable> heldKeyActions =
   // Collections.synchronizedMap(new HashMap<>());
   private final Map<Integer, Runnable> heldKeyActions = new ConcurrentHashMap<>();
-  private boolean running = false;
-  // Time between physics iterations
-  private int sleepTime = 20;
-  // Time increment between simulation steps
-  private double dt = 1;
-  // Number of physics iteration before a repaint
-  private int nbItBeforeRepaint = 1;
+  // Chooses the steps of each iteration to run at the requested speed
+  private WarpController warp = new WarpController(50);
+  // Steps the solar system on its own thread
+  private SimulationService service;
+  // Bodies as drawn, between the last two steps. Written by the simulation thread
+  private volatile SystemSnapshot frame;
 
   private static final long serialVersionUID = 4223433857831514467L;
 
   private SolarSystem solarSystem;
+  // Keyframes of the run, to scrub back and forth
+  private Timeline timeline;
+  // Time to bring the simulation to, NaN if none. Read by the simulation thread
+  private volatile double seekTarget = Double.NaN;
+  // Recorded time span, updated by the simulation thread
+  private volatile double timelineStart = 0;
+  private volatile double timelineEnd = 0;
 
   private double basePixelPerMeter = 1115 / 4.5e11;
   private double pixelPerMeter = basePixelPerMeter;
@@ -76,7 +89,6 @@ public class SimulationP extends JPanel implements Runnable {
    */
   private Camera3D camera;
 
-  private Thread simThread;
 
   /**
    * Cursor position and translation information
@@ -100,8 +112,18 @@ public class SimulationP extends JPanel implements Runnable {
    */
   public SimulationP() {
     solarSystem = new SolarSystem(Systems.SolarSystem);
+    startTimeline();
     // solarSystem = new SolarSystem(Systems.SolarSystem);
     camera = new Camera3D(new Vector3D(0, 0, -1.5e10), solarSystem, 90, 1);
+    service = new SimulationService(solarSystem, warp);
+    service.setInput(this::applyInput);
+    service.addTickListener((s, steps, nanos) -> {
+      // The start moves forward once the timeline forgets its older history
+      timelineStart = timeline.getStartTime();
+      timelineEnd = timeline.getEndTime();
+    });
+    // The labels and the camera only read the snapshots, never the bodies being stepped
+    service.scheduleFrames(this::drawFrame, 1_000_000_000L / refreshRate());
     // camera.rotateCamera(new Point(500, 0), false);
 
     // Create labels and buttons that will be hosted by the SimulationP panel
@@ -223,89 +245,136 @@ public class SimulationP extends JPanel implements Runnable {
   }
 
   /**
-   * Steps the simulation
+   * Applies what the interface asked for since the last iteration: held keys,
+   * changes of the bodies and seeks
+   *
+   * @return true if the bodies were changed or moved to another time
    */
-  public void step(double dt) {
+  public boolean applyInput() {
     handleKeys();
-    solarSystem.step(dt);
+    boolean changed = false;
+    // Changes of the bodies posted by the interface, the timeline restarts its replays from them
+    if (solarSystem.applyCommands() > 0) {
+      changed = true;
+    }
+    double target = seekTarget;
+    if (!Double.isNaN(target)) {
+      seekTarget = Double.NaN;
+      timeline.seekTime(target);
+      changed = true;
+    }
+    return changed;
+  }
+
+  /**
+   * Draws the bodies where they are between the last two iterations, at the
+   * rate of the display
+   */
+  private void drawFrame() {
+    frame = service.interpolate(System.nanoTime());
+    SwingUtilities.invokeLater(this::updatePosLabel);
+    SwingUtilities.invokeLater(this::updateOriLabel);
+    SwingUtilities.invokeLater(this::updateTimeLabel);
+    SwingUtilities.invokeLater(this::repaint);
+  }
+
+  /**
+   * Starts the view again after the system was reset or replaced, on the
+   * simulation thread
+   */
+  private void restartView() {
+    seekTarget = Double.NaN;
+    startTimeline();
+    camera.reset();
+  }
+
+  /**
+   * Starts recording a new timeline from the current state of the system
+   */
+  private void startTimeline() {
+    if (timeline != null) {
+      timeline.detach();
+    }
+    timeline = new Timeline(solarSystem);
+    timelineStart = timeline.getStartTime();
+    timelineEnd = timeline.getEndTime();
+  }
+
+  /**
+   * Brings the simulation back (or forward) to a recorded time, before the next step
+   *
+   * @param time time to reach in seconds, between getTimelineStart() and getTimelineEnd()
+   */
+  public void seek(double time) {
+    seekTarget = time;
+  }
+
+  /**
+   * Switches to another preset before the next step, and starts the simulation
+   * if it is stopped
+   *
+   * @param system New preset
+   */
+  public void changeSystem(Systems system) {
+    solarSystem.postSetSystem(system);
+    solarSystem.post(this::restartView);
+    start();
+  }
+
+  /**
+   * Getter for the time at the start of the recorded run
+   *
+   * @return time in seconds
+   */
+  public double getTimelineStart() {
+    return timelineStart;
+  }
+
+  /**
+   * Getter for the time at the end of the recorded run
+   *
+   * @return time in seconds
+   */
+  public double getTimelineEnd() {
+    return timelineEnd;
   }
 
   /**
    * Starts the simulation
    */
   public void start() {
-    if (!running) {
-      running = true;
-      simThread = new Thread(this);
-      simThread.start();
-    }
+    service.resume();
   }
 
   /**
-   * Handles the stopping of the simulation
+   * Handles the stopping of the simulation, changes of the bodies are still
+   * applied
    */
   public void stop() {
-    running = false;
+    service.pause();
   }
 
   /**
    * Resets the simulation
    */
   public void reset() {
-    // Stops simulation
-    stop();
-    try {
-      // Joins threads
-      if (simThread != null) {
-        simThread.join();
-      }
-      //// If no thread exists, there's nothing to reset
-      // else {
-      // return;
-      // }
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-    }
-    // Restarts solar system
-    solarSystem.reset();
-    camera.reset();
-    // Create new thread
+    solarSystem.post(solarSystem::reset);
+    solarSystem.post(this::restartView);
     start();
   }
 
-  public void resume() {
-    running = true;
-  }
-
   /**
-   * Handles the stepping forward of the simulation
+   * Gives the refresh rate of the screen, to draw no more frames than it shows
+   *
+   * @return frames per second, 60 if unknown
    */
-  @Override
-  public void run() {
-    int iteration = 0;
-    double start = System.nanoTime();
-    double end;
-    double timeSpent;
-    while (running) {
-      step(dt);
-      if (iteration == 0) {
-        SwingUtilities.invokeLater(this::updatePosLabel);
-        SwingUtilities.invokeLater(this::updateOriLabel);
-        SwingUtilities.invokeLater(this::updateTimeLabel);
-        SwingUtilities.invokeLater(this::repaint);
-      }
-      iteration = (iteration + 1) % nbItBeforeRepaint;
-
-      // Adds delay between iterations
-      try {
-        end = System.nanoTime();
-        // Remove time spent computing from sleepTime
-        timeSpent = (end - start) / 1000000.0;
-        Thread.sleep(sleepTime - (int) (timeSpent > sleepTime ? 0 : timeSpent));
-        start = System.nanoTime();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
+  private int refreshRate() {
+    try {
+      int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+          .getDisplayMode().getRefreshRate();
+      return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : rate;
+    } catch (HeadlessException e) {
+      return 60;
     }
   }
 
@@ -338,7 +407,10 @@ public class SimulationP extends JPanel implements Runnable {
   public void cameraPaint(Graphics2D g2d) {
     camera.setScreenWidth(this.getWidth());
     camera.setScreenHeight(this.getHeight());
-    camera.paintThis(g2d);
+    SystemSnapshot shown = frame;
+    long start = System.nanoTime();
+    camera.paintThis(g2d, shown == null ? solarSystem.getSnapshot() : shown);
+    warp.recordFrame(System.nanoTime() - start);
   }
 
   /**
@@ -559,11 +631,13 @@ public class SimulationP extends JPanel implements Runnable {
    * Show the current time of the simulation
    */
   public void updateTimeLabel() {
-    double time = solarSystem.getTime();
+    SystemSnapshot shown = frame;
+    double time = (shown == null ? solarSystem.getSnapshot() : shown).getTime();
     timeLabel.setText("<html>" +
         "<span style='color:#FFFFFF; font-size: 16; vertical-align: bottom;'>" +
         "Elapsed time<br>"
-        + formatTime(time) + "</span>" + "</html>");
+        + formatTime(time)
+        + "speed: x" + (long) warp.getAchievedWarp() + "<br>" + "</span>" + "</html>");
   }
 
   /**
@@ -602,21 +676,30 @@ public class SimulationP extends JPanel implements Runnable {
   }
 
   /**
-   * Obtain the incremenet of time between simulation steps
+   * Obtain the requested speed of the simulation
+   *
+   * @return simulated seconds per real second
+   */
+  public double getWarp() {
+    return warp.getWarp();
+  }
+
+  /**
+   * Sets the speed of the simulation, the time steps are chosen to reach it
    *
-   * @return dt
+   * @param speed New simulated seconds per real second, 0 to pause
    */
-  public double getDt() {
-    return dt;
+  public void setWarp(double speed) {
+    warp.setWarp(speed);
   }
 
   /**
-   * Sets the incremenet of time between simulation steps
+   * Getter for the controller of the speed
    *
-   * @param dt New time step value
+   * @return The warp controller, with the speed actually reached
    */
-  public void setDt(double dt) {
-    this.dt = dt;
+  public WarpController getWarpController() {
+    return warp;
   }
 
   /**
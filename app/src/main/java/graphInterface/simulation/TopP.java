@@ -11,6 +11,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
 import javax.swing.SpringLayout;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -29,6 +30,12 @@ public class TopP extends JPanel {
   private String pauseString = "⏹ Pause";
   private String resumeString = "▶ Resume";
   private JButton timePauseB;
+  private JSlider replaySlider;
+  // Whether the replay slider is being moved by the program rather than the user
+  private boolean followingTime = false;
+  private static final int REPLAY_TICKS = 1000;
+  private static final int REPLAY_REFRESH = 200; // Milliseconds between updates of the replay slider
+  private static final double WARP_UNIT = 50; // Simulated seconds per real second of one slider unit
 
   /**
    * Constructor for JPanel
@@ -79,9 +86,9 @@ public class TopP extends JPanel {
 
     // Setup delta time slider
     int maxT = 19;
-    double curDT = simP.getDt();
-    // Convert dt value into a slider value (assumes it is positive)
-    int valT = (int) Math.round(Math.log(curDT + 1) / Math.log(1.9));
+    double curWarp = simP.getWarp();
+    // Convert the speed into a slider value (assumes it is positive)
+    int valT = (int) Math.round(Math.log(curWarp / WARP_UNIT + 1) / Math.log(2));
     timeSlider = new JSlider(-maxT, maxT, valT);
     timeSlider.setMajorTickSpacing(5);
     timeSlider.setMinorTickSpacing(1);
@@ -104,7 +111,7 @@ public class TopP extends JPanel {
     sliderLabelTime.setForeground(Color.WHITE);
     add(sliderLabelTime);
     // Current speed multiplier
-    multLabel = new JLabel(timeMultLabelPrefix + curDT);
+    multLabel = new JLabel(timeMultLabelPrefix + (long) curWarp);
     multLabel.setFont(new Font("Dialog", Font.BOLD, 14));
     springLayout.putConstraint(SpringLayout.HORIZONTAL_CENTER, multLabel, 0, SpringLayout.HORIZONTAL_CENTER,
         timeSlider);
@@ -126,6 +133,22 @@ public class TopP extends JPanel {
     springLayout.putConstraint(SpringLayout.WEST, resetB, 20, SpringLayout.EAST, timeSlider);
     springLayout.putConstraint(SpringLayout.VERTICAL_CENTER, resetB, 20, SpringLayout.VERTICAL_CENTER, this);
     add(resetB);
+    // Setup replay slider, over the recorded part of the run
+    replaySlider = new JSlider(0, REPLAY_TICKS, REPLAY_TICKS);
+    replaySlider.setOpaque(false);
+    replaySlider.setForeground(Color.WHITE);
+    springLayout.putConstraint(SpringLayout.WEST, replaySlider, 20, SpringLayout.EAST, timePauseB);
+    springLayout.putConstraint(SpringLayout.EAST, replaySlider, -40, SpringLayout.WEST, scaleSlider);
+    springLayout.putConstraint(SpringLayout.VERTICAL_CENTER, replaySlider, 0, SpringLayout.VERTICAL_CENTER, this);
+    add(replaySlider);
+    // Slider label
+    JLabel sliderLabelReplay = new JLabel("Go back in time");
+    sliderLabelReplay.setFont(new Font("Dialog", Font.BOLD, 15));
+    springLayout.putConstraint(SpringLayout.HORIZONTAL_CENTER, sliderLabelReplay, 0, SpringLayout.HORIZONTAL_CENTER,
+        replaySlider);
+    springLayout.putConstraint(SpringLayout.SOUTH, sliderLabelReplay, -4, SpringLayout.NORTH, replaySlider);
+    sliderLabelReplay.setForeground(Color.WHITE);
+    add(sliderLabelReplay);
     // SETUP LISTENERS
 
     // Time slider listener
@@ -134,9 +157,9 @@ public class TopP extends JPanel {
       public void stateChanged(ChangeEvent e) {
         JSlider slider = ((JSlider) e.getSource());
         int value = slider.getValue();
-        double newDt = getDt(value);
-        simP.setDt(newDt);
-        multLabel.setText(timeMultLabelPrefix + (int) newDt);
+        double newWarp = getWarp(value);
+        simP.setWarp(newWarp);
+        multLabel.setText(timeMultLabelPrefix + (long) newWarp);
       }
     });
     // Scale slider listener
@@ -150,6 +173,30 @@ public class TopP extends JPanel {
         scaleLabel.setText(scaleMultLabelPrefix + (int) newS);
       }
     });
+    // Replay slider listener, pauses the simulation so that the rest of the run is kept
+    replaySlider.addChangeListener(new ChangeListener() {
+      @Override
+      public void stateChanged(ChangeEvent e) {
+        if (followingTime) {
+          return;
+        }
+        if (!timePaused) {
+          stop();
+        }
+        double start = simP.getTimelineStart();
+        double end = simP.getTimelineEnd();
+        simP.seek(start + (end - start) * replaySlider.getValue() / REPLAY_TICKS);
+      }
+    });
+    // Moves the replay slider along with the simulation
+    new Timer(REPLAY_REFRESH, new ActionListener() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        if (!replaySlider.getValueIsAdjusting()) {
+          followReplay();
+        }
+      }
+    }).start();
     // Pause button listener
     timePauseB.addActionListener(new ActionListener() {
       @Override
@@ -176,9 +223,9 @@ public class TopP extends JPanel {
   private void resume() {
     timePauseB.setText(pauseString);
     int value = timeSlider.getValue();
-    double newDt = getDt(value);
-    simP.setDt(newDt);
-    multLabel.setText(timeMultLabelPrefix + (int) newDt);
+    double newWarp = getWarp(value);
+    simP.setWarp(newWarp);
+    multLabel.setText(timeMultLabelPrefix + (long) newWarp);
     timePaused = false;
   }
 
@@ -188,12 +235,25 @@ public class TopP extends JPanel {
   private void stop() {
     timePauseB.setText(resumeString);
     int value = 0;
-    double newDt = getDt(value);
-    simP.setDt(newDt);
-    multLabel.setText(timeMultLabelPrefix + (int) newDt);
+    double newWarp = getWarp(value);
+    simP.setWarp(newWarp);
+    multLabel.setText(timeMultLabelPrefix + (long) newWarp);
     timePaused = true;
   }
 
+  /**
+   * Places the replay slider at the current time of the simulation
+   */
+  private void followReplay() {
+    double start = simP.getTimelineStart();
+    double end = simP.getTimelineEnd();
+    double time = simP.getSolarSystem().getSnapshot().getTime();
+    int value = end > start ? (int) Math.round(REPLAY_TICKS * (time - start) / (end - start)) : REPLAY_TICKS;
+    followingTime = true;
+    replaySlider.setValue(Math.max(0, Math.min(REPLAY_TICKS, value)));
+    followingTime = false;
+  }
+
   /**
    * Resets the simulation
    */
@@ -202,17 +262,17 @@ public class TopP extends JPanel {
   }
 
   /**
-   * Takes a value from the time slider and transforms it into a small change in
-   * time
+   * Takes a value from the time slider and transforms it into a speed of the
+   * simulation
    *
    * @param val The slider value
-   * @return the dt value
+   * @return the simulated seconds per real second
    */
-  private double getDt(int val) {
+  private double getWarp(int val) {
     if (val > 0) {
-      return Math.pow(2, val) - 1;
+      return WARP_UNIT * (Math.pow(2, val) - 1);
     }
-    return -Math.pow(2, -val) + 1;
+    return WARP_UNIT * (-Math.pow(2, -val) + 1);
 
   }
 
@@ -0,0 +1,247 @@
+package lib;
+
+/**
+ * Kick-drift-kick leapfrog with individual power-of-two block time-steps.
+ *
+ * At the start of each call, every body gets a step level from its own time
+ * scale |a| / |j| (Aarseth's criterion, which is about an orbital period over
+ * 2 pi): a body on level l advances by dt / 2^l. The jerk j is estimated from
+ * the accelerations after a drift as short as the deepest substep, which costs
+ * one more force evaluation per call. Unlike |v| / |a|, this does not send a
+ * body nearly at rest (such as a star at the barycenter) to the deepest level:
+ * its acceleration changes as slowly as the orbits pulling it. The call
+ * is cut into substeps of the deepest level. Every body drifts on each substep,
+ * but only the bodies whose own step starts or ends there are kicked, and only
+ * those get their accelerations computed. Outer planets can thus take a few
+ * long steps while an inner planet takes many short ones.
+ *
+ * All bodies are synchronized again at the end of the call. Levels are kept
+ * for the whole call.
+ */
+public class BlockTimeStep implements ODESolver {
+  private double eta; // Fraction of its time scale a body may advance in one step
+  private int maxLevel; // Deepest level, the shortest step being dt / 2^maxLevel
+
+  private int[] level = new int[0]; // Step level of each body
+  private int[] active = new int[0]; // Bodies whose step ends on the current substep
+  private double[] jerk = new double[0]; // Estimated norm of the jerk of each body
+  private double[][] saved = new double[6][0]; // Positions and accelerations before the probe
+  private int lastSubsteps = 0; // Number of substeps during the last call
+  private long lastUpdates = 0; // Number of body acceleration updates during the last call
+
+  /**
+   * Constructor for the block time-step leapfrog with at most 2^12 substeps
+   * @param eta fraction of its time scale a body may advance in one step
+   */
+  public BlockTimeStep(double eta) {
+    this(eta, 12);
+  }
+
+  /**
+   * Constructor for the block time-step leapfrog
+   * @param eta fraction of its time scale a body may advance in one step
+   * @param maxLevel deepest level, the shortest step being dt / 2^maxLevel
+   */
+  public BlockTimeStep(double eta, int maxLevel) {
+    setEta(eta);
+    setMaxLevel(maxLevel);
+  }
+
+  /**
+   * Advances the system by one time-step, each body with its own substeps
+   * @param system system to advance
+   * @param dt time-step in seconds
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    int n = system.size();
+    if (level.length < n) {
+      level = new int[n];
+      active = new int[n];
+      jerk = new double[n];
+      for (int c = 0; c < 6; c++) {
+        saved[c] = new double[n];
+      }
+    }
+    double tau = Math.abs(dt) / (1 << maxLevel);
+    if (tau > 0) {
+      probeJerks(system, tau);
+    } else {
+      system.computeAccelerations();
+    }
+    int deepest = assignLevels(system, dt);
+    int nbSub = 1 << deepest;
+    double h = dt / nbSub;
+    lastSubsteps = nbSub;
+    lastUpdates = tau > 0 ? 2L * n : n;
+
+    for (int s = 0; s < nbSub; s++) {
+      // Opening half kick of the bodies whose step starts here
+      for (int i = 0; i < n; i++) {
+        int period = 1 << (deepest - level[i]); // Length of the step of the body in substeps
+        if (s % period == 0) {
+          kick(system, i, 0.5 * dt / (1 << level[i]));
+        }
+      }
+      SymplecticComposition.drift(system, h);
+
+      // Closing half kick of the bodies whose step ends here
+      int count = 0;
+      for (int i = 0; i < n; i++) {
+        int period = 1 << (deepest - level[i]);
+        if ((s + 1) % period == 0) {
+          active[count++] = i;
+        }
+      }
+      if (count == n) {
+        system.computeAccelerations();
+      } else {
+        system.computeAccelerations(active, count);
+      }
+      lastUpdates += count;
+      for (int k = 0; k < count; k++) {
+        int i = active[k];
+        kick(system, i, 0.5 * dt / (1 << level[i]));
+      }
+    }
+  }
+
+  /**
+   * Computes the accelerations, and estimates the jerks from the change of the
+   * accelerations after a short drift. The positions are put back afterwards
+   * @param system system to advance
+   * @param tau length of the drift in seconds, strictly positive
+   */
+  private void probeJerks(SecondOrderSystem system, double tau) {
+    int n = system.size();
+    double[][] state = { system.getX(), system.getY(), system.getZ(),
+        system.getAx(), system.getAy(), system.getAz() };
+    system.computeAccelerations();
+    for (int c = 0; c < 6; c++) {
+      System.arraycopy(state[c], 0, saved[c], 0, n);
+    }
+    SymplecticComposition.drift(system, tau);
+    system.computeAccelerations();
+    for (int i = 0; i < n; i++) {
+      double jx = state[3][i] - saved[3][i];
+      double jy = state[4][i] - saved[4][i];
+      double jz = state[5][i] - saved[5][i];
+      jerk[i] = Math.sqrt(jx * jx + jy * jy + jz * jz) / tau;
+    }
+    for (int c = 0; c < 6; c++) {
+      System.arraycopy(saved[c], 0, state[c], 0, n);
+    }
+  }
+
+  /**
+   * Chooses the level of every body from its time scale
+   * @param system system whose accelerations are up to date
+   * @param dt time-step in seconds
+   * @return deepest level used
+   */
+  private int assignLevels(SecondOrderSystem system, double dt) {
+    int n = system.size();
+    double[] ax = system.getAx();
+    double[] ay = system.getAy();
+    double[] az = system.getAz();
+    double span = Math.abs(dt);
+
+    int deepest = 0;
+    for (int i = 0; i < n; i++) {
+      double a = Math.sqrt(ax[i] * ax[i] + ay[i] * ay[i] + az[i] * az[i]);
+      int l = 0;
+      if (jerk[i] > 0) {
+        double wanted = eta * a / jerk[i];
+        while (l < maxLevel && span / (1 << l) > wanted) {
+          l++;
+        }
+      }
+      level[i] = l;
+      deepest = Math.max(deepest, l);
+    }
+    return deepest;
+  }
+
+  /**
+   * Changes the velocity of one body with its current acceleration
+   * @param system system to advance
+   * @param i index of the body
+   * @param h duration of the kick in seconds
+   */
+  private static void kick(SecondOrderSystem system, int i, double h) {
+    system.getVx()[i] += system.getAx()[i] * h;
+    system.getVy()[i] += system.getAy()[i] * h;
+    system.getVz()[i] += system.getAz()[i] * h;
+  }
+
+  /**
+   * Getter for the step level of each body during the last call
+   * @return array of levels (only the first size() entries are valid)
+   */
+  public int[] getLevels() {
+    return level;
+  }
+
+  /**
+   * Getter for the number of substeps of the last call
+   * @return number of substeps
+   */
+  public int getLastSubsteps() {
+    return lastSubsteps;
+  }
+
+  /**
+   * Getter for the number of body acceleration updates during the last call
+   * @return number of updates
+   */
+  public long getLastUpdates() {
+    return lastUpdates;
+  }
+
+  /**
+   * Getter for the accuracy parameter
+   * @return fraction of its time scale a body may advance in one step
+   */
+  public double getEta() {
+    return eta;
+  }
+
+  /**
+   * Setter for the accuracy parameter
+   * @param eta new fraction of its time scale a body may advance in one step
+   */
+  public void setEta(double eta) {
+    if (eta <= 0) {
+      throw new IllegalArgumentException("The accuracy parameter must be strictly positive");
+    }
+    this.eta = eta;
+  }
+
+  /**
+   * Getter for the deepest level
+   * @return deepest level
+   */
+  public int getMaxLevel() {
+    return maxLevel;
+  }
+
+  /**
+   * Setter for the deepest level
+   * @param maxLevel new deepest level, between 0 and 30
+   */
+  public void setMaxLevel(int maxLevel) {
+    if (maxLevel < 0 || maxLevel > 30) {
+      throw new IllegalArgumentException("The deepest level must be between 0 and 30");
+    }
+    this.maxLevel = maxLevel;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Block leapfrog (eta = " + eta + ")";
+  }
+}
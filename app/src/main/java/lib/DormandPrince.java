@@ -0,0 +1,298 @@
+package lib;
+
+/**
+ * Adaptive Dormand-Prince 5(4) Runge-Kutta integrator.
+ *
+ * The requested time-step is subdivided internally: each substep is computed
+ * at the 5th order together with an embedded 4th order solution, and their
+ * difference estimates the error of the substep. Substeps whose error exceeds
+ * the tolerance are rejected and retried shorter, and the length of the next
+ * substep is chosen from the error of the last one. Quiet phases are thus
+ * crossed with few long substeps, while close encounters get as many short ones
+ * as they need.
+ *
+ * The error of a body is measured relative to the size of its position and
+ * velocity plus the mean size over the system, so that bodies sitting close to
+ * the origin (usually the star) do not force tiny substeps. A substep whose
+ * error is not finite is retried shorter, and the step fails once it reaches
+ * the shortest substep.
+ *
+ * The last stage of a substep is evaluated at its end, so it is reused as the
+ * first stage of the next one (6 force evaluations per accepted substep).
+ */
+public class DormandPrince implements ODESolver {
+  // Stage coefficients. The system is autonomous, so the stage times are not needed
+  private static final double[][] A = {
+      {},
+      { 1 / 5.0 },
+      { 3 / 40.0, 9 / 40.0 },
+      { 44 / 45.0, -56 / 15.0, 32 / 9.0 },
+      { 19372 / 6561.0, -25360 / 2187.0, 64448 / 6561.0, -212 / 729.0 },
+      { 9017 / 3168.0, -355 / 33.0, 46732 / 5247.0, 49 / 176.0, -5103 / 18656.0 },
+      { 35 / 384.0, 0, 500 / 1113.0, 125 / 192.0, -2187 / 6784.0, 11 / 84.0 },
+  };
+  // Difference between the 5th and 4th order weights (the 5th order weights are the last row of A)
+  private static final double[] E = {
+      71 / 57600.0, 0, -71 / 16695.0, 71 / 1920.0, -17253 / 339200.0, 22 / 525.0, -1 / 40.0 };
+
+  private static final double SAFETY = 0.9; // Margin on the predicted substep length
+  private static final double MIN_FACTOR = 0.2; // Largest decrease of the substep length
+  private static final double MAX_FACTOR = 5; // Largest increase of the substep length
+  private static final double MIN_FRACTION = 1e-12; // Shortest substep, as a fraction of the time-step
+  private static final double MIN_SCALE = Double.MIN_NORMAL; // Floor of the error scales, for a system at rest
+
+  private double tolerance; // Relative error allowed per substep
+  private double nextStep = 0; // Predicted length of the next substep in seconds, 0 if unknown
+  private int lastSubsteps = 0; // Number of accepted substeps during the last call
+  private int lastRejected = 0; // Number of rejected substeps during the last call
+
+  private double[] y0 = new double[0]; // State at the start of the substep (x, y, z, vx, vy, vz blocks)
+  private double[][] k = new double[7][0]; // Derivatives at each stage, same layout
+
+  /**
+   * Constructor for the Dormand-Prince integrator
+   * @param tolerance relative error allowed per substep
+   */
+  public DormandPrince(double tolerance) {
+    setTolerance(tolerance);
+  }
+
+  /**
+   * Advances the system by one time-step, split in as many substeps as needed
+   * @param system system to advance
+   * @param dt time-step in seconds, negative to go back in time
+   * @throws IllegalStateException if the error is still not finite at the shortest substep
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    int n = system.size();
+    ensureCapacity(n);
+    save(system, y0, n);
+    lastSubsteps = 0;
+    lastRejected = 0;
+
+    // Mean sizes of the positions and velocities, used as absolute error scales
+    double meanR = 0;
+    double meanV = 0;
+    for (int i = 0; i < n; i++) {
+      meanR += Math.sqrt(y0[i] * y0[i] + y0[n + i] * y0[n + i] + y0[2 * n + i] * y0[2 * n + i]) / n;
+      meanV += Math.sqrt(y0[3 * n + i] * y0[3 * n + i] + y0[4 * n + i] * y0[4 * n + i]
+          + y0[5 * n + i] * y0[5 * n + i]) / n;
+    }
+
+    system.computeAccelerations();
+    load(system, k[0], n);
+
+    // Substep lengths are kept positive, the sign of dt is applied to the stages
+    double sign = Math.signum(dt);
+    double span = Math.abs(dt);
+    double remaining = span;
+    double h = nextStep > 0 ? Math.min(nextStep, span) : span;
+    while (remaining > 0) {
+      boolean last = h >= remaining * (1 - MIN_FRACTION);
+      if (last) {
+        h = remaining;
+      }
+      for (int s = 1; s < 7; s++) {
+        stage(system, s, sign * h, n);
+        system.computeAccelerations();
+        load(system, k[s], n);
+      }
+      // The system now holds the 5th order solution
+      double err = error(system, sign * h, n, meanR, meanV);
+      if (!Double.isFinite(err)) {
+        if (h <= MIN_FRACTION * span) {
+          throw new IllegalStateException("The state is not finite after a substep of " + h + " s");
+        }
+        lastRejected++;
+        h *= MIN_FACTOR;
+        continue;
+      }
+      double factor = err > 0 ? SAFETY * Math.pow(err, -0.2) : MAX_FACTOR;
+      factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+
+      if (err <= 1 || h <= MIN_FRACTION * span) {
+        lastSubsteps++;
+        remaining = last ? 0 : remaining - h;
+        save(system, y0, n);
+        // First same as last: the last stage is the derivative at the new start
+        double[] swap = k[0];
+        k[0] = k[6];
+        k[6] = swap;
+        if (!last || factor < 1) {
+          // A last substep cut short says nothing about a longer one
+          nextStep = h * factor;
+        }
+        h = Math.min(h * factor, remaining);
+      } else {
+        lastRejected++;
+        h *= factor;
+      }
+    }
+    // Leave the accelerations at the final positions in the system
+    double[] ax = system.getAx();
+    double[] ay = system.getAy();
+    double[] az = system.getAz();
+    for (int i = 0; i < n; i++) {
+      ax[i] = k[0][3 * n + i];
+      ay[i] = k[0][4 * n + i];
+      az[i] = k[0][5 * n + i];
+    }
+  }
+
+  /**
+   * Sets the system to the state of a stage
+   * @param system system to set
+   * @param s index of the stage
+   * @param h length of the substep in seconds, negative going back in time
+   * @param n number of bodies
+   */
+  private void stage(SecondOrderSystem system, int s, double h, int n) {
+    double[][] arrays = { system.getX(), system.getY(), system.getZ(),
+        system.getVx(), system.getVy(), system.getVz() };
+    double[] a = A[s];
+    for (int c = 0; c < 6; c++) {
+      double[] out = arrays[c];
+      int off = c * n;
+      for (int i = 0; i < n; i++) {
+        double sum = 0;
+        for (int j = 0; j < s; j++) {
+          sum += a[j] * k[j][off + i];
+        }
+        out[i] = y0[off + i] + h * sum;
+      }
+    }
+  }
+
+  /**
+   * Computes the error of the substep as a fraction of the tolerance
+   * @param system system holding the 5th order solution
+   * @param h length of the substep in seconds
+   * @param n number of bodies
+   * @param meanR mean distance to the origin in m
+   * @param meanV mean speed in m/s
+   * @return largest error over the bodies, 1 meaning exactly the tolerance
+   */
+  private double error(SecondOrderSystem system, double h, int n, double meanR, double meanV) {
+    double[][] arrays = { system.getX(), system.getY(), system.getZ(),
+        system.getVx(), system.getVy(), system.getVz() };
+    double maxErr = 0;
+    for (int i = 0; i < n; i++) {
+      // Squared errors, sizes at the end and sizes at the start, for the position then the velocity
+      double eR = 0, endR = 0, startR = 0;
+      double eV = 0, endV = 0, startV = 0;
+      for (int c = 0; c < 6; c++) {
+        int off = c * n;
+        double sum = 0;
+        for (int j = 0; j < 7; j++) {
+          sum += E[j] * k[j][off + i];
+        }
+        double d = h * sum;
+        double end = arrays[c][i];
+        double start = y0[off + i];
+        if (c < 3) {
+          eR += d * d;
+          endR += end * end;
+          startR += start * start;
+        } else {
+          eV += d * d;
+          endV += end * end;
+          startV += start * start;
+        }
+      }
+      double scaleR = Math.max(MIN_SCALE, tolerance * (Math.sqrt(Math.max(startR, endR)) + meanR));
+      double scaleV = Math.max(MIN_SCALE, tolerance * (Math.sqrt(Math.max(startV, endV)) + meanV));
+      maxErr = Math.max(maxErr, Math.sqrt(eR) / scaleR);
+      maxErr = Math.max(maxErr, Math.sqrt(eV) / scaleV);
+    }
+    return maxErr;
+  }
+
+  /**
+   * Copies the positions and velocities of the system
+   * @param system system to copy
+   * @param out array receiving the state (x, y, z, vx, vy, vz blocks)
+   * @param n number of bodies
+   */
+  private static void save(SecondOrderSystem system, double[] out, int n) {
+    System.arraycopy(system.getX(), 0, out, 0, n);
+    System.arraycopy(system.getY(), 0, out, n, n);
+    System.arraycopy(system.getZ(), 0, out, 2 * n, n);
+    System.arraycopy(system.getVx(), 0, out, 3 * n, n);
+    System.arraycopy(system.getVy(), 0, out, 4 * n, n);
+    System.arraycopy(system.getVz(), 0, out, 5 * n, n);
+  }
+
+  /**
+   * Copies the derivatives of the state of the system (velocities and accelerations)
+   * @param system system whose accelerations are up to date
+   * @param out array receiving the derivatives (same layout as the state)
+   * @param n number of bodies
+   */
+  private static void load(SecondOrderSystem system, double[] out, int n) {
+    System.arraycopy(system.getVx(), 0, out, 0, n);
+    System.arraycopy(system.getVy(), 0, out, n, n);
+    System.arraycopy(system.getVz(), 0, out, 2 * n, n);
+    System.arraycopy(system.getAx(), 0, out, 3 * n, n);
+    System.arraycopy(system.getAy(), 0, out, 4 * n, n);
+    System.arraycopy(system.getAz(), 0, out, 5 * n, n);
+  }
+
+  /**
+   * Grows the scratch arrays if needed
+   * @param n number of bodies
+   */
+  private void ensureCapacity(int n) {
+    if (y0.length >= 6 * n) {
+      return;
+    }
+    y0 = new double[6 * n];
+    for (int s = 0; s < 7; s++) {
+      k[s] = new double[6 * n];
+    }
+  }
+
+  /**
+   * Getter for the tolerance
+   * @return relative error allowed per substep
+   */
+  public double getTolerance() {
+    return tolerance;
+  }
+
+  /**
+   * Setter for the tolerance
+   * @param tolerance new relative error allowed per substep
+   */
+  public void setTolerance(double tolerance) {
+    if (tolerance <= 0) {
+      throw new IllegalArgumentException("The tolerance must be strictly positive");
+    }
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Getter for the number of accepted substeps during the last call to step
+   * @return number of substeps
+   */
+  public int getLastSubsteps() {
+    return lastSubsteps;
+  }
+
+  /**
+   * Getter for the number of rejected substeps during the last call to step
+   * @return number of rejected substeps
+   */
+  public int getLastRejected() {
+    return lastRejected;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Dormand-Prince 5(4) (tol = " + tolerance + ")";
+  }
+}
@@ -0,0 +1,210 @@
+package lib;
+
+/**
+ * Fourth order Hermite predictor-corrector (Makino and Aarseth 1992), the
+ * usual scheme of collisional N-body codes.
+ *
+ * Each substep predicts the positions and velocities with a Taylor expansion
+ * using the accelerations and jerks, evaluates the accelerations and jerks at
+ * the predicted state in one pass over the pairs, and corrects the prediction
+ * with the Hermite interpolation between both ends. The interpolation also
+ * gives the second and third derivatives of the accelerations, from which the
+ * next substep is chosen with Aarseth's criterion
+ * h = sqrt(eta (|a| |a''| + |a'|^2) / (|a'| |a'''| + |a''|^2)),
+ * the smallest over the bodies being shared by all of them.
+ *
+ * The requested time-step is split in as many substeps as the criterion asks
+ * for, so close encounters are resolved without lowering the time-step of the
+ * whole simulation. It needs a system that can compute jerks. A substep
+ * shorter than a tiny fraction of the time-step means the criterion collapsed,
+ * and the step fails instead of running forever.
+ */
+public class Hermite implements ODESolver {
+  private static final double ETA_START = 0.01; // Accuracy parameter of the first substep, |a| / |a'| based
+  private static final double MIN_FRACTION = 1e-12; // Shortest substep, as a fraction of the time-step
+
+  private double eta; // Accuracy parameter of Aarseth's criterion
+  private double nextStep = 0; // Length of the next substep in seconds, 0 if unknown
+  private int lastSubsteps = 0; // Number of substeps during the last call
+
+  private double[] y0 = new double[0]; // State at the start of the substep (x, y, z, vx, vy, vz blocks)
+  private double[] d0 = new double[0]; // Accelerations and jerks at the start of the substep, same layout
+
+  /**
+   * Constructor for the Hermite integrator
+   * @param eta accuracy parameter of Aarseth's criterion (0.01 to 0.02 is usual)
+   */
+  public Hermite(double eta) {
+    setEta(eta);
+  }
+
+  /**
+   * Advances the system by one time-step, split in substeps
+   * @param system system to advance, which must be a JerkSystem
+   * @param dt time-step in seconds, negative to go back in time
+   * @throws IllegalStateException if a substep gets shorter than the shortest substep
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    if (!(system instanceof JerkSystem)) {
+      throw new IllegalArgumentException("The Hermite integrator needs a system computing jerks");
+    }
+    JerkSystem jerkSystem = (JerkSystem) system;
+    int n = system.size();
+    if (y0.length < 6 * n) {
+      y0 = new double[6 * n];
+      d0 = new double[6 * n];
+    }
+    double[][] state = { system.getX(), system.getY(), system.getZ(),
+        system.getVx(), system.getVy(), system.getVz() };
+    double[][] derivatives = { system.getAx(), system.getAy(), system.getAz(),
+        jerkSystem.getJx(), jerkSystem.getJy(), jerkSystem.getJz() };
+
+    jerkSystem.computeAccelerationsAndJerks();
+    if (nextStep <= 0) {
+      nextStep = startStep(jerkSystem);
+    }
+    lastSubsteps = 0;
+    // Substep lengths are kept positive, h carries the sign of dt
+    double sign = Math.signum(dt);
+    double span = Math.abs(dt);
+    double remaining = span;
+    while (remaining > 0) {
+      if (!(nextStep >= MIN_FRACTION * span)) {
+        throw new IllegalStateException("The substep shrank to " + nextStep + " s");
+      }
+      double length = nextStep;
+      boolean last = length >= remaining * (1 - MIN_FRACTION);
+      if (last) {
+        length = remaining;
+      }
+      double h = sign * length;
+      for (int c = 0; c < 6; c++) {
+        System.arraycopy(state[c], 0, y0, c * n, n);
+        System.arraycopy(derivatives[c], 0, d0, c * n, n);
+      }
+
+      // Prediction
+      for (int c = 0; c < 3; c++) {
+        double[] pos = state[c];
+        double[] vel = state[c + 3];
+        int p = c * n;
+        int v = (c + 3) * n;
+        for (int i = 0; i < n; i++) {
+          double a = d0[p + i];
+          double j = d0[v + i];
+          pos[i] = y0[p + i] + h * (y0[v + i] + h * (a / 2 + h * j / 6));
+          vel[i] = y0[v + i] + h * (a + h * j / 2);
+        }
+      }
+
+      jerkSystem.computeAccelerationsAndJerks();
+
+      // Correction, and Aarseth's criterion from the interpolated derivatives
+      double shortest = Double.POSITIVE_INFINITY;
+      for (int i = 0; i < n; i++) {
+        double a1Norm = 0, j1Norm = 0, a2Norm = 0, a3Norm = 0;
+        for (int c = 0; c < 3; c++) {
+          int p = c * n + i;
+          int v = (c + 3) * n + i;
+          double a0 = d0[p];
+          double j0 = d0[v];
+          double a1 = derivatives[c][i];
+          double j1 = derivatives[c + 3][i];
+          double vel = y0[v] + h / 2 * (a0 + a1) + h * h / 12 * (j0 - j1);
+          state[c][i] = y0[p] + h / 2 * (y0[v] + vel) + h * h / 12 * (a0 - a1);
+          state[c + 3][i] = vel;
+
+          // Second and third derivatives at the end of the substep
+          double a3 = (12 * (a0 - a1) + 6 * h * (j0 + j1)) / (h * h * h);
+          double a2 = (-6 * (a0 - a1) - h * (4 * j0 + 2 * j1)) / (h * h) + h * a3;
+          a1Norm += a1 * a1;
+          j1Norm += j1 * j1;
+          a2Norm += a2 * a2;
+          a3Norm += a3 * a3;
+        }
+        a1Norm = Math.sqrt(a1Norm);
+        j1Norm = Math.sqrt(j1Norm);
+        a2Norm = Math.sqrt(a2Norm);
+        a3Norm = Math.sqrt(a3Norm);
+        double den = j1Norm * a3Norm + a2Norm * a2Norm;
+        if (den > 0) {
+          shortest = Math.min(shortest, Math.sqrt(eta * (a1Norm * a2Norm + j1Norm * j1Norm) / den));
+        }
+      }
+      // The accelerations and jerks at the predicted state are kept for the next
+      // substep, as usual for a PEC scheme
+      if (shortest < Double.POSITIVE_INFINITY) {
+        // A last substep cut short says nothing about a longer one
+        nextStep = Math.min(shortest, 2 * (last ? Math.max(length, nextStep) : length));
+      }
+      remaining = last ? 0 : remaining - length;
+      lastSubsteps++;
+    }
+  }
+
+  /**
+   * Chooses the length of the first substep, when no interpolation is available
+   * @param system system whose accelerations and jerks are up to date
+   * @return length of the substep in seconds, infinite if nothing limits it
+   */
+  private double startStep(JerkSystem system) {
+    double shortest = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < system.size(); i++) {
+      double a = Math.sqrt(system.getAx()[i] * system.getAx()[i] + system.getAy()[i] * system.getAy()[i]
+          + system.getAz()[i] * system.getAz()[i]);
+      double j = Math.sqrt(system.getJx()[i] * system.getJx()[i] + system.getJy()[i] * system.getJy()[i]
+          + system.getJz()[i] * system.getJz()[i]);
+      // A body at rest or at a symmetric point, with no acceleration, does not limit it
+      if (a > 0 && j > 0) {
+        shortest = Math.min(shortest, ETA_START * a / j);
+      }
+    }
+    return shortest;
+  }
+
+  /**
+   * Getter for the number of substeps during the last call to step
+   * @return number of substeps
+   */
+  public int getLastSubsteps() {
+    return lastSubsteps;
+  }
+
+  /**
+   * Getter for the accuracy parameter
+   * @return eta
+   */
+  public double getEta() {
+    return eta;
+  }
+
+  /**
+   * Setter for the accuracy parameter
+   * @param eta new accuracy parameter of Aarseth's criterion
+   */
+  public void setEta(double eta) {
+    if (eta <= 0) {
+      throw new IllegalArgumentException("The accuracy parameter must be strictly positive");
+    }
+    this.eta = eta;
+  }
+
+  /**
+   * The Hermite integrator needs the jerks of the bodies
+   * @return true
+   */
+  @Override
+  public boolean needsJerks() {
+    return true;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Hermite (eta = " + eta + ")";
+  }
+}
@@ -0,0 +1,32 @@
+package lib;
+
+/**
+ * Second order system that can also compute the jerks (time derivatives of the
+ * accelerations) of its bodies, as needed by the Hermite integrator
+ */
+public interface JerkSystem extends SecondOrderSystem {
+
+  /**
+   * Computes the acceleration and jerk of every body at the current positions
+   * and velocities, and stores them in the acceleration and jerk arrays
+   */
+  public abstract void computeAccelerationsAndJerks();
+
+  /**
+   * Getter for the x jerks
+   * @return array of x jerks in m/s^3
+   */
+  public abstract double[] getJx();
+
+  /**
+   * Getter for the y jerks
+   * @return array of y jerks in m/s^3
+   */
+  public abstract double[] getJy();
+
+  /**
+   * Getter for the z jerks
+   * @return array of z jerks in m/s^3
+   */
+  public abstract double[] getJz();
+}
@@ -0,0 +1,15 @@
+package lib;
+
+/**
+ * Second order drift-kick-drift leapfrog (position Verlet), equivalent to
+ * velocity Verlet up to where the step starts. One force evaluation per step
+ */
+public class Leapfrog extends SymplecticComposition {
+
+  /**
+   * Constructor for the leapfrog
+   */
+  public Leapfrog() {
+    super("Leapfrog", 1);
+  }
+}
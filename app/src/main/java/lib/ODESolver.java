@@ -1,9 +1,30 @@
 package lib;
 
 /**
- * ODESolver
+ * Integrator advancing the positions and velocities of a second order system
  */
-public class ODESolver {
+public interface ODESolver {
 
-  
+  /**
+   * Advances the system by one time-step. The accelerations left in the system
+   * when the step starts are not trusted, the solver computes the ones it needs
+   * @param system system to advance
+   * @param dt time-step in seconds
+   */
+  public abstract void step(SecondOrderSystem system, double dt);
+
+  /**
+   * Tells if the solver needs the jerks of the bodies, which only some gravity
+   * solvers compute. False by default
+   * @return true if the system must be a JerkSystem able to compute jerks
+   */
+  public default boolean needsJerks() {
+    return false;
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name used when reporting on the solver
+   */
+  public abstract String getName();
 }
@@ -0,0 +1,125 @@
+package lib;
+
+/**
+ * Classical fourth order Runge-Kutta. Four force evaluations per step. It is
+ * more accurate than Yoshida 4 over a single step, but not symplectic, so the
+ * energy slowly drifts over long runs
+ */
+public class RungeKutta4 implements ODESolver {
+  private static final double[] C = { 0, 0.5, 0.5, 1 }; // Time of each stage as a fraction of the step
+  private static final double[] B = { 1 / 6.0, 1 / 3.0, 1 / 3.0, 1 / 6.0 }; // Weight of each stage
+
+  // State at the start of the step
+  private double[] x0 = new double[0];
+  private double[] y0 = new double[0];
+  private double[] z0 = new double[0];
+  private double[] vx0 = new double[0];
+  private double[] vy0 = new double[0];
+  private double[] vz0 = new double[0];
+  // Weighted sums of the stage derivatives
+  private double[] kx = new double[0];
+  private double[] ky = new double[0];
+  private double[] kz = new double[0];
+  private double[] kvx = new double[0];
+  private double[] kvy = new double[0];
+  private double[] kvz = new double[0];
+
+  /**
+   * Advances the system by one time-step
+   * @param system system to advance
+   * @param dt time-step in seconds
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    int n = system.size();
+    ensureCapacity(n);
+    double[] x = system.getX();
+    double[] y = system.getY();
+    double[] z = system.getZ();
+    double[] vx = system.getVx();
+    double[] vy = system.getVy();
+    double[] vz = system.getVz();
+    double[] ax = system.getAx();
+    double[] ay = system.getAy();
+    double[] az = system.getAz();
+
+    for (int i = 0; i < n; i++) {
+      x0[i] = x[i];
+      y0[i] = y[i];
+      z0[i] = z[i];
+      vx0[i] = vx[i];
+      vy0[i] = vy[i];
+      vz0[i] = vz[i];
+      kx[i] = 0;
+      ky[i] = 0;
+      kz[i] = 0;
+      kvx[i] = 0;
+      kvy[i] = 0;
+      kvz[i] = 0;
+    }
+
+    for (int s = 0; s < 4; s++) {
+      if (s > 0) {
+        // Stage state from the derivatives of the previous stage, still in the arrays
+        double h = C[s] * dt;
+        for (int i = 0; i < n; i++) {
+          x[i] = x0[i] + h * vx[i];
+          y[i] = y0[i] + h * vy[i];
+          z[i] = z0[i] + h * vz[i];
+          vx[i] = vx0[i] + h * ax[i];
+          vy[i] = vy0[i] + h * ay[i];
+          vz[i] = vz0[i] + h * az[i];
+        }
+      }
+      system.computeAccelerations();
+      for (int i = 0; i < n; i++) {
+        kx[i] += B[s] * vx[i];
+        ky[i] += B[s] * vy[i];
+        kz[i] += B[s] * vz[i];
+        kvx[i] += B[s] * ax[i];
+        kvy[i] += B[s] * ay[i];
+        kvz[i] += B[s] * az[i];
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      x[i] = x0[i] + dt * kx[i];
+      y[i] = y0[i] + dt * ky[i];
+      z[i] = z0[i] + dt * kz[i];
+      vx[i] = vx0[i] + dt * kvx[i];
+      vy[i] = vy0[i] + dt * kvy[i];
+      vz[i] = vz0[i] + dt * kvz[i];
+    }
+  }
+
+  /**
+   * Grows the scratch arrays if needed
+   * @param n number of bodies
+   */
+  private void ensureCapacity(int n) {
+    if (x0.length >= n) {
+      return;
+    }
+    x0 = new double[n];
+    y0 = new double[n];
+    z0 = new double[n];
+    vx0 = new double[n];
+    vy0 = new double[n];
+    vz0 = new double[n];
+    kx = new double[n];
+    ky = new double[n];
+    kz = new double[n];
+    kvx = new double[n];
+    kvy = new double[n];
+    kvz = new double[n];
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "RK4";
+  }
+}
@@ -0,0 +1,101 @@
+package lib;
+
+/**
+ * System of bodies whose accelerations only depend on their positions, stored in
+ * primitive arrays. This is what the ODE solvers integrate.
+ *
+ * The integrators update the position and velocity arrays in place and call
+ * computeAccelerations() whenever they need the accelerations at the current
+ * positions.
+ */
+public interface SecondOrderSystem {
+
+  /**
+   * Getter for the number of bodies
+   * @return number of bodies (only the first size() entries of the arrays are valid)
+   */
+  public abstract int size();
+
+  /**
+   * Computes the acceleration of every body at the current positions and stores
+   * it in the acceleration arrays
+   */
+  public abstract void computeAccelerations();
+
+  /**
+   * Computes the acceleration of some of the bodies at the current positions.
+   * Only the accelerations of the listed bodies need to be updated, the default
+   * implementation updates all of them
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  public default void computeAccelerations(int[] active, int count) {
+    computeAccelerations();
+  }
+
+  /**
+   * Getter for the gravitational constant the accelerations are computed with
+   * @return gravitational constant in m^3 kg^-1 s^-2
+   */
+  public abstract double getGravity();
+
+  /**
+   * Getter for the masses
+   * @return array of masses in kg
+   */
+  public abstract double[] getMass();
+
+  /**
+   * Getter for the x positions
+   * @return array of x positions in m
+   */
+  public abstract double[] getX();
+
+  /**
+   * Getter for the y positions
+   * @return array of y positions in m
+   */
+  public abstract double[] getY();
+
+  /**
+   * Getter for the z positions
+   * @return array of z positions in m
+   */
+  public abstract double[] getZ();
+
+  /**
+   * Getter for the x velocities
+   * @return array of x velocities in m/s
+   */
+  public abstract double[] getVx();
+
+  /**
+   * Getter for the y velocities
+   * @return array of y velocities in m/s
+   */
+  public abstract double[] getVy();
+
+  /**
+   * Getter for the z velocities
+   * @return array of z velocities in m/s
+   */
+  public abstract double[] getVz();
+
+  /**
+   * Getter for the x accelerations
+   * @return array of x accelerations in m/s^2
+   */
+  public abstract double[] getAx();
+
+  /**
+   * Getter for the y accelerations
+   * @return array of y accelerations in m/s^2
+   */
+  public abstract double[] getAy();
+
+  /**
+   * Getter for the z accelerations
+   * @return array of z accelerations in m/s^2
+   */
+  public abstract double[] getAz();
+}
@@ -0,0 +1,46 @@
+package lib;
+
+/**
+ * First order semi-implicit (symplectic) Euler: the velocities are kicked with
+ * the accelerations at the start of the step, then the positions drift with the
+ * new velocities. This is the scheme SolarSystem.move has always used
+ */
+public class SemiImplicitEuler implements ODESolver {
+
+  /**
+   * Advances the system by one time-step
+   * @param system system to advance
+   * @param dt time-step in seconds
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    system.computeAccelerations();
+    int n = system.size();
+    double[] x = system.getX();
+    double[] y = system.getY();
+    double[] z = system.getZ();
+    double[] vx = system.getVx();
+    double[] vy = system.getVy();
+    double[] vz = system.getVz();
+    double[] ax = system.getAx();
+    double[] ay = system.getAy();
+    double[] az = system.getAz();
+    for (int i = 0; i < n; i++) {
+      vx[i] += ax[i] * dt;
+      vy[i] += ay[i] * dt;
+      vz[i] += az[i] * dt;
+      x[i] += vx[i] * dt;
+      y[i] += vy[i] * dt;
+      z[i] += vz[i] * dt;
+    }
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Semi-implicit Euler";
+  }
+}
@@ -0,0 +1,102 @@
+package lib;
+
+/**
+ * Symplectic integrator made of a sequence of drift-kick-drift leapfrog steps
+ * whose lengths are fractions (weights) of the time-step. With well chosen
+ * weights, the errors of the leapfrog steps cancel up to a higher order
+ * (Yoshida 1990). The half drifts of consecutive leapfrog steps are merged, so
+ * a step costs one force evaluation per weight.
+ *
+ * Symplectic schemes do not make the energy drift over long runs, the energy
+ * error only oscillates.
+ */
+public class SymplecticComposition implements ODESolver {
+  private final double[] weights; // Length of each leapfrog step as a fraction of the time-step
+  private final String name;
+
+  /**
+   * Constructor for a composition of leapfrog steps
+   * @param name name of the scheme
+   * @param weights length of each leapfrog step as a fraction of the time-step,
+   *                summing to 1
+   */
+  public SymplecticComposition(String name, double... weights) {
+    this.name = name;
+    this.weights = weights.clone();
+  }
+
+  /**
+   * Advances the system by one time-step
+   * @param system system to advance
+   * @param dt time-step in seconds
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    double drift = 0.5 * weights[0];
+    for (int k = 0; k < weights.length; k++) {
+      drift(system, drift * dt);
+      system.computeAccelerations();
+      kick(system, weights[k] * dt);
+      // The closing half drift of this step is merged with the opening one of the next
+      drift = 0.5 * (weights[k] + (k + 1 < weights.length ? weights[k + 1] : 0));
+    }
+    drift(system, drift * dt);
+  }
+
+  /**
+   * Moves the positions with the current velocities
+   * @param system system to advance
+   * @param h duration of the drift in seconds
+   */
+  static void drift(SecondOrderSystem system, double h) {
+    int n = system.size();
+    double[] x = system.getX();
+    double[] y = system.getY();
+    double[] z = system.getZ();
+    double[] vx = system.getVx();
+    double[] vy = system.getVy();
+    double[] vz = system.getVz();
+    for (int i = 0; i < n; i++) {
+      x[i] += vx[i] * h;
+      y[i] += vy[i] * h;
+      z[i] += vz[i] * h;
+    }
+  }
+
+  /**
+   * Changes the velocities with the current accelerations
+   * @param system system to advance
+   * @param h duration of the kick in seconds
+   */
+  static void kick(SecondOrderSystem system, double h) {
+    int n = system.size();
+    double[] vx = system.getVx();
+    double[] vy = system.getVy();
+    double[] vz = system.getVz();
+    double[] ax = system.getAx();
+    double[] ay = system.getAy();
+    double[] az = system.getAz();
+    for (int i = 0; i < n; i++) {
+      vx[i] += ax[i] * h;
+      vy[i] += ay[i] * h;
+      vz[i] += az[i] * h;
+    }
+  }
+
+  /**
+   * Getter for the weights of the leapfrog steps
+   * @return copy of the weights
+   */
+  public double[] getWeights() {
+    return weights.clone();
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return name;
+  }
+}
@@ -0,0 +1,107 @@
+package lib;
+
+/**
+ * Disjoint sets over the integers 0 to n - 1 (union-find), with union by size
+ * and path halving so that any sequence of operations runs in nearly linear
+ * time. Used to group bodies that are connected by a chain of contacts.
+ *
+ * The arrays are kept by reset(), so the structure can be reused without
+ * allocating once it is large enough.
+ */
+public class UnionFind {
+  private int[] parent; // Parent of each element, roots are their own parent
+  private int[] size; // Number of elements in the set of each root
+  private int count = 0; // Number of elements
+  private int nbSets = 0; // Number of disjoint sets
+
+  /**
+   * Constructor for a structure of n singletons
+   * @param n number of elements
+   */
+  public UnionFind(int n) {
+    parent = new int[0];
+    size = new int[0];
+    reset(n);
+  }
+
+  /**
+   * Puts every element back in its own set
+   * @param n new number of elements
+   */
+  public void reset(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException("The number of elements cannot be negative");
+    }
+    if (parent.length < n) {
+      parent = new int[Math.max(n, 2 * parent.length)];
+      size = new int[parent.length];
+    }
+    for (int i = 0; i < n; i++) {
+      parent[i] = i;
+      size[i] = 1;
+    }
+    count = n;
+    nbSets = n;
+  }
+
+  /**
+   * Finds the representative of the set of an element
+   * @param i element
+   * @return root of the set holding i
+   */
+  public int find(int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]]; // Path halving
+      i = parent[i];
+    }
+    return i;
+  }
+
+  /**
+   * Merges the sets of two elements
+   * @param i first element
+   * @param j second element
+   * @return true if they were in different sets
+   */
+  public boolean union(int i, int j) {
+    int a = find(i);
+    int b = find(j);
+    if (a == b) {
+      return false;
+    }
+    if (size[a] < size[b]) { // The smaller tree goes under the larger one
+      int t = a;
+      a = b;
+      b = t;
+    }
+    parent[b] = a;
+    size[a] += size[b];
+    nbSets--;
+    return true;
+  }
+
+  /**
+   * Getter for the number of elements in the set of an element
+   * @param i element
+   * @return size of the set holding i
+   */
+  public int setSize(int i) {
+    return size[find(i)];
+  }
+
+  /**
+   * Getter for the number of elements
+   * @return number of elements
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Getter for the number of disjoint sets
+   * @return number of sets
+   */
+  public int getNbSets() {
+    return nbSets;
+  }
+}
@@ -0,0 +1,334 @@
+package lib;
+
+/**
+ * Wisdom-Holman symplectic mapping for systems dominated by one central body,
+ * in democratic heliocentric coordinates (Duncan, Levison and Lee 1998).
+ *
+ * The motion is split in three parts that can each be solved exactly:
+ * - the Kepler orbit of every body around the central body, solved
+ *   analytically with universal variables,
+ * - the pull between the other bodies (interaction kick), computed with the
+ *   accelerations of the system minus the pull of the central body,
+ * - the motion of the central body (jump), shifting every heliocentric
+ *   position by the total momentum of the other bodies.
+ *
+ * Since the Kepler part is exact, the error only comes from the small pulls
+ * between planets, so steps can be a sizable fraction of the innermost orbital
+ * period. One force evaluation per step.
+ *
+ * The central body is the most massive body of the system. Heliocentric
+ * positions and barycentric velocities are stored in the arrays of the system
+ * during the step, and converted back at its end.
+ */
+public class WisdomHolman implements ODESolver {
+  private static final int MAX_ITERATIONS = 50; // Newton iterations of the Kepler solve
+  private static final int MAX_SPLITS = 20; // Times a Kepler drift may be halved when the solve fails
+
+  private double[] kepler = new double[6]; // Result of the last Kepler drift (x, y, z, vx, vy, vz)
+
+  /**
+   * Advances the system by one time-step: half jump, half Kepler drift,
+   * interaction kick, half Kepler drift, half jump
+   * @param system system to advance
+   * @param dt time-step in seconds
+   */
+  @Override
+  public void step(SecondOrderSystem system, double dt) {
+    int n = system.size();
+    if (n < 2) {
+      SymplecticComposition.drift(system, dt);
+      return;
+    }
+    double[] x = system.getX();
+    double[] y = system.getY();
+    double[] z = system.getZ();
+    double[] vx = system.getVx();
+    double[] vy = system.getVy();
+    double[] vz = system.getVz();
+    double[] m = system.getMass();
+
+    int star = 0;
+    double totalMass = 0;
+    for (int i = 0; i < n; i++) {
+      totalMass += m[i];
+      if (m[i] > m[star]) {
+        star = i;
+      }
+    }
+    double m0 = m[star];
+    double mu = system.getGravity() * m0;
+
+    // Barycenter, which moves in a straight line
+    double cx = 0, cy = 0, cz = 0, cvx = 0, cvy = 0, cvz = 0;
+    for (int i = 0; i < n; i++) {
+      cx += m[i] * x[i] / totalMass;
+      cy += m[i] * y[i] / totalMass;
+      cz += m[i] * z[i] / totalMass;
+      cvx += m[i] * vx[i] / totalMass;
+      cvy += m[i] * vy[i] / totalMass;
+      cvz += m[i] * vz[i] / totalMass;
+    }
+
+    // Heliocentric positions and barycentric velocities
+    double x0 = x[star], y0 = y[star], z0 = z[star];
+    for (int i = 0; i < n; i++) {
+      x[i] -= x0;
+      y[i] -= y0;
+      z[i] -= z0;
+      vx[i] -= cvx;
+      vy[i] -= cvy;
+      vz[i] -= cvz;
+    }
+
+    jump(system, star, 0.5 * dt);
+    drift(system, star, mu, 0.5 * dt);
+    kick(system, star, mu, dt);
+    drift(system, star, mu, 0.5 * dt);
+    jump(system, star, 0.5 * dt);
+
+    // Back to the frame of the system: the central body is placed so that the
+    // barycenter is where it should be, and its velocity balances the momentum
+    double sx = 0, sy = 0, sz = 0, px = 0, py = 0, pz = 0;
+    for (int i = 0; i < n; i++) {
+      if (i == star) {
+        continue;
+      }
+      sx += m[i] * x[i];
+      sy += m[i] * y[i];
+      sz += m[i] * z[i];
+      px += m[i] * vx[i];
+      py += m[i] * vy[i];
+      pz += m[i] * vz[i];
+    }
+    x0 = cx + cvx * dt - sx / totalMass;
+    y0 = cy + cvy * dt - sy / totalMass;
+    z0 = cz + cvz * dt - sz / totalMass;
+    vx[star] = -px / m0;
+    vy[star] = -py / m0;
+    vz[star] = -pz / m0;
+    x[star] = 0;
+    y[star] = 0;
+    z[star] = 0;
+    for (int i = 0; i < n; i++) {
+      x[i] += x0;
+      y[i] += y0;
+      z[i] += z0;
+      vx[i] += cvx;
+      vy[i] += cvy;
+      vz[i] += cvz;
+    }
+  }
+
+  /**
+   * Moves the heliocentric positions with the momentum of the bodies around the
+   * central body
+   * @param system system in democratic heliocentric coordinates
+   * @param star index of the central body
+   * @param h duration in seconds
+   */
+  private void jump(SecondOrderSystem system, int star, double h) {
+    int n = system.size();
+    double[] m = system.getMass();
+    double px = 0, py = 0, pz = 0;
+    for (int i = 0; i < n; i++) {
+      if (i != star) {
+        px += m[i] * system.getVx()[i];
+        py += m[i] * system.getVy()[i];
+        pz += m[i] * system.getVz()[i];
+      }
+    }
+    double s = h / m[star];
+    for (int i = 0; i < n; i++) {
+      if (i != star) {
+        system.getX()[i] += px * s;
+        system.getY()[i] += py * s;
+        system.getZ()[i] += pz * s;
+      }
+    }
+  }
+
+  /**
+   * Changes the velocities with the pull of every body except the central one
+   * @param system system in democratic heliocentric coordinates
+   * @param star index of the central body
+   * @param mu gravitational parameter of the central body in m^3 s^-2
+   * @param h duration in seconds
+   */
+  private void kick(SecondOrderSystem system, int star, double mu, double h) {
+    int n = system.size();
+    double[] x = system.getX();
+    double[] y = system.getY();
+    double[] z = system.getZ();
+    double[] ax = system.getAx();
+    double[] ay = system.getAy();
+    double[] az = system.getAz();
+    // Accelerations do not depend on the origin, the central body sitting at 0 is fine
+    system.computeAccelerations();
+    for (int i = 0; i < n; i++) {
+      if (i == star) {
+        continue;
+      }
+      double r2 = x[i] * x[i] + y[i] * y[i] + z[i] * z[i];
+      double s = mu / (r2 * Math.sqrt(r2)); // Pull of the central body, to remove
+      system.getVx()[i] += (ax[i] + s * x[i]) * h;
+      system.getVy()[i] += (ay[i] + s * y[i]) * h;
+      system.getVz()[i] += (az[i] + s * z[i]) * h;
+    }
+  }
+
+  /**
+   * Moves every body along its Kepler orbit around the central body
+   * @param system system in democratic heliocentric coordinates
+   * @param star index of the central body
+   * @param mu gravitational parameter of the central body in m^3 s^-2
+   * @param h duration in seconds
+   */
+  private void drift(SecondOrderSystem system, int star, double mu, double h) {
+    int n = system.size();
+    double[] x = system.getX();
+    double[] y = system.getY();
+    double[] z = system.getZ();
+    double[] vx = system.getVx();
+    double[] vy = system.getVy();
+    double[] vz = system.getVz();
+    for (int i = 0; i < n; i++) {
+      if (i == star) {
+        continue;
+      }
+      keplerDrift(mu, x[i], y[i], z[i], vx[i], vy[i], vz[i], h, kepler);
+      x[i] = kepler[0];
+      y[i] = kepler[1];
+      z[i] = kepler[2];
+      vx[i] = kepler[3];
+      vy[i] = kepler[4];
+      vz[i] = kepler[5];
+    }
+  }
+
+  /**
+   * Solves the two body problem with universal variables: moves a body along its
+   * orbit (elliptic, parabolic or hyperbolic) around a fixed center
+   * @param mu gravitational parameter of the center in m^3 s^-2
+   * @param x x position relative to the center
+   * @param y y position relative to the center
+   * @param z z position relative to the center
+   * @param vx x velocity
+   * @param vy y velocity
+   * @param vz z velocity
+   * @param h duration in seconds
+   * @param out array receiving the new position and velocity
+   */
+  static void keplerDrift(double mu, double x, double y, double z, double vx, double vy, double vz,
+      double h, double[] out) {
+    keplerDrift(mu, x, y, z, vx, vy, vz, h, out, 0);
+  }
+
+  /**
+   * Same as keplerDrift, splitting the duration in two when Newton's method
+   * does not converge
+   * @param splits number of times the duration has already been halved
+   */
+  private static void keplerDrift(double mu, double x, double y, double z, double vx, double vy, double vz,
+      double h, double[] out, int splits) {
+    double r0 = Math.sqrt(x * x + y * y + z * z);
+    if (r0 == 0 || mu == 0) {
+      out[0] = x + vx * h;
+      out[1] = y + vy * h;
+      out[2] = z + vz * h;
+      out[3] = vx;
+      out[4] = vy;
+      out[5] = vz;
+      return;
+    }
+    double v2 = vx * vx + vy * vy + vz * vz;
+    double sqrtMu = Math.sqrt(mu);
+    double rv = (x * vx + y * vy + z * vz) / sqrtMu; // r0 . v0 / sqrt(mu)
+    double alpha = 2 / r0 - v2 / mu; // Inverse of the semi-major axis
+
+    // Whole periods of a bound orbit change nothing
+    double t = h;
+    if (alpha > 0) {
+      double period = 2 * Math.PI / (sqrtMu * alpha * Math.sqrt(alpha));
+      t = h - period * Math.rint(h / period);
+    }
+
+    // Newton's method on the universal Kepler equation
+    double chi = alpha > 0 ? sqrtMu * alpha * t : sqrtMu * t / r0;
+    double c = 0, s = 0, r = r0;
+    boolean converged = false;
+    for (int it = 0; it < MAX_ITERATIONS; it++) {
+      double psi = alpha * chi * chi;
+      c = stumpffC(psi);
+      s = stumpffS(psi);
+      double chi2 = chi * chi;
+      double f = rv * chi2 * c + (1 - alpha * r0) * chi2 * chi * s + r0 * chi - sqrtMu * t;
+      r = rv * chi * (1 - psi * s) + (1 - alpha * r0) * chi2 * c + r0;
+      double delta = f / r;
+      chi -= delta;
+      if (Math.abs(delta) <= 1e-15 * Math.abs(chi) || delta == 0) {
+        converged = true;
+        break;
+      }
+    }
+    if (!converged || !Double.isFinite(chi)) {
+      if (splits >= MAX_SPLITS) {
+        throw new ArithmeticException("The Kepler equation did not converge");
+      }
+      keplerDrift(mu, x, y, z, vx, vy, vz, 0.5 * h, out, splits + 1);
+      keplerDrift(mu, out[0], out[1], out[2], out[3], out[4], out[5], 0.5 * h, out, splits + 1);
+      return;
+    }
+    double psi = alpha * chi * chi;
+    c = stumpffC(psi);
+    s = stumpffS(psi);
+    double chi2 = chi * chi;
+    r = rv * chi * (1 - psi * s) + (1 - alpha * r0) * chi2 * c + r0;
+
+    // Lagrange coefficients
+    double f = 1 - chi2 * c / r0;
+    double g = t - chi2 * chi * s / sqrtMu;
+    double fDot = sqrtMu / (r * r0) * chi * (psi * s - 1);
+    double gDot = 1 - chi2 * c / r;
+    out[0] = f * x + g * vx;
+    out[1] = f * y + g * vy;
+    out[2] = f * z + g * vz;
+    out[3] = fDot * x + gDot * vx;
+    out[4] = fDot * y + gDot * vy;
+    out[5] = fDot * z + gDot * vz;
+  }
+
+  /**
+   * Stumpff function C(psi) = (1 - cos(sqrt(psi))) / psi
+   */
+  private static double stumpffC(double psi) {
+    if (psi > 1e-2) {
+      return (1 - Math.cos(Math.sqrt(psi))) / psi;
+    } else if (psi < -1e-2) {
+      return (Math.cosh(Math.sqrt(-psi)) - 1) / -psi;
+    }
+    return 1 / 2.0 - psi * (1 / 24.0 - psi * (1 / 720.0 - psi * (1 / 40320.0 - psi / 3628800.0)));
+  }
+
+  /**
+   * Stumpff function S(psi) = (sqrt(psi) - sin(sqrt(psi))) / sqrt(psi)^3
+   */
+  private static double stumpffS(double psi) {
+    if (psi > 1e-2) {
+      double sq = Math.sqrt(psi);
+      return (sq - Math.sin(sq)) / (psi * sq);
+    } else if (psi < -1e-2) {
+      double sq = Math.sqrt(-psi);
+      return (Math.sinh(sq) - sq) / (-psi * sq);
+    }
+    return 1 / 6.0 - psi * (1 / 120.0 - psi * (1 / 5040.0 - psi * (1 / 362880.0 - psi / 39916800.0)));
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Wisdom-Holman";
+  }
+}
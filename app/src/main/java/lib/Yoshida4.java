@@ -0,0 +1,17 @@
+package lib;
+
+/**
+ * Fourth order symplectic integrator made of three leapfrog steps (Yoshida's
+ * triple jump). Three force evaluations per step
+ */
+public class Yoshida4 extends SymplecticComposition {
+  private static final double W1 = 1 / (2 - Math.cbrt(2));
+  private static final double W0 = 1 - 2 * W1;
+
+  /**
+   * Constructor for the 4th order Yoshida integrator
+   */
+  public Yoshida4() {
+    super("Yoshida 4", W1, W0, W1);
+  }
+}
@@ -0,0 +1,19 @@
+package lib;
+
+/**
+ * Sixth order symplectic integrator made of seven leapfrog steps, with the
+ * weights of Yoshida's solution A. Seven force evaluations per step
+ */
+public class Yoshida6 extends SymplecticComposition {
+  private static final double W1 = -1.17767998417887;
+  private static final double W2 = 0.235573213359357;
+  private static final double W3 = 0.784513610477560;
+  private static final double W0 = 1 - 2 * (W1 + W2 + W3);
+
+  /**
+   * Constructor for the 6th order Yoshida integrator
+   */
+  public Yoshida6() {
+    super("Yoshida 6", W3, W2, W1, W0, W1, W2, W3);
+  }
+}
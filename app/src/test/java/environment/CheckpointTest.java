@@ -0,0 +1,125 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Random;
+
+import environment.gravity.GravityReport;
+import lib.Vector3D;
+
+public class CheckpointTest {
+
+  // A restored simulation holds the same bodies as the original
+  @Test
+  public void testRoundTrip() throws IOException {
+    SolarSystem original = new SolarSystem(Systems.SolarSystem);
+    GravityReport.addBelt(original.getBodies(), 20000, new Random(17)); // Several buffers worth of records
+    original.setUseStateStore(true);
+    original.stepN(3600, 1); // Gives the atmospheres a pressure
+    ArrayList<Body> bodies = original.getBodies();
+    bodies.get(2).setColor(new Color(10, 20, 30));
+    bodies.get(3).setNorth(new Vector3D(0, 1, 0));
+    bodies.get(4).setTexture(Texture.Pink);
+
+    Path file = Files.createTempFile("checkpoint", ".bin");
+    Checkpoint.save(original, file);
+    SolarSystem restored = new SolarSystem(Systems.Trappist1);
+    Checkpoint.load(restored, file);
+    Files.delete(file);
+
+    assertEquals(original.getTime(), restored.getTime());
+    assertEquals(bodies.size(), restored.getBodies().size());
+    for (int i = 0; i < bodies.size(); i++) {
+      Body a = bodies.get(i);
+      Body b = restored.getBodies().get(i);
+      assertEquals(a.getClass(), b.getClass());
+      assertEquals(a.getBodyName(), b.getBodyName());
+      assertEquals(a.getTexture(), b.getTexture());
+      assertEquals(a.getColor(), b.getColor());
+      assertEquals(a.getMass(), b.getMass());
+      assertEquals(a.getRadius(), b.getRadius());
+      assertEquals(a.getX(), b.getX());
+      assertEquals(a.getNorth().getY(), b.getNorth().getY());
+      assertEquals(a.getVel().getZ(), b.getVel().getZ());
+      if (a instanceof RockyPlanet) {
+        RockyPlanet p = (RockyPlanet) a;
+        RockyPlanet q = (RockyPlanet) b;
+        assertEquals(p.getAtm().getGas(), q.getAtm().getGas());
+        assertEquals(p.getAtm().getTemperature(), q.getAtm().getTemperature());
+        assertEquals(p.getAtm().getPressure(), q.getAtm().getPressure());
+        assertEquals(p.getHab(), q.getHab());
+      }
+    }
+  }
+
+  // A restored simulation starts a new run and goes on exactly like the original
+  @Test
+  public void testContinuation() throws IOException {
+    SolarSystem original = new SolarSystem(Systems.SolarSystem);
+    original.setUseStateStore(true);
+    original.stepN(3600, 48);
+    ArrayList<Body> bodies = original.getBodies();
+
+    Path file = Files.createTempFile("checkpoint", ".bin");
+    Checkpoint.save(original, file);
+    SolarSystem restored = new SolarSystem(Systems.Trappist1);
+    restored.setUseStateStore(true);
+    restored.stepN(60, 5);
+    Checkpoint.load(restored, file);
+    Files.delete(file);
+
+    assertEquals(original.getTime(), restored.getTime());
+    assertEquals(0, restored.getStepCount());
+    assertEquals(0, restored.getLastDt());
+    assertEquals(original.getTime(), restored.getSnapshot().getTime());
+    assertEquals(bodies.size(), restored.getSnapshot().getBodies().size());
+
+    original.stepN(3600, 24);
+    restored.stepN(3600, 24);
+    for (int i = 0; i < bodies.size(); i++) {
+      assertEquals(bodies.get(i).getX(), restored.getBodies().get(i).getX());
+      assertEquals(bodies.get(i).getY(), restored.getBodies().get(i).getY());
+    }
+  }
+
+  // Files that are not checkpoints, or cut short, are rejected
+  @Test
+  public void testInvalid() throws IOException {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    Path file = Files.createTempFile("checkpoint", ".bin");
+    Checkpoint.save(solarSystem, file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(Files.size(file) - 10);
+    }
+    assertThrows(EOFException.class, () -> Checkpoint.load(solarSystem, file));
+
+    Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    assertThrows(IOException.class, () -> Checkpoint.load(solarSystem, file));
+
+    // Out of range preset, type of the Sun, texture of the Sun and gas of Mercury
+    int sun = 32; // Size of the header
+    int mercury = sun + 126 + "Sun".length(); // Size of a record without its name and atmosphere
+    int[] offsets = { 24, sun, sun + 1, mercury + 126 + "Mercury".length() };
+    int[] values = { 999, 9 << 24, 999, 999 };
+    for (int c = 0; c < offsets.length; c++) {
+      Checkpoint.save(solarSystem, file);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+        channel.write(ByteBuffer.allocate(4).putInt(0, values[c]), offsets[c]);
+      }
+      IOException e = assertThrows(IOException.class, () -> Checkpoint.load(solarSystem, file));
+      assertEquals("Corrupted checkpoint", e.getMessage());
+    }
+    Files.delete(file);
+    assertEquals(Systems.SolarSystem.getBodies().size(), solarSystem.getBodies().size());
+  }
+}
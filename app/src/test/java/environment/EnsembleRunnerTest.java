@@ -0,0 +1,74 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import environment.EnsembleRunner.PlanetStats;
+
+public class EnsembleRunnerTest {
+
+  // Without perturbation, every member is the unperturbed run
+  @Test
+  public void testUnperturbed() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    EnsembleRunner ensemble = new EnsembleRunner(solarSystem.getBodies());
+    ensemble.setPositionSpread(0);
+    ensemble.setVelocitySpread(0);
+    PlanetStats[] stats = ensemble.run(5, 86400, 2 * 365.25 * 86400);
+    assertEquals(5, ensemble.getNbDone());
+
+    // Same run by hand, from fresh copies of the bodies
+    SolarSystem single = new SolarSystem(Systems.SolarSystem);
+    single.setUseStateStore(true);
+    ArrayList<RockyPlanet> planets = new ArrayList<RockyPlanet>();
+    for (Body body : single.getBodies()) {
+      if (body instanceof RockyPlanet) {
+        planets.add((RockyPlanet) body);
+      }
+    }
+    double[] habitable = new double[planets.size()];
+    double duration = 0;
+    for (int s = 0; s < 731; s++) {
+      single.step(86400);
+      duration += 86400;
+      for (int p = 0; p < planets.size(); p++) {
+        if (planets.get(p).getHab()) {
+          habitable[p] += 86400;
+        }
+      }
+    }
+
+    assertEquals(planets.size(), stats.length);
+    for (int p = 0; p < stats.length; p++) {
+      assertEquals(planets.get(p).getBodyName(), stats[p].getName());
+      assertEquals(5, stats[p].getCount());
+      assertEquals(habitable[p] / duration, stats[p].getMean(), 1e-12);
+      assertEquals(0, stats[p].getStandardDeviation(), 1e-12);
+      assertEquals(stats[p].getMin(), stats[p].getMax());
+    }
+  }
+
+  // The members do not depend on the number of threads running them
+  @Test
+  public void testThreads() {
+    SolarSystem solarSystem = new SolarSystem(Systems.Trappist1);
+    EnsembleRunner ensemble = new EnsembleRunner(solarSystem.getBodies());
+    ensemble.setPositionSpread(0.05);
+    ensemble.setVelocitySpread(0.05);
+    ensemble.setPool(new ForkJoinPool(1));
+    PlanetStats[] sequential = ensemble.run(12, 3600, 30 * 86400);
+    ensemble.setPool(new ForkJoinPool(3));
+    PlanetStats[] parallel = ensemble.run(12, 3600, 30 * 86400);
+    for (int p = 0; p < sequential.length; p++) {
+      assertEquals(12, parallel[p].getCount());
+      assertEquals(sequential[p].getMean(), parallel[p].getMean(), 1e-12);
+      assertEquals(sequential[p].getStandardDeviation(), parallel[p].getStandardDeviation(), 1e-12);
+      assertEquals(sequential[p].getMin(), parallel[p].getMin());
+    }
+    assertThrows(IllegalArgumentException.class, () -> ensemble.run(0, 3600, 86400));
+    assertThrows(IllegalArgumentException.class, () -> ensemble.setIntegrator("none"));
+  }
+}
@@ -0,0 +1,77 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class SimulationRunnerTest {
+
+  // Durations in seconds, hours, days and years
+  @Test
+  public void testParseTime() {
+    assertEquals(90, SimulationRunner.parseTime("90"));
+    assertEquals(90, SimulationRunner.parseTime("90s"));
+    assertEquals(7200, SimulationRunner.parseTime("2h"));
+    assertEquals(43200, SimulationRunner.parseTime("0.5d"));
+    assertEquals(365.25 * 86400, SimulationRunner.parseTime("1y"));
+  }
+
+  // Every integrator and gravity solver can be created from its name
+  @Test
+  public void testParseNames() {
+    for (String name : new String[] { "euler", "leapfrog", "yoshida4", "yoshida6", "rk4", "dopri", "block", "wh",
+        "hermite" }) {
+      assertNotNull(SimulationRunner.parseSolver(name));
+    }
+    for (String name : new String[] { "pairwise", "direct", "vector", "barneshut", "fmm" }) {
+      assertNotNull(SimulationRunner.parseGravity(name));
+    }
+    assertThrows(IllegalArgumentException.class, () -> SimulationRunner.parseSolver("verlet"));
+  }
+
+  // Scenario files hold bodies, presets and belts
+  @Test
+  public void testScenario() throws IOException {
+    Path file = Files.createTempFile("scenario", ".txt");
+    Files.write(file, Arrays.asList(
+        "# Test scenario",
+        "star Star 7e8 2e30 0 0 0 0 0 0",
+        "",
+        "rocky Rock 6e6 6e24 1.5e11 0 0 0 29800 0 Earth Earthlike 290",
+        "gassy Giant 7e7 2e27 7.8e11 0 0 0 13000 0 Jupiter",
+        "belt 50 1"));
+    SolarSystem solarSystem = Scenario.load(file.toString());
+    Files.delete(file);
+    assertEquals(53, solarSystem.getBodies().size());
+    assertTrue(solarSystem.getBodies().get(0) instanceof Star);
+    assertTrue(solarSystem.getBodies().get(1) instanceof RockyPlanet);
+    assertEquals(1.5e11, solarSystem.getBodies().get(1).getX());
+    assertTrue(solarSystem.getBodies().get(2) instanceof GassyPlanet);
+    assertEquals(53, solarSystem.getSnapshot().getBodies().size());
+    solarSystem.reset();
+    assertEquals(Systems.SolarSystem.getBodies().size(), solarSystem.getBodies().size());
+
+    assertEquals(Systems.SolarSystem.getBodies().size() + 2000,
+        Scenario.load("solar-system-belt.txt").getBodies().size());
+    assertThrows(IOException.class, () -> Scenario.load("missing.txt"));
+  }
+
+  // The run covers the whole duration and counts the evaluations
+  @Test
+  public void testRun() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    solarSystem.setUseStateStore(true);
+    solarSystem.setSolver(SimulationRunner.parseSolver("leapfrog"));
+    double e0 = solarSystem.totalEnergy();
+    SimulationRunner.Stats stats = SimulationRunner.run(solarSystem, 3600, 30 * 86400);
+    assertEquals(720, stats.nbSteps);
+    assertEquals(720, stats.nbEvaluations);
+    assertEquals(720.0 * 9 * 8, stats.interactions);
+    assertEquals(30 * 86400, solarSystem.getTime(), 1e-6);
+    assertEquals(0, (solarSystem.totalEnergy() - e0) / e0, 1e-7);
+  }
+}
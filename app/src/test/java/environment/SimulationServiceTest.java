@@ -0,0 +1,77 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lib.Vector3D;
+
+public class SimulationServiceTest {
+
+  // Single steps and runs give the same states as stepping by hand
+  @Test
+  public void testStepOnceAndRunUntil() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    SimulationService service = new SimulationService(solarSystem, new WarpController(0));
+    AtomicInteger steps = new AtomicInteger();
+    AtomicLong nanos = new AtomicLong();
+    service.addTickListener((s, n, time) -> {
+      steps.addAndGet(n);
+      nanos.addAndGet(time);
+    });
+
+    SystemSnapshot once = SimulationService.await(service.stepOnce(3600));
+    assertEquals(3600, once.getTime());
+    SystemSnapshot run = SimulationService.await(service.runUntil(10 * 86400 + 1800, 3600));
+    assertEquals(10 * 86400 + 1800, run.getTime());
+    assertSame(run, service.getSnapshot());
+    assertEquals(1 + 240, steps.get());
+    assertTrue(nanos.get() > 0);
+    assertTrue(service.isPaused());
+    assertEquals(0, service.getTicks());
+
+    SolarSystem reference = new SolarSystem(Systems.SolarSystem);
+    reference.step(3600);
+    reference.advanceTo(10 * 86400 + 1800, 3600);
+    assertEquals(reference.getBodies().get(3).getX(), run.getBodies().get(3).getX());
+    assertThrows(IllegalArgumentException.class, () -> SimulationService.await(service.runUntil(0, 3600)));
+    assertTrue(service.shutdown(1000));
+  }
+
+  // Paused ticks apply the commands without stepping, running ticks step at the requested speed
+  @Test
+  public void testTicks() throws InterruptedException {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    WarpController warp = new WarpController(3600 * 50); // An hour per tick of 20 ms
+    SimulationService service = new SimulationService(solarSystem, warp);
+    int n = solarSystem.getBodies().size();
+    CountDownLatch pausedTicks = new CountDownLatch(3);
+    CountDownLatch steppingTicks = new CountDownLatch(3);
+    service.addTickListener((s, steps, nanos) -> (steps > 0 ? steppingTicks : pausedTicks).countDown());
+    Body rock = new CrashedPlanet(1e6, 1e20, new Vector3D(3e12, 0, 0), new Vector3D(), "Rock");
+    solarSystem.postAddBody(rock);
+    service.start();
+    assertTrue(pausedTicks.await(10, TimeUnit.SECONDS));
+    assertEquals(0, service.getSnapshot().getTime());
+    assertEquals(n + 1, service.getSnapshot().getBodies().size());
+    assertEquals(3, steppingTicks.getCount());
+    assertTrue(service.getTicks() >= 3);
+
+    service.resume();
+    assertTrue(steppingTicks.await(10, TimeUnit.SECONDS));
+    service.pause();
+    // The ticks queued before the pause are over once a task queued after it has run
+    SimulationService.await(service.execute(() -> { }));
+    double time = service.getSnapshot().getTime();
+    assertEquals(time, SimulationService.await(service.stepOnce(0)).getTime());
+    assertTrue(time > 0);
+    assertEquals(0, time % 3600, 1e-6);
+    assertEquals(3600, warp.getDt());
+    assertTrue(warp.getStepCost() > 0);
+    assertTrue(service.shutdown(1000));
+  }
+}
@@ -0,0 +1,179 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Random;
+
+import environment.gravity.GravityReport;
+import lib.Vector3D;
+
+public class SolarSystemTest {
+
+  /**
+   * Checks that two systems hold the same bodies in the same states
+   */
+  private void assertSameSystems(SolarSystem expected, SolarSystem actual) {
+    assertEquals(expected.getTime(), actual.getTime());
+    ArrayList<Body> a = expected.getBodies();
+    ArrayList<Body> b = actual.getBodies();
+    assertEquals(a.size(), b.size());
+    for (int i = 0; i < a.size(); i++) {
+      assertEquals(a.get(i).getMass(), b.get(i).getMass());
+      assertEquals(a.get(i).getX(), b.get(i).getX());
+      assertEquals(a.get(i).getY(), b.get(i).getY());
+      assertEquals(a.get(i).getZ(), b.get(i).getZ());
+      assertEquals(a.get(i).getVel().getX(), b.get(i).getVel().getX());
+      if (a.get(i) instanceof RockyPlanet) {
+        RockyPlanet p = (RockyPlanet) a.get(i);
+        RockyPlanet q = (RockyPlanet) b.get(i);
+        assertEquals(p.getAtm().getTemperature(), q.getAtm().getTemperature());
+        assertEquals(p.getHab(), q.getHab());
+      }
+    }
+  }
+
+  // A batch of steps gives exactly the same bodies and climates as single steps
+  @Test
+  public void testStepN() {
+    for (Systems system : Systems.values()) {
+      for (boolean useStateStore : new boolean[] { false, true }) {
+        SolarSystem single = new SolarSystem(system);
+        SolarSystem batch = new SolarSystem(system);
+        GravityReport.addBelt(single.getBodies(), 200, new Random(15));
+        GravityReport.addBelt(batch.getBodies(), 200, new Random(15));
+        single.setUseStateStore(useStateStore);
+        batch.setUseStateStore(useStateStore);
+        for (int s = 0; s < 300; s++) {
+          single.step(3600);
+        }
+        batch.stepN(3600, 100);
+        batch.stepN(3600, 200);
+        assertSameSystems(single, batch);
+      }
+    }
+  }
+
+  // Crashes in the middle of a batch are handled as with single steps
+  @Test
+  public void testStepNCrash() {
+    SolarSystem single = new SolarSystem(Systems.SolarSystem);
+    SolarSystem batch = new SolarSystem(Systems.SolarSystem);
+    for (SolarSystem solarSystem : new SolarSystem[] { single, batch }) {
+      solarSystem.setUseStateStore(true);
+      Body earth = solarSystem.getBodies().get(3);
+      Vector3D pos = Vector3D.add(earth.getPos(), new Vector3D(0, 5e8, 0));
+      Vector3D vel = Vector3D.add(earth.getVel(), new Vector3D(0, -6e3, 0)); // Hits the Earth after about a day
+      solarSystem.getBodies().add(new CrashedPlanet(1e5, 1e12, pos, vel, "Impactor"));
+    }
+    for (int s = 0; s < 48; s++) {
+      single.step(3600);
+    }
+    batch.stepN(3600, 48);
+    assertEquals(Systems.SolarSystem.getBodies().size(), batch.getBodies().size());
+    assertSameSystems(single, batch);
+  }
+
+  // Advancing to a time lands exactly on it
+  @Test
+  public void testAdvanceTo() {
+    SolarSystem solarSystem = new SolarSystem(Systems.Trappist1);
+    solarSystem.setUseStateStore(true);
+    solarSystem.advanceTo(86400 * 2.5, 3600 * 5);
+    assertEquals(86400 * 2.5, solarSystem.getTime());
+    solarSystem.advanceTo(86400 * 3, 600);
+    assertEquals(86400 * 3, solarSystem.getTime());
+    assertThrows(IllegalArgumentException.class, () -> solarSystem.advanceTo(0, 600));
+  }
+
+  // A snapshot keeps the bodies as they were when it was published
+  @Test
+  public void testSnapshot() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    solarSystem.getBodies().get(1).setColor(Color.RED);
+    SystemSnapshot snapshot = solarSystem.publishSnapshot();
+    Body earth = solarSystem.getBodies().get(3);
+    double x = earth.getX();
+    solarSystem.stepN(3600, 24);
+
+    assertSame(snapshot, solarSystem.getSnapshot());
+    assertEquals(0, snapshot.getTime());
+    assertEquals(x, snapshot.getBodies().get(3).getX());
+    assertSame(earth, snapshot.getOriginals().get(3));
+    assertTrue(snapshot.getBodies().get(3) != earth);
+    assertEquals(Color.RED, snapshot.getBodies().get(1).getColor());
+    assertThrows(UnsupportedOperationException.class, () -> snapshot.getBodies().remove(0));
+
+    SystemSnapshot next = solarSystem.publishSnapshot();
+    assertEquals(24 * 3600, next.getTime());
+    assertEquals(24, next.getStepCount());
+    assertEquals(earth.getX(), next.getBodies().get(3).getX());
+
+    // The copies keep the live atmosphere of the planets
+    RockyPlanet live = (RockyPlanet) earth;
+    RockyPlanet copy = (RockyPlanet) next.getBodies().get(3);
+    assertEquals(live.getHab(), copy.getHab());
+    assertEquals(live.getAtm().getTemperature(), copy.getAtm().getTemperature());
+    assertEquals(live.getAtm().getPressure(), copy.getAtm().getPressure());
+    assertTrue(live.getAtm().getPressure() > 0);
+  }
+
+  // Snapshots steps apart are blended, others are not
+  @Test
+  public void testInterpolate() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    solarSystem.step(3600);
+    SystemSnapshot previous = solarSystem.publishSnapshot();
+    solarSystem.step(3600);
+    SystemSnapshot current = solarSystem.publishSnapshot();
+
+    SystemSnapshot half = SystemSnapshot.interpolate(previous, current, 0.25);
+    double x0 = previous.getBodies().get(3).getX();
+    double x1 = current.getBodies().get(3).getX();
+    assertEquals(x0 + 0.25 * (x1 - x0), half.getBodies().get(3).getX(), 1e-3);
+    assertEquals(1.25 * 3600, half.getTime(), 1e-9);
+    assertEquals(x0, SystemSnapshot.interpolate(previous, current, 0).getBodies().get(3).getX());
+    assertSame(current, SystemSnapshot.interpolate(previous, current, 1));
+    assertSame(current.getOriginals(), half.getOriginals());
+
+    // Two steps apart, in the wrong order, or different bodies
+    solarSystem.step(3600);
+    SystemSnapshot later = solarSystem.publishSnapshot();
+    assertEquals(2 * 3600, SystemSnapshot.interpolate(previous, later, 0.5).getTime(), 1e-9);
+    assertSame(previous, SystemSnapshot.interpolate(later, previous, 0.5));
+    solarSystem.getBodies().remove(1);
+    SystemSnapshot removed = new SystemSnapshot(solarSystem.getBodies(), current.getTime() + 3600, current.getStepCount() + 1);
+    assertSame(removed, SystemSnapshot.interpolate(current, removed, 0.5));
+  }
+
+  // Posted changes wait for the next step and run in the order they were posted
+  @Test
+  public void testCommands() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    int n = solarSystem.getBodies().size();
+    Body earth = solarSystem.getBodies().get(3);
+    Body rock = new CrashedPlanet(1e6, 1e20, new Vector3D(3e12, 0, 0), new Vector3D(), "Rock");
+    Vector3D velocity = new Vector3D(1, 2, 3);
+    solarSystem.postAddBody(rock);
+    solarSystem.postSetVelocity(rock, velocity);
+    solarSystem.postRemoveBody(earth);
+    solarSystem.postRemoveBody(earth); // Already gone, nothing happens
+    velocity.setX(100); // The velocity was copied when posted
+    assertEquals(n, solarSystem.getBodies().size());
+
+    solarSystem.step(0);
+    assertEquals(n, solarSystem.getBodies().size());
+    assertSame(rock, solarSystem.getBodies().get(n - 1));
+    assertFalse(solarSystem.getBodies().contains(earth));
+    assertEquals(1, rock.getVel().getX());
+    assertEquals(0, solarSystem.applyCommands());
+
+    solarSystem.step(3600);
+    solarSystem.postSetSystem(Systems.Trappist1);
+    assertEquals(1, solarSystem.applyCommands());
+    assertEquals(0, solarSystem.getTime());
+    assertEquals(new SolarSystem(Systems.Trappist1).getBodies().size(), solarSystem.getBodies().size());
+  }
+}
@@ -0,0 +1,161 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+
+import lib.Vector3D;
+
+public class TimelineTest {
+
+  // Seeking anywhere gives back exactly the states of the original run
+  @Test
+  public void testSeek() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    Timeline timeline = new Timeline(solarSystem, 64, 1L << 30);
+    solarSystem.stepN(3600, 300);
+    double[] x300 = positions(solarSystem);
+    double t300 = solarSystem.getTime();
+    solarSystem.stepN(1800, 250); // Another time step
+    double[] xEnd = positions(solarSystem);
+    double tEnd = solarSystem.getTime();
+    assertEquals(550, timeline.getLength());
+    assertEquals(tEnd, timeline.getEndTime());
+
+    timeline.seek(300);
+    assertEquals(t300, solarSystem.getTime());
+    assertArrayEquals(x300, positions(solarSystem));
+    timeline.seek(550);
+    assertEquals(tEnd, solarSystem.getTime());
+    assertArrayEquals(xEnd, positions(solarSystem));
+    timeline.seekTime(t300 + 1000);
+    assertEquals(300, timeline.getPosition());
+    assertArrayEquals(x300, positions(solarSystem));
+    timeline.seek(0);
+    assertEquals(0, solarSystem.getTime());
+    assertThrows(IllegalArgumentException.class, () -> timeline.seek(551));
+
+    // Stepping from the past replaces the rest of the run
+    timeline.seek(100);
+    solarSystem.stepN(3600, 5);
+    assertEquals(105, timeline.getLength());
+    assertEquals(105, timeline.getPosition());
+  }
+
+  // Over the memory budget, keyframes are thinned out and seeks stay exact
+  @Test
+  public void testBudget() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    solarSystem.setUseStateStore(true);
+    Timeline timeline = new Timeline(solarSystem, 8, 20000);
+    solarSystem.stepN(3600, 700);
+    double[] x = positions(solarSystem);
+    solarSystem.stepN(3600, 300);
+    assertTrue(timeline.getInterval() > 8);
+    assertTrue(timeline.getNbKeyframes() <= 1000 / timeline.getInterval() + 1);
+    timeline.seek(700);
+    assertArrayEquals(x, positions(solarSystem));
+  }
+
+  // Seeking to a time gone through both ways picks the closest step that went through it
+  @Test
+  public void testBackwards() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    Timeline timeline = new Timeline(solarSystem, 64, 1L << 30);
+    solarSystem.stepN(3600, 100);
+    solarSystem.stepN(-3600, 50);
+    assertEquals(50 * 3600, solarSystem.getTime());
+
+    timeline.seekTime(75 * 3600);
+    assertEquals(125, timeline.getPosition());
+    assertEquals(75 * 3600, solarSystem.getTime());
+    timeline.seek(10);
+    timeline.seekTime(75 * 3600);
+    assertEquals(75, timeline.getPosition());
+    assertEquals(75 * 3600, solarSystem.getTime());
+    timeline.seekTime(-3600); // Never reached, the closest time is the start
+    assertEquals(0, timeline.getPosition());
+  }
+
+  // Once the runs fill their share of the budget, the older history is forgotten
+  @Test
+  public void testRunBudget() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    Timeline timeline = new Timeline(solarSystem, 8, 1000); // 16 runs at most
+    for (int s = 0; s < 100; s++) {
+      solarSystem.step(s % 2 == 0 ? 3600 : 1800);
+    }
+    double[] x = positions(solarSystem);
+    double t = solarSystem.getTime();
+    assertTrue(timeline.getFirstStep() > 50);
+    assertTrue(timeline.getStartTime() > 0);
+    assertThrows(IllegalArgumentException.class, () -> timeline.seek(timeline.getFirstStep() - 1));
+
+    timeline.seek(timeline.getFirstStep());
+    timeline.seekTime(t);
+    assertEquals(100, timeline.getPosition());
+    assertArrayEquals(x, positions(solarSystem));
+  }
+
+  // Replays start again from the bodies as they were edited
+  @Test
+  public void testEdited() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    int n = solarSystem.getBodies().size();
+    Timeline timeline = new Timeline(solarSystem, 64, 1L << 30);
+    solarSystem.stepN(3600, 50);
+    solarSystem.getBodies().add(new CrashedPlanet(1e6, 1e20, new Vector3D(3e12, 0, 0), new Vector3D(), "Rock"));
+    timeline.edited();
+    solarSystem.stepN(3600, 50);
+
+    timeline.seek(10);
+    assertEquals(n, solarSystem.getBodies().size());
+    timeline.seek(60);
+    assertEquals(n + 1, solarSystem.getBodies().size());
+  }
+
+  // Commands posted during a batch wait for the next one, and count as edits
+  @Test
+  public void testPostedDuringBatch() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    int n = solarSystem.getBodies().size();
+    Timeline timeline = new Timeline(solarSystem, 64, 1L << 30);
+    Body rock = new CrashedPlanet(1e6, 1e20, new Vector3D(3e12, 0, 0), new Vector3D(), "Rock");
+    solarSystem.addStepListener((system, state) -> {
+      if (system.getStepCount() == 10) {
+        system.postAddBody(rock);
+      }
+    });
+    solarSystem.stepN(3600, 40);
+    assertEquals(n, solarSystem.getBodies().size());
+
+    // Replays leave it pending
+    timeline.seek(5);
+    timeline.seek(40);
+    assertEquals(n, solarSystem.getBodies().size());
+    assertEquals(40 * 3600, solarSystem.getTime());
+
+    solarSystem.stepN(3600, 20);
+    assertEquals(n + 1, solarSystem.getBodies().size());
+    timeline.seek(20);
+    assertEquals(n, solarSystem.getBodies().size());
+    timeline.seek(60);
+    assertEquals(n + 1, solarSystem.getBodies().size());
+    assertEquals("Rock", solarSystem.getBodies().get(n).getBodyName());
+  }
+
+  /**
+   * Lists the x coordinates of the bodies
+   * @param solarSystem system to read
+   * @return x coordinate of each body
+   */
+  private static double[] positions(SolarSystem solarSystem) {
+    ArrayList<Body> bodies = solarSystem.getBodies();
+    double[] x = new double[bodies.size()];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = bodies.get(i).getX();
+    }
+    return x;
+  }
+}
@@ -0,0 +1,95 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+public class TrajectoryRecorderTest {
+
+  // Frames hold the bodies as they are after the recorded steps, across several chunks
+  @Test
+  public void testFrames() throws IOException {
+    SolarSystem recorded = new SolarSystem(Systems.SolarSystem);
+    recorded.setUseStateStore(true);
+    int n = recorded.getBodies().size();
+    Path file = Files.createTempFile("trajectory", ".bin");
+    TrajectoryRecorder recorder = new TrajectoryRecorder(file, n, 2,
+        (int) (3 * TrajectoryRecorder.recordSize(n))); // 3 frames per chunk
+    recorded.addStepListener(recorder);
+    recorded.stepN(3600, 2);
+    assertFalse(recorder.isNextChunkRequested());
+    recorded.stepN(3600, 2);
+    assertTrue(recorder.isNextChunkRequested()); // Mapped ahead once the chunk is half full
+    recorded.stepN(3600, 10);
+    recorded.step(3600); // Not recorded
+    recorder.close();
+    assertEquals(7, recorder.getNbFrames());
+
+    SolarSystem reference = new SolarSystem(Systems.SolarSystem);
+    reference.setUseStateStore(true);
+    try (TrajectoryReader reader = new TrajectoryReader(file)) {
+      assertEquals(7, reader.getNbFrames());
+      assertEquals(n, reader.getCapacity());
+      assertEquals(2, reader.getInterval());
+      for (long frame = 0; frame < reader.getNbFrames(); frame++) {
+        reference.stepN(3600, 2);
+        ArrayList<Body> bodies = reference.getBodies();
+        assertEquals(reference.getTime(), reader.getTime(frame));
+        assertEquals(2 * (frame + 1), reader.getStep(frame));
+        assertEquals(n, reader.getNbBodies(frame));
+        DoubleBuffer y = reader.getColumn(frame, TrajectoryReader.Y);
+        assertEquals(n, y.remaining());
+        for (int i = 0; i < n; i++) {
+          Body body = bodies.get(i);
+          assertEquals(body.getX(), reader.get(frame, TrajectoryReader.X, i));
+          assertEquals(body.getY(), y.get(i));
+          assertEquals(body.getVel().getZ(), reader.get(frame, TrajectoryReader.VZ, i));
+          boolean habitable = body instanceof RockyPlanet && ((RockyPlanet) body).getHab();
+          assertEquals(habitable, reader.isHabitable(frame, i));
+        }
+      }
+      assertThrows(IndexOutOfBoundsException.class, () -> reader.getTime(7));
+    }
+    Files.delete(file);
+  }
+
+  // Steps on the Body objects are recorded too
+  @Test
+  public void testWithoutStateStore() throws IOException {
+    SolarSystem solarSystem = new SolarSystem(Systems.Trappist1);
+    int n = solarSystem.getBodies().size();
+    Path file = Files.createTempFile("trajectory", ".bin");
+    try (TrajectoryRecorder recorder = new TrajectoryRecorder(file, n, 1)) {
+      solarSystem.addStepListener(recorder);
+      solarSystem.step(3600);
+      solarSystem.step(3600);
+    }
+    try (TrajectoryReader reader = new TrajectoryReader(file)) {
+      assertEquals(2, reader.getNbFrames());
+      for (int i = 0; i < n; i++) {
+        assertEquals(solarSystem.getBodies().get(i).getZ(), reader.get(1, TrajectoryReader.Z, i));
+      }
+    }
+    Files.delete(file);
+  }
+
+  // More bodies than the capacity, or a file that is not a trajectory, are rejected
+  @Test
+  public void testInvalid() throws IOException {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    Path file = Files.createTempFile("trajectory", ".bin");
+    try (TrajectoryRecorder recorder = new TrajectoryRecorder(file, 2, 1)) {
+      solarSystem.addStepListener(recorder);
+      assertThrows(IllegalStateException.class, () -> solarSystem.step(3600));
+    }
+    assertThrows(IllegalArgumentException.class, () -> new TrajectoryRecorder(file, 0, 1));
+    Checkpoint.save(solarSystem, file);
+    assertThrows(IOException.class, () -> new TrajectoryReader(file));
+    Files.delete(file);
+  }
+}
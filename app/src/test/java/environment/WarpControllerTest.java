@@ -0,0 +1,57 @@
+package environment;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WarpControllerTest {
+  private static final long TICK = 20_000_000L; // 50 ticks per second
+  private static final long FRAME = 16_000_000L;
+
+  // Enough steps of at most the largest time step while they fit in the budget
+  @Test
+  public void testPlan() {
+    WarpController warp = new WarpController(365.25 * 86400 / 10); // A year in 10 s
+    warp.setMaxDt(3600);
+    double span = 365.25 * 86400 / 10 / 50;
+    assertEquals(1, warp.plan(TICK, FRAME)); // Not measured yet
+    assertEquals(3600, warp.getDt());
+
+    warp.recordSteps(100, 100 * 10_000L); // 10 us per step
+    int steps = warp.plan(TICK, FRAME);
+    assertEquals((int) Math.ceil(span / 3600), steps);
+    assertEquals(span / steps, warp.getDt(), 1e-9);
+    assertEquals(warp.getWarp(), warp.getAchievedWarp(), 1e-6);
+
+    // Slower steps (more bodies): fewer steps of the largest time step
+    for (int i = 0; i < 50; i++) {
+      warp.recordSteps(1, 2_000_000L);
+    }
+    steps = warp.plan(TICK, FRAME);
+    assertTrue(steps < span / 3600);
+    assertEquals((int) (0.75 * TICK / warp.getStepCost()), steps);
+    assertEquals(3600, warp.getDt());
+    assertTrue(warp.getAchievedWarp() < warp.getWarp());
+
+    // Frames take their share of the budget
+    warp.recordFrame(8_000_000L);
+    assertEquals((int) ((0.75 - 0.5) * TICK / warp.getStepCost()), warp.plan(TICK, FRAME));
+    warp.recordFrame(100_000_000L);
+    assertEquals(1, warp.plan(TICK, FRAME));
+  }
+
+  // Going back in time and pausing
+  @Test
+  public void testSign() {
+    WarpController warp = new WarpController(-50);
+    warp.recordSteps(1, 1000);
+    assertEquals(1, warp.plan(TICK, FRAME));
+    assertEquals(-1, warp.getDt(), 1e-12);
+    warp.setWarp(0);
+    assertEquals(1, warp.plan(TICK, FRAME));
+    assertEquals(0, warp.getDt());
+    assertEquals(0, warp.getAchievedWarp());
+    assertThrows(IllegalArgumentException.class, () -> warp.setMaxDt(0));
+    assertThrows(IllegalArgumentException.class, () -> warp.setBudget(1.5));
+    assertThrows(IllegalArgumentException.class, () -> warp.plan(0, FRAME));
+  }
+}
@@ -0,0 +1,156 @@
+package environment.collision;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import environment.Body;
+import environment.BodyState;
+import environment.CrashedPlanet;
+import environment.SolarSystem;
+import environment.Systems;
+import lib.Vector3D;
+
+public class SweepAndPruneTest {
+
+  /**
+   * Creates a cloud of bodies of very different radii, dense enough for many of
+   * them to touch
+   */
+  private ArrayList<Body> cloud(int nb, Random rand) {
+    ArrayList<Body> bodies = new ArrayList<Body>();
+    for (int i = 0; i < nb; i++) {
+      Vector3D pos = new Vector3D(rand.nextDouble(), rand.nextDouble(), rand.nextDouble()).scale(1e9);
+      double radius = Math.pow(10, 5 + 2.5 * rand.nextDouble());
+      bodies.add(new CrashedPlanet(radius, 1e20, pos, new Vector3D(0, 0, 0), "Body " + i));
+    }
+    return bodies;
+  }
+
+  /**
+   * Checks the pairs found against every pair of the store
+   */
+  private void assertSameContacts(SweepAndPrune sweep, BodyState state) {
+    int n = state.size();
+    boolean[][] found = new boolean[n][n];
+    int nb = sweep.findContacts(state);
+    for (int k = 0; k < nb; k++) {
+      assertTrue(sweep.getFirst()[k] < sweep.getSecond()[k]);
+      assertFalse(found[sweep.getFirst()[k]][sweep.getSecond()[k]]);
+      found[sweep.getFirst()[k]][sweep.getSecond()[k]] = true;
+    }
+    int expected = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        assertEquals(SweepAndPrune.overlaps(state, i, j), found[i][j]);
+        expected += found[i][j] ? 1 : 0;
+      }
+    }
+    assertEquals(expected, nb);
+  }
+
+  // The sweep finds the same pairs as a check of every pair, whether the
+  // previous order is reused or not
+  @Test
+  public void testMatchesAllPairs() {
+    Random rand = new Random(12);
+    BodyState state = new BodyState(0);
+    state.pull(cloud(2000, rand));
+    SweepAndPrune sweep = new SweepAndPrune();
+    assertSameContacts(sweep, state);
+    assertFalse(sweep.wasOrderReused());
+    assertTrue(sweep.getNbContacts() > 10);
+
+    // Small moves, sorted again from the previous order
+    for (int i = 0; i < state.size(); i++) {
+      state.getX()[i] += 1e6 * rand.nextGaussian();
+    }
+    assertSameContacts(sweep, state);
+    assertTrue(sweep.wasOrderReused());
+
+    // Everything shuffled
+    for (int i = 0; i < state.size(); i++) {
+      state.getX()[i] = 1e9 * rand.nextDouble();
+    }
+    assertSameContacts(sweep, state);
+  }
+
+  // Bodies far apart are not crashed, a body moved onto another is
+  @Test
+  public void testFindCrashes() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    ArrayList<Body> bodies = solarSystem.getBodies();
+    assertEquals(0, solarSystem.findCrashes(bodies).size());
+
+    Body first = bodies.get(1);
+    Body second = bodies.get(3);
+    second.setPos(Vector3D.add(first.getPos(), new Vector3D(0.5 * first.getRadius(), 0, 0)));
+    ArrayList<Body> crashed = solarSystem.findCrashes(bodies);
+    assertEquals(2, crashed.size());
+    assertSame(first, crashed.get(0));
+    assertSame(second, crashed.get(1));
+  }
+
+  // Earliest time at which two bodies moving in a straight line touch
+  @Test
+  public void testContactTime() {
+    assertEquals(0.45, SweepAndPrune.contactTime(10, 0, 0, -10, 0, 0, 1), 1e-12);
+    assertEquals(0, SweepAndPrune.contactTime(0.5, 0, 0, 10, 0, 0, 1));
+    assertEquals(-1, SweepAndPrune.contactTime(10, 2, 0, -10, 2, 0, 1));
+    assertEquals(-1, SweepAndPrune.contactTime(10, 0, 0, 20, 0, 0, 1));
+    assertEquals(-1, SweepAndPrune.contactTime(10, 0, 0, 2, 0, 0, 1));
+  }
+
+  // Two fast bodies crossing each other within a step are combined only with the
+  // continuous detection, which is off by default, on both step paths
+  @Test
+  public void testTunneling() {
+    assertFalse(new SolarSystem(Systems.SolarSystem).getContinuousCollisions());
+    for (boolean useStateStore : new boolean[] { false, true }) {
+      for (boolean continuous : new boolean[] { false, true }) {
+        SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+        ArrayList<Body> bodies = solarSystem.getBodies();
+        bodies.clear();
+        bodies.add(new CrashedPlanet(1e6, 1e10, new Vector3D(-1e8, 0, 0), new Vector3D(1e4, 0, 0), "First"));
+        bodies.add(new CrashedPlanet(1e6, 1e10, new Vector3D(1e8, 5e5, 0), new Vector3D(-1e4, 0, 0), "Second"));
+        solarSystem.setUseStateStore(useStateStore);
+        solarSystem.setContinuousCollisions(continuous);
+        solarSystem.step(86400);
+
+        bodies = solarSystem.getBodies();
+        assertEquals(continuous ? 1 : 2, bodies.size());
+        if (continuous) {
+          assertEquals(2e10, bodies.get(0).getMass());
+          assertEquals(0, bodies.get(0).getVel().len(), 1e-9);
+        }
+      }
+    }
+  }
+
+  // Two unrelated crashes of the same step give two bodies, a chain of contacts
+  // gives one, and the other bodies keep their order
+  @Test
+  public void testSeparateCrashes() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    ArrayList<Body> bodies = solarSystem.getBodies();
+    bodies.clear();
+    double[] xs = { 0, 1e10, 1.5e6, 2e10, 1e10 + 1.5e6, 1e10 + 3e6, 3e10 };
+    for (int i = 0; i < xs.length; i++) {
+      bodies.add(new CrashedPlanet(2e6, 1e10, new Vector3D(xs[i], 0, 0), new Vector3D(0, 0, 0), "Body " + i));
+    }
+    Body alone = bodies.get(3);
+    Body last = bodies.get(6);
+    solarSystem.step(1);
+
+    bodies = solarSystem.getBodies();
+    assertEquals(4, bodies.size());
+    assertEquals(2e10, bodies.get(0).getMass());
+    assertEquals(7.5e5, bodies.get(0).getX(), 1);
+    assertEquals(3e10, bodies.get(1).getMass());
+    assertEquals(1e10 + 1.5e6, bodies.get(1).getX(), 1);
+    assertSame(alone, bodies.get(2));
+    assertSame(last, bodies.get(3));
+  }
+}
@@ -0,0 +1,64 @@
+package environment.gravity;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import environment.BodyState;
+import environment.SolarSystem;
+import environment.Systems;
+
+public class BarnesHutGravityTest {
+
+  /**
+   * Computes the accelerations of the default system with an asteroid belt with
+   * both solvers and returns the largest relative difference
+   */
+  private double maxRelativeError(Systems system, GravitySolver solver) {
+    SolarSystem solarSystem = new SolarSystem(system);
+    GravityReport.addBelt(solarSystem.getBodies(), 500, new Random(1));
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+
+    new DirectGravity().computeAccelerations(state, solarSystem.getGravity());
+    double[] refX = state.getAx().clone();
+    double[] refY = state.getAy().clone();
+    double[] refZ = state.getAz().clone();
+    solver.computeAccelerations(state, solarSystem.getGravity());
+
+    double maxErr = 0;
+    for (int i = 0; i < state.size(); i++) {
+      double ex = state.getAx()[i] - refX[i];
+      double ey = state.getAy()[i] - refY[i];
+      double ez = state.getAz()[i] - refZ[i];
+      double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+      maxErr = Math.max(maxErr, Math.sqrt(ex * ex + ey * ey + ez * ez) / ref);
+    }
+    return maxErr;
+  }
+
+  // A zero opening angle opens every node and gives the direct sum
+  @Test
+  public void testZeroThetaIsExact() {
+    for (Systems system : Systems.values()) {
+      assertEquals(0, maxRelativeError(system, new BarnesHutGravity(0)), 1e-12);
+    }
+  }
+
+  // The usual opening angle stays close to the direct sum
+  @Test
+  public void testAccuracy() {
+    for (Systems system : Systems.values()) {
+      assertTrue(maxRelativeError(system, new BarnesHutGravity(0.5)) < 1e-3);
+    }
+  }
+
+  // Opening angles that could let a body pull itself are refused
+  @Test
+  public void testThetaRange() {
+    assertThrows(IllegalArgumentException.class, () -> new BarnesHutGravity(-0.1));
+    assertThrows(IllegalArgumentException.class, () -> new BarnesHutGravity(1.2));
+    assertEquals(1, new BarnesHutGravity(1).getTheta());
+  }
+}
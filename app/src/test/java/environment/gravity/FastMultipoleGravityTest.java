@@ -0,0 +1,67 @@
+package environment.gravity;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import environment.BodyState;
+import environment.SolarSystem;
+import environment.Systems;
+
+public class FastMultipoleGravityTest {
+
+  /**
+   * Computes the accelerations of a system with both solvers and returns the
+   * mean and the largest relative difference
+   */
+  private double[] relativeErrors(SolarSystem solarSystem, GravitySolver solver) {
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+
+    new DirectGravity().computeAccelerations(state, solarSystem.getGravity());
+    double[] refX = state.getAx().clone();
+    double[] refY = state.getAy().clone();
+    double[] refZ = state.getAz().clone();
+    solver.computeAccelerations(state, solarSystem.getGravity());
+
+    double meanErr = 0;
+    double maxErr = 0;
+    for (int i = 0; i < state.size(); i++) {
+      double ex = state.getAx()[i] - refX[i];
+      double ey = state.getAy()[i] - refY[i];
+      double ez = state.getAz()[i] - refZ[i];
+      double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+      double err = Math.sqrt(ex * ex + ey * ey + ez * ez) / ref;
+      meanErr += err / state.size();
+      maxErr = Math.max(maxErr, err);
+    }
+    return new double[] { meanErr, maxErr };
+  }
+
+  // Higher expansion orders are more accurate on a system with a belt
+  @Test
+  public void testOrders() {
+    for (Systems system : Systems.values()) {
+      SolarSystem solarSystem = new SolarSystem(system);
+      GravityReport.addBelt(solarSystem.getBodies(), 1000, new Random(1));
+      double err0 = relativeErrors(solarSystem, new FastMultipoleGravity(0.5, 0))[1];
+      double err2 = relativeErrors(solarSystem, new FastMultipoleGravity(0.5, 2))[1];
+      assertTrue(err2 < err0);
+      assertTrue(err2 < 1e-4);
+    }
+  }
+
+  // Without heavy bodies, every body goes through the tree. Some bodies of the
+  // disk feel almost no net pull, so only the mean error is meaningful
+  @Test
+  public void testSelfGravitatingDisk() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    solarSystem.getBodies().subList(1, solarSystem.getBodies().size()).clear();
+    GravityReport.addDisk(solarSystem.getBodies(), 3000, new Random(1));
+    solarSystem.getBodies().remove(0);
+    FastMultipoleGravity solver = new FastMultipoleGravity(0.4, 2);
+    solver.setHeavyFraction(1);
+    assertTrue(relativeErrors(solarSystem, solver)[0] < 5e-3);
+  }
+}
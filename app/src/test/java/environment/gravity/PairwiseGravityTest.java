@@ -0,0 +1,122 @@
+package environment.gravity;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import environment.BodyState;
+import environment.SolarSystem;
+import environment.Systems;
+
+public class PairwiseGravityTest {
+
+  /**
+   * Computes the accelerations of a system with an asteroid belt with the direct
+   * sum and the given solver and returns the largest relative difference
+   */
+  private double maxRelativeError(Systems system, int belt, GravitySolver solver) {
+    SolarSystem solarSystem = new SolarSystem(system);
+    GravityReport.addBelt(solarSystem.getBodies(), belt, new Random(3));
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+
+    new DirectGravity().computeAccelerations(state, solarSystem.getGravity());
+    double[] refX = state.getAx().clone();
+    double[] refY = state.getAy().clone();
+    double[] refZ = state.getAz().clone();
+    solver.computeAccelerations(state, solarSystem.getGravity());
+
+    double maxErr = 0;
+    for (int i = 0; i < state.size(); i++) {
+      double ex = state.getAx()[i] - refX[i];
+      double ey = state.getAy()[i] - refY[i];
+      double ez = state.getAz()[i] - refZ[i];
+      double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+      maxErr = Math.max(maxErr, Math.sqrt(ex * ex + ey * ey + ez * ez) / ref);
+    }
+    return maxErr;
+  }
+
+  // Visiting each pair once gives the direct sum up to rounding
+  @Test
+  public void testMatchesDirect() {
+    for (Systems system : Systems.values()) {
+      assertEquals(0, maxRelativeError(system, 500, new PairwiseGravity()), 1e-9);
+    }
+  }
+
+  // The per block buffers give the same sum as the sequential path
+  @Test
+  public void testParallel() {
+    PairwiseGravity solver = new PairwiseGravity();
+    ForkJoinPool pool = new ForkJoinPool(4);
+    solver.setPool(pool);
+    solver.setParallelThreshold(0);
+    for (Systems system : Systems.values()) {
+      assertEquals(0, maxRelativeError(system, 3000, solver), 1e-9);
+    }
+    pool.shutdown();
+  }
+
+  // The blocks cover every row and hold about the same number of pairs
+  @Test
+  public void testBalancedRows() {
+    int n = 1000;
+    int[] rows = PairwiseGravity.balancedRows(n, 4);
+    assertEquals(0, rows[0]);
+    assertEquals(n, rows[4]);
+    for (int b = 0; b < 4; b++) {
+      long pairs = 0;
+      for (int i = rows[b]; i < rows[b + 1]; i++) {
+        pairs += n - 1 - i;
+      }
+      assertEquals(n * (n - 1) / 8.0, pairs, n);
+    }
+  }
+
+  // The jerks are the time derivatives of the accelerations, on both paths
+  @Test
+  public void testJerks() {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    GravityReport.addBelt(solarSystem.getBodies(), 3000, new Random(4));
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+    int n = state.size();
+    double g = solarSystem.getGravity();
+    PairwiseGravity solver = new PairwiseGravity();
+    solver.setParallelThreshold(Integer.MAX_VALUE);
+    solver.computeAccelerationsAndJerks(state, g);
+    double[] jx = state.getJx().clone();
+
+    // Centered finite difference of the accelerations along the motion
+    double eps = 600;
+    BodyState moved = new BodyState(0);
+    moved.pull(solarSystem.getBodies());
+    for (int i = 0; i < n; i++) {
+      moved.getX()[i] += eps * moved.getVx()[i];
+      moved.getY()[i] += eps * moved.getVy()[i];
+    }
+    solver.computeAccelerations(moved, g);
+    double[] ahead = moved.getAx().clone();
+    for (int i = 0; i < n; i++) {
+      moved.getX()[i] -= 2 * eps * moved.getVx()[i];
+      moved.getY()[i] -= 2 * eps * moved.getVy()[i];
+    }
+    solver.computeAccelerations(moved, g);
+    for (int i = 0; i < n; i++) {
+      double fd = (ahead[i] - moved.getAx()[i]) / (2 * eps);
+      assertEquals(fd, jx[i], 1e-4 * Math.abs(fd) + 1e-20);
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    solver.setPool(pool);
+    solver.setParallelThreshold(0);
+    solver.computeAccelerationsAndJerks(state, g);
+    pool.shutdown();
+    for (int i = 0; i < n; i++) {
+      assertEquals(jx[i], state.getJx()[i], 1e-9 * Math.abs(jx[i]));
+    }
+  }
+}
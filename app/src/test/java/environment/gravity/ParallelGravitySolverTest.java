@@ -0,0 +1,84 @@
+package environment.gravity;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import environment.BodyState;
+import environment.SolarSystem;
+import environment.Systems;
+
+public class ParallelGravitySolverTest {
+
+  /**
+   * Pulls the default system with an asteroid belt into a state store
+   */
+  private BodyState beltState(SolarSystem solarSystem) {
+    GravityReport.addBelt(solarSystem.getBodies(), 3000, new Random(2));
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+    return state;
+  }
+
+  /**
+   * Computes the accelerations on the sequential path, then on a pool of 4
+   * threads, and returns the largest relative difference between both
+   */
+  private double maxParallelDifference(ParallelGravitySolver solver) {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    BodyState state = beltState(solarSystem);
+
+    solver.setParallelThreshold(Integer.MAX_VALUE);
+    solver.computeAccelerations(state, solarSystem.getGravity());
+    double[] refX = state.getAx().clone();
+    double[] refY = state.getAy().clone();
+    double[] refZ = state.getAz().clone();
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    solver.setPool(pool);
+    solver.setParallelThreshold(0);
+    solver.computeAccelerations(state, solarSystem.getGravity());
+    pool.shutdown();
+
+    double maxErr = 0;
+    for (int i = 0; i < state.size(); i++) {
+      double ex = state.getAx()[i] - refX[i];
+      double ey = state.getAy()[i] - refY[i];
+      double ez = state.getAz()[i] - refZ[i];
+      double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+      maxErr = Math.max(maxErr, Math.sqrt(ex * ex + ey * ey + ez * ez) / ref);
+    }
+    return maxErr;
+  }
+
+  // Splitting the bodies between threads does not change the direct sum
+  @Test
+  public void testDirect() {
+    assertEquals(0, maxParallelDifference(new DirectGravity()), 0);
+  }
+
+  // Each body walks the same octree whatever the thread
+  @Test
+  public void testBarnesHut() {
+    assertEquals(0, maxParallelDifference(new BarnesHutGravity(0.5)), 0);
+  }
+
+  // The subtrees are opened a bit differently, but stay as accurate
+  @Test
+  public void testFastMultipole() {
+    assertTrue(maxParallelDifference(new FastMultipoleGravity(0.5, 2)) < 1e-5);
+  }
+
+  // Small systems stay on the sequential path with the default threshold
+  @Test
+  public void testThreshold() {
+    DirectGravity solver = new DirectGravity();
+    solver.setPool(new ForkJoinPool(4));
+    assertFalse(solver.isParallel(new SolarSystem(Systems.Trappist1).getBodies().size()));
+    assertTrue(solver.isParallel(ParallelGravitySolver.DEFAULT_PARALLEL_THRESHOLD));
+    solver.setPool(null);
+    assertFalse(solver.isParallel(ParallelGravitySolver.DEFAULT_PARALLEL_THRESHOLD));
+  }
+}
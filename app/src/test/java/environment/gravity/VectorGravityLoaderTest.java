@@ -0,0 +1,69 @@
+package environment.gravity;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import environment.BodyState;
+import environment.SolarSystem;
+import environment.Systems;
+
+public class VectorGravityLoaderTest {
+
+  /**
+   * Computes the accelerations of a system with an asteroid belt with the direct
+   * sum and the given solver and returns the largest relative difference
+   */
+  private double maxRelativeError(Systems system, int belt, GravitySolver solver) {
+    SolarSystem solarSystem = new SolarSystem(system);
+    GravityReport.addBelt(solarSystem.getBodies(), belt, new Random(5));
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+
+    new DirectGravity().computeAccelerations(state, solarSystem.getGravity());
+    double[] refX = state.getAx().clone();
+    double[] refY = state.getAy().clone();
+    double[] refZ = state.getAz().clone();
+    solver.computeAccelerations(state, solarSystem.getGravity());
+
+    double maxErr = 0;
+    for (int i = 0; i < state.size(); i++) {
+      double ex = state.getAx()[i] - refX[i];
+      double ey = state.getAy()[i] - refY[i];
+      double ez = state.getAz()[i] - refZ[i];
+      double ref = Math.sqrt(refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i]);
+      maxErr = Math.max(maxErr, Math.sqrt(ex * ex + ey * ey + ez * ez) / ref);
+    }
+    return maxErr;
+  }
+
+  // Whichever solver is loaded (SIMD kernel or scalar fallback), it is exact
+  @Test
+  public void testLoadedSolver() {
+    VectorGravityLoader.Result result = VectorGravityLoader.tryLoad();
+    GravitySolver solver = result.getSolver();
+    assertEquals(result.isVectorized(), !(solver instanceof PairwiseGravity));
+    assertEquals(result.isVectorized(), result.getFallbackReason() == null);
+    assertTrue(VectorGravityLoader.matchesScalar(solver));
+    for (Systems system : Systems.values()) {
+      assertEquals(0, maxRelativeError(system, 1001, solver), 1e-9);
+    }
+    if (solver instanceof ParallelGravitySolver) {
+      ParallelGravitySolver parallel = (ParallelGravitySolver) solver;
+      ForkJoinPool pool = new ForkJoinPool(4);
+      parallel.setPool(pool);
+      parallel.setParallelThreshold(0);
+      assertEquals(0, maxRelativeError(Systems.SolarSystem, 1001, parallel), 1e-9);
+      pool.shutdown();
+    }
+  }
+
+  // The check rejects a solver that is only approximate
+  @Test
+  public void testCheckRejects() {
+    assertFalse(VectorGravityLoader.matchesScalar(new BarnesHutGravity(1.0)));
+    assertTrue(VectorGravityLoader.matchesScalar(new DirectGravity()));
+  }
+}
@@ -0,0 +1,344 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+
+import environment.Body;
+import environment.BodyState;
+import environment.CrashedPlanet;
+import environment.SolarSystem;
+import environment.Systems;
+import environment.gravity.BarnesHutGravity;
+import environment.gravity.PairwiseGravity;
+
+public class ODESolverTest {
+
+  /**
+   * Single body orbiting a fixed unit mass at the origin (G = 1)
+   */
+  private static class Kepler implements SecondOrderSystem {
+    double[] x = new double[1], y = new double[1], z = new double[1];
+    double[] vx = new double[1], vy = new double[1], vz = new double[1];
+    double[] ax = new double[1], ay = new double[1], az = new double[1];
+    double[] mass = { 1 };
+
+    /**
+     * Starts at the pericenter of an orbit of semi-major axis 1 (period 2 pi)
+     */
+    Kepler(double e) {
+      x[0] = 1 - e;
+      vy[0] = Math.sqrt((1 + e) / (1 - e));
+    }
+
+    double energy() {
+      double r = Math.sqrt(x[0] * x[0] + y[0] * y[0] + z[0] * z[0]);
+      return 0.5 * (vx[0] * vx[0] + vy[0] * vy[0] + vz[0] * vz[0]) - 1 / r;
+    }
+
+    public int size() { return 1; }
+    public void computeAccelerations() {
+      double r2 = x[0] * x[0] + y[0] * y[0] + z[0] * z[0];
+      double s = -1 / (r2 * Math.sqrt(r2));
+      ax[0] = s * x[0];
+      ay[0] = s * y[0];
+      az[0] = s * z[0];
+    }
+    public double getGravity() { return 1; }
+    public double[] getMass() { return mass; }
+    public double[] getX() { return x; }
+    public double[] getY() { return y; }
+    public double[] getZ() { return z; }
+    public double[] getVx() { return vx; }
+    public double[] getVy() { return vy; }
+    public double[] getVz() { return vz; }
+    public double[] getAx() { return ax; }
+    public double[] getAy() { return ay; }
+    public double[] getAz() { return az; }
+  }
+
+  /**
+   * Integrates the orbit over 5 time units (most of an orbit) and returns the
+   * final position
+   */
+  private double[] integrate(ODESolver solver, int steps) {
+    Kepler kepler = new Kepler(0.5);
+    double dt = 5.0 / steps;
+    for (int k = 0; k < steps; k++) {
+      solver.step(kepler, dt);
+    }
+    return new double[] { kepler.x[0], kepler.y[0] };
+  }
+
+  /**
+   * Distance between the final position of a solver and a very accurate one
+   */
+  private double orbitError(ODESolver solver, int steps) {
+    double[] ref = integrate(new Yoshida6(), 20000);
+    double[] pos = integrate(solver, steps);
+    return Math.hypot(pos[0] - ref[0], pos[1] - ref[1]);
+  }
+
+  /**
+   * Estimates the order of a solver from the errors with n and 2n steps
+   */
+  private double order(ODESolver solver, int steps) {
+    return Math.log(orbitError(solver, steps) / orbitError(solver, 2 * steps)) / Math.log(2);
+  }
+
+  // Each solver converges at its nominal order
+  @Test
+  public void testOrders() {
+    assertEquals(1, order(new SemiImplicitEuler(), 20000), 0.2);
+    assertEquals(2, order(new Leapfrog(), 2000), 0.2);
+    assertEquals(4, order(new RungeKutta4(), 1000), 0.3);
+    assertEquals(4, order(new Yoshida4(), 1000), 0.3);
+    assertEquals(6, order(new Yoshida6(), 200), 0.5);
+  }
+
+  // The energy of a symplectic solver does not drift over many orbits
+  @Test
+  public void testSymplecticEnergy() {
+    ODESolver[] solvers = { new Leapfrog(), new Yoshida4(), new Yoshida6() };
+    for (ODESolver solver : solvers) {
+      Kepler kepler = new Kepler(0.5);
+      double e0 = kepler.energy();
+      double dt = 2 * Math.PI / 500;
+      double firstOrbit = 0;
+      for (int k = 0; k < 500; k++) {
+        solver.step(kepler, dt);
+        firstOrbit = Math.max(firstOrbit, Math.abs(kepler.energy() - e0));
+      }
+      for (int k = 0; k < 100 * 500; k++) {
+        solver.step(kepler, dt);
+      }
+      assertTrue(Math.abs(kepler.energy() - e0) <= 2 * firstOrbit);
+    }
+  }
+
+  // The adaptive solver splits a single step over a very eccentric orbit to meet its tolerance
+  @Test
+  public void testAdaptive() {
+    DormandPrince solver = new DormandPrince(1e-10);
+    Kepler kepler = new Kepler(0.95);
+    double e0 = kepler.energy();
+    solver.step(kepler, 2 * Math.PI);
+    assertTrue(solver.getLastSubsteps() > 50);
+    assertEquals(0.05, kepler.x[0], 1e-5);
+    assertEquals(0, kepler.y[0], 1e-5);
+    assertEquals(0, (kepler.energy() - e0) / e0, 1e-7);
+
+    // A tighter tolerance takes more substeps
+    int substeps = solver.getLastSubsteps();
+    solver.setTolerance(1e-12);
+    solver.step(new Kepler(0.95), 2 * Math.PI);
+    assertTrue(solver.getLastSubsteps() > substeps);
+    assertThrows(IllegalArgumentException.class, () -> solver.setTolerance(0));
+
+    // Stepping back in time retraces the orbit
+    Kepler back = new Kepler(0.5);
+    solver.step(back, 2.0);
+    solver.step(back, -2.0);
+    assertTrue(solver.getLastSubsteps() > 1);
+    assertEquals(0.5, back.x[0], 1e-9);
+    assertEquals(0, back.y[0], 1e-9);
+
+    // A single body at rest has no error to scale, it stays put in one substep
+    SolarSystem alone = new SolarSystem(Systems.SolarSystem);
+    alone.getBodies().clear();
+    alone.getBodies().add(new CrashedPlanet(7e8, 2e30, new Vector3D(), new Vector3D(), "Alone"));
+    alone.setUseStateStore(true);
+    DormandPrince resting = new DormandPrince(1e-9);
+    alone.setSolver(resting);
+    alone.stepN(3600, 1);
+    assertEquals(1, resting.getLastSubsteps());
+    assertEquals(0, alone.getBodies().get(0).getX());
+
+    // A state that is not finite fails instead of looping
+    Kepler broken = new Kepler(0.5);
+    broken.vy[0] = Double.NaN;
+    assertThrows(IllegalStateException.class, () -> resting.step(broken, 1));
+  }
+
+  /**
+   * Integrates the default system for 384 days and returns the state store
+   */
+  private BodyState integrateYear(ODESolver solver, double dt) {
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+    state.setForces(new PairwiseGravity(), solarSystem.getGravity());
+    long steps = Math.round(384 * 86400.0 / dt);
+    for (long k = 0; k < steps; k++) {
+      solver.step(state, dt);
+    }
+    return state;
+  }
+
+  // Inner planets get shorter steps, with far fewer updates than uniform steps
+  // and the same accuracy for the body on the deepest level
+  @Test
+  public void testBlockTimeStep() {
+    double dt = 16 * 86400.0;
+    BlockTimeStep solver = new BlockTimeStep(0.01);
+    BodyState block = integrateYear(solver, dt);
+    int mercury = 1;
+    int neptune = block.size() - 1;
+    assertTrue(solver.getLevels()[mercury] > solver.getLevels()[neptune] + 2);
+    int n = block.size();
+    assertTrue(solver.getLastUpdates() < n * solver.getLastSubsteps() / 4);
+
+    BodyState uniform = integrateYear(new Leapfrog(), dt / solver.getLastSubsteps());
+    BodyState ref = integrateYear(new Yoshida6(), 86400.0);
+    for (int i = 1; i < n; i++) {
+      double r = Math.hypot(ref.getX()[i], ref.getY()[i]);
+      double blockErr = Math.hypot(block.getX()[i] - ref.getX()[i], block.getY()[i] - ref.getY()[i]) / r;
+      double uniformErr = Math.hypot(uniform.getX()[i] - ref.getX()[i], uniform.getY()[i] - ref.getY()[i]) / r;
+      assertTrue(blockErr < 1e-2);
+      if (i == mercury) {
+        assertTrue(blockErr < 10 * uniformErr);
+      }
+    }
+  }
+
+  // A heavy body at rest at the barycenter stays near the level of the orbits pulling it
+  @Test
+  public void testBlockTimeStepBarycenter() {
+    double g = 6.674e-11;
+    double mStar = 2e30;
+    double r = 1.5e11;
+    double v = Math.sqrt(g * mStar / r);
+    // The momenta of the planets cancel, so the star does not move relative to the center of mass
+    ArrayList<Body> bodies = new ArrayList<Body>();
+    bodies.add(new CrashedPlanet(7e8, mStar, new Vector3D(), new Vector3D(), "Star"));
+    bodies.add(new CrashedPlanet(7e7, 1e27, new Vector3D(r, 0, 0), new Vector3D(0, v, 0), "Inner"));
+    bodies.add(new CrashedPlanet(7e7, Math.sqrt(2) * 1e27, new Vector3D(-2 * r, 0, 0),
+        new Vector3D(0, -v / Math.sqrt(2), 0), "Outer"));
+    BodyState state = new BodyState(0);
+    state.pull(bodies);
+    state.setForces(new PairwiseGravity(), g);
+
+    BlockTimeStep solver = new BlockTimeStep(0.01);
+    solver.step(state, 86400.0);
+    // Its pulls partly cancel, so its acceleration turns a little faster than the inner orbit
+    int[] levels = solver.getLevels();
+    assertTrue(levels[0] <= levels[1] + 1);
+    assertTrue(solver.getLastSubsteps() <= 8);
+  }
+
+  // The Kepler drift follows bound and unbound orbits exactly
+  @Test
+  public void testKeplerDrift() {
+    double[] out = new double[6];
+    // A full period of an eccentric orbit comes back to the start
+    WisdomHolman.keplerDrift(1, 0.1, 0, 0, 0, Math.sqrt(1.9 / 0.1), 0, 2 * Math.PI, out);
+    assertEquals(0.1, out[0], 1e-12);
+    assertEquals(0, out[1], 1e-12);
+    // Half a period reaches the apocenter
+    WisdomHolman.keplerDrift(1, 0.1, 0, 0, 0, Math.sqrt(1.9 / 0.1), 0, Math.PI, out);
+    assertEquals(-1.9, out[0], 1e-10);
+    // A hyperbolic orbit keeps its energy
+    WisdomHolman.keplerDrift(1, 1, 0, 0, 0, 2, 0, 10, out);
+    double e = 0.5 * (out[3] * out[3] + out[4] * out[4]) - 1 / Math.hypot(out[0], out[1]);
+    assertEquals(0.5 * 4 - 1, e, 1e-12);
+  }
+
+  // With steps of a tenth of Mercury's period, Wisdom-Holman stays accurate
+  // where the leapfrog is lost
+  @Test
+  public void testWisdomHolman() {
+    double dt = 8 * 86400;
+    BodyState wh = integrateYear(new WisdomHolman(), dt);
+    BodyState leapfrog = integrateYear(new Leapfrog(), dt);
+    BodyState ref = integrateYear(new Yoshida6(), 86400.0 / 4);
+    BodyState start = new BodyState(0);
+    start.pull(new SolarSystem(Systems.SolarSystem).getBodies());
+    start.setForces(new PairwiseGravity(), ref.getGravity());
+    double e0 = start.totalEnergy(start.getGravity());
+    double whError = Math.abs((wh.totalEnergy(wh.getGravity()) - e0) / e0);
+    double leapfrogError = Math.abs((leapfrog.totalEnergy(leapfrog.getGravity()) - e0) / e0);
+    assertTrue(whError < 1e-6);
+    assertTrue(whError < 0.1 * leapfrogError);
+    for (int i = 1; i < wh.size(); i++) {
+      double r = Math.hypot(ref.getX()[i], ref.getY()[i]);
+      double whErr = Math.hypot(wh.getX()[i] - ref.getX()[i], wh.getY()[i] - ref.getY()[i]) / r;
+      double leapfrogErr = Math.hypot(leapfrog.getX()[i] - ref.getX()[i], leapfrog.getY()[i] - ref.getY()[i]) / r;
+      assertTrue(whErr < 1e-2);
+      assertTrue(whErr <= leapfrogErr);
+    }
+  }
+
+  // Hermite resolves a close pass within a single long step
+  @Test
+  public void testHermite() {
+    // Mercury alone with the Sun, on a very eccentric orbit
+    SolarSystem solarSystem = new SolarSystem(Systems.SolarSystem);
+    solarSystem.getBodies().subList(2, solarSystem.getBodies().size()).clear();
+    solarSystem.getBodies().get(1).getVel().setComponents(0, 15000, 0);
+    BodyState state = new BodyState(0);
+    state.pull(solarSystem.getBodies());
+    state.setForces(new PairwiseGravity(), solarSystem.getGravity());
+    double e0 = state.totalEnergy(state.getGravity());
+
+    Hermite solver = new Hermite(0.005);
+    solver.step(state, 30 * 86400.0);
+    assertTrue(solver.getLastSubsteps() > 10);
+    assertEquals(0, (state.totalEnergy(state.getGravity()) - e0) / e0, 5e-6);
+
+    BodyState ref = new BodyState(0);
+    ref.pull(solarSystem.getBodies());
+    ref.setForces(new PairwiseGravity(), solarSystem.getGravity());
+    new DormandPrince(1e-12).step(ref, 30 * 86400.0);
+    double r = Math.hypot(ref.getX()[1], ref.getY()[1]);
+    assertEquals(0, Math.hypot(state.getX()[1] - ref.getX()[1], state.getY()[1] - ref.getY()[1]) / r, 1e-4);
+
+    // Going back in time returns to the start
+    solver.step(state, -30 * 86400.0);
+    assertEquals(solarSystem.getBodies().get(1).getX(), state.getX()[1], 1e-5 * r);
+    assertEquals(solarSystem.getBodies().get(1).getY(), state.getY()[1], 1e-5 * r);
+
+    // Tree codes do not compute jerks, the system refuses them with Hermite up front
+    state.setForces(new BarnesHutGravity(0.5), solarSystem.getGravity());
+    assertThrows(UnsupportedOperationException.class, () -> solver.step(state, 86400.0));
+    solarSystem.setSolver(solver);
+    assertThrows(IllegalArgumentException.class, () -> solarSystem.setGravitySolver(new BarnesHutGravity(0.5)));
+    solarSystem.setSolver(new Leapfrog());
+    solarSystem.setGravitySolver(new BarnesHutGravity(0.5));
+    assertThrows(IllegalArgumentException.class, () -> solarSystem.setSolver(solver));
+  }
+
+  // Hermite steps past a body without acceleration and fails on a collapsed substep
+  @Test
+  public void testHermiteLimits() {
+    double g = 6.674e-11;
+    double mStar = 2e30;
+    double r = 1.5e11;
+    double v = Math.sqrt(g * mStar / (4 * r));
+    // The planet sits halfway between two stars orbiting each other, so it feels no pull
+    ArrayList<Body> bodies = new ArrayList<Body>();
+    bodies.add(new CrashedPlanet(7e8, mStar, new Vector3D(-r, 0, 0), new Vector3D(0, -v, 0), "Left"));
+    bodies.add(new CrashedPlanet(7e8, mStar, new Vector3D(r, 0, 0), new Vector3D(0, v, 0), "Right"));
+    bodies.add(new CrashedPlanet(7e6, 1e24, new Vector3D(), new Vector3D(0, 1000, 0), "Middle"));
+    BodyState state = new BodyState(0);
+    state.pull(bodies);
+    state.setForces(new PairwiseGravity(), g);
+    double e0 = state.totalEnergy(g);
+
+    Hermite solver = new Hermite(0.01);
+    solver.step(state, 86400.0);
+    assertTrue(solver.getLastSubsteps() >= 1);
+    assertEquals(0, (state.totalEnergy(g) - e0) / e0, 1e-9);
+    assertEquals(86400.0 * 1000, state.getY()[2], 1e-3 * 86400.0 * 1000);
+
+    // Two stars a kilometer apart need far more substeps than a year allows
+    bodies.clear();
+    bodies.add(new CrashedPlanet(7e8, mStar, new Vector3D(), new Vector3D(), "Left"));
+    bodies.add(new CrashedPlanet(7e8, mStar, new Vector3D(1000, 0, 0), new Vector3D(0, 1, 0), "Right"));
+    BodyState close = new BodyState(0);
+    close.pull(bodies);
+    close.setForces(new PairwiseGravity(), g);
+    Hermite collapsed = new Hermite(0.01);
+    assertThrows(IllegalStateException.class, () -> collapsed.step(close, 1e14));
+  }
+}
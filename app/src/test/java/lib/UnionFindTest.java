@@ -0,0 +1,58 @@
+package lib;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+public class UnionFindTest {
+
+  // Sets merge along chains of unions
+  @Test
+  public void testUnion() {
+    UnionFind sets = new UnionFind(6);
+    assertEquals(6, sets.getNbSets());
+    assertTrue(sets.union(0, 1));
+    assertTrue(sets.union(4, 1));
+    assertFalse(sets.union(0, 4));
+    assertTrue(sets.union(2, 3));
+    assertEquals(3, sets.getNbSets());
+    assertEquals(sets.find(0), sets.find(4));
+    assertTrue(sets.find(0) != sets.find(2));
+    assertEquals(3, sets.setSize(1));
+    assertEquals(1, sets.setSize(5));
+
+    sets.reset(8);
+    assertEquals(8, sets.size());
+    assertEquals(8, sets.getNbSets());
+    assertEquals(1, sets.setSize(0));
+  }
+
+  // Same sets as a naive labelling on random unions
+  @Test
+  public void testRandom() {
+    Random rand = new Random(14);
+    int n = 500;
+    UnionFind sets = new UnionFind(n);
+    int[] label = new int[n];
+    for (int i = 0; i < n; i++) {
+      label[i] = i;
+    }
+    for (int k = 0; k < 300; k++) {
+      int i = rand.nextInt(n);
+      int j = rand.nextInt(n);
+      sets.union(i, j);
+      int from = label[j];
+      for (int l = 0; l < n; l++) {
+        if (label[l] == from) {
+          label[l] = label[i];
+        }
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j += 7) {
+        assertEquals(label[i] == label[j], sets.find(i) == sets.find(j));
+      }
+    }
+  }
+}
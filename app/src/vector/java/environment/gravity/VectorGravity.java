@@ -0,0 +1,131 @@
+package environment.gravity;
+
+import environment.BodyState;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Exact O(n^2) gravity like DirectGravity, with the inner loop over the pulling
+ * bodies written with the Vector API so that several of them are processed at
+ * once in the SIMD lanes of the processor. The positions and masses are read
+ * straight from the primitive arrays of the state store, the bodies left after
+ * the last full vector being summed one by one.
+ *
+ * The Vector API is still an incubator module, which must be added with
+ * --add-modules jdk.incubator.vector both when compiling and when running.
+ * This class is thus kept out of the main sources, in the vector source set
+ * which is only compiled on request (see the README). Do not create it
+ * directly: VectorGravityLoader loads it by name only if it was compiled and
+ * the module is present, and falls back on a scalar solver otherwise.
+ */
+public class VectorGravity extends ParallelGravitySolver {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED; // Widest vectors of the processor
+
+  /**
+   * Computes the gravitational acceleration on every body from all the others
+   * by direct summation, several bodies at a time
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity) {
+    int n = state.size();
+    if (isParallel(n)) {
+      forEachRange(n, (from, to) -> accelerate(state, gravity, null, from, to));
+    } else {
+      accelerate(state, gravity, null, 0, n);
+    }
+  }
+
+  /**
+   * Computes the acceleration of some of the bodies from all the others
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies to update
+   * @param count number of indices used in the active array
+   */
+  @Override
+  public void computeAccelerations(BodyState state, double gravity, int[] active, int count) {
+    if (isParallel(count)) {
+      forEachRange(count, (from, to) -> accelerate(state, gravity, active, from, to));
+    } else {
+      accelerate(state, gravity, active, 0, count);
+    }
+  }
+
+  /**
+   * Computes the acceleration of a range of bodies from all the others
+   * @param state state store holding the positions and masses of the bodies
+   * @param gravity gravitational constant in m^3 kg^-1 s^-2
+   * @param active indices of the bodies, or null to use the range as indices
+   * @param from first entry of the range
+   * @param to entry after the last entry of the range
+   */
+  private static void accelerate(BodyState state, double gravity, int[] active, int from, int to) {
+    int n = state.size();
+    double[] x = state.getX();
+    double[] y = state.getY();
+    double[] z = state.getZ();
+    double[] mass = state.getMass();
+    double[] ax = state.getAx();
+    double[] ay = state.getAy();
+    double[] az = state.getAz();
+    int lanes = SPECIES.length();
+    int bound = SPECIES.loopBound(n);
+    DoubleVector zero = DoubleVector.zero(SPECIES);
+
+    for (int k = from; k < to; k++) {
+      int i = active == null ? k : active[k];
+      double xi = x[i];
+      double yi = y[i];
+      double zi = z[i];
+      DoubleVector sumX = zero;
+      DoubleVector sumY = zero;
+      DoubleVector sumZ = zero;
+      int j = 0;
+      for (; j < bound; j += lanes) {
+        DoubleVector dx = DoubleVector.fromArray(SPECIES, x, j).sub(xi);
+        DoubleVector dy = DoubleVector.fromArray(SPECIES, y, j).sub(yi);
+        DoubleVector dz = DoubleVector.fromArray(SPECIES, z, j).sub(zi);
+        DoubleVector dist2 = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz));
+        DoubleVector s = DoubleVector.fromArray(SPECIES, mass, j).div(dist2.mul(dist2.sqrt()));
+        // The body itself is at distance 0 and must not pull, its lane is zeroed
+        s = s.blend(zero, dist2.compare(VectorOperators.EQ, 0));
+        sumX = sumX.add(dx.mul(s));
+        sumY = sumY.add(dy.mul(s));
+        sumZ = sumZ.add(dz.mul(s));
+      }
+      double axi = sumX.reduceLanes(VectorOperators.ADD);
+      double ayi = sumY.reduceLanes(VectorOperators.ADD);
+      double azi = sumZ.reduceLanes(VectorOperators.ADD);
+
+      // Remaining bodies, fewer than a full vector
+      for (; j < n; j++) {
+        if (j == i) { // Avoid self-interaction
+          continue;
+        }
+        double dx = x[j] - xi;
+        double dy = y[j] - yi;
+        double dz = z[j] - zi;
+        double dist2 = dx * dx + dy * dy + dz * dz;
+        double s = mass[j] / (dist2 * Math.sqrt(dist2));
+        axi += dx * s;
+        ayi += dy * s;
+        azi += dz * s;
+      }
+      ax[i] = gravity * axi;
+      ay[i] = gravity * ayi;
+      az[i] = gravity * azi;
+    }
+  }
+
+  /**
+   * Getter for the name of the solver
+   * @return name of the solver
+   */
+  @Override
+  public String getName() {
+    return "Vector (" + SPECIES.length() + " lanes)";
+  }
+}